@@ -0,0 +1,147 @@
+package com.example.finalturnin;
+
+import javafx.scene.paint.Color;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * BatchRenderer renders drawing scripts to image files without a JavaFX stage.
+ * Each script is replayed into an off-screen BufferedImage with Java2D, so no FX thread or
+ * display is needed and many scripts render in parallel on a thread pool.
+ * See {@link DrawingScript} for the script format.
+ * <p>
+ * Usage: {@code java com.example.finalturnin.BatchRenderer [-threads n] [-format png|jpg] outputDir script...}
+ * <br>
+ * A directory given as a script renders every {@code *.txt} file in it. Each image is written to
+ * the output directory under the script's name with the format's extension.
+ * </p>
+ */
+public class BatchRenderer {
+    /**
+     * Renders a script into a new image.
+     *
+     * @param script The script to render.
+     * @param opaque Whether to render without alpha, as JPEG requires.
+     * @return The rendered image.
+     */
+    static BufferedImage render(DrawingScript script, boolean opaque) {
+        int width = script.getWidth();
+        int height = script.getHeight();
+        BufferedImage image = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            Color background = script.getBackground();
+            g.setColor(new java.awt.Color((float) background.getRed(), (float) background.getGreen(),
+                    (float) background.getBlue(), (float) background.getOpacity()));
+            g.fillRect(0, 0, width, height);
+            script.toDisplayList().render(g, 0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Renders one script file and writes the image.
+     *
+     * @param scriptFile The script to render.
+     * @param outputDir  The directory to write the image to.
+     * @param format     The image format, "png" or "jpg".
+     * @return The written image file.
+     * @throws IOException if the script cannot be read or parsed, or the image cannot be written.
+     */
+    static File renderFile(Path scriptFile, Path outputDir, String format) throws IOException {
+        DrawingScript script = DrawingScript.read(scriptFile);
+        BufferedImage image = render(script, format.equals("jpg"));
+
+        String name = scriptFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        File output = outputDir.resolve((dot > 0 ? name.substring(0, dot) : name) + "." + format).toFile();
+        if (!ImageIO.write(image, format, output)) {
+            throw new IOException("No writer for format " + format);
+        }
+        return output;
+    }
+
+    /**
+     * Renders the scripts given on the command line and prints the throughput.
+     *
+     * @param args The options, the output directory and the scripts or directories of scripts.
+     * @throws IOException if a script directory cannot be listed or the output directory cannot be created.
+     * @throws InterruptedException if interrupted while waiting for the renders.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String format = "png";
+        int next = 0;
+        while (next < args.length && args[next].startsWith("-")) {
+            if (args[next].equals("-threads") && next + 1 < args.length) {
+                threads = Integer.parseInt(args[next + 1]);
+            } else if (args[next].equals("-format") && next + 1 < args.length) {
+                format = args[next + 1].toLowerCase(Locale.ROOT).replace("jpeg", "jpg");
+            } else {
+                next = args.length; // Unknown option: print the usage
+                break;
+            }
+            next += 2;
+        }
+        if (args.length - next < 2 || (!format.equals("png") && !format.equals("jpg"))) {
+            System.out.println("Usage: BatchRenderer [-threads n] [-format png|jpg] outputDir script...");
+            return;
+        }
+
+        Path outputDir = Paths.get(args[next]);
+        Files.createDirectories(outputDir);
+        List<Path> scripts = new ArrayList<>();
+        for (int i = next + 1; i < args.length; i++) {
+            Path path = Paths.get(args[i]);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    files.filter(file -> file.toString().endsWith(".txt")).sorted().forEach(scripts::add);
+                }
+            } else {
+                scripts.add(path);
+            }
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<File>> results = new ArrayList<>();
+        String imageFormat = format;
+        for (Path script : scripts) {
+            results.add(pool.submit(() -> renderFile(script, outputDir, imageFormat)));
+        }
+        pool.shutdown();
+
+        int rendered = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+                rendered++;
+            } catch (ExecutionException e) {
+                System.out.println("Error rendering " + scripts.get(i) + ": " + e.getCause().getMessage());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Rendered %d of %d scripts in %.2f s on %d threads (%.1f images/second)%n",
+                rendered, scripts.size(), seconds, threads, rendered / seconds);
+    }
+}
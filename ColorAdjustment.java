@@ -0,0 +1,196 @@
+package com.example.finalturnin;
+
+import java.util.stream.IntStream;
+
+/**
+ * ColorAdjustment changes the colors of ARGB pixels: brightness, contrast, hue and levels.
+ * Brightness, contrast and levels act on each channel alone, so they are composed into one
+ * 256-entry lookup table up front; a hue rotation is a 3x3 matrix applied in the same loop.
+ * Any combination of the adjustments therefore costs a single pass over the pixels.
+ * Alpha is left unchanged.
+ * <p>
+ * The pass runs on {@link VectorColorKernel} when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector} and the CPU has wide enough vectors; otherwise on the scalar loops here.
+ * </p>
+ */
+final class ColorAdjustment {
+    /**
+     * The number of pixels processed by one parallel task.
+     */
+    private static final int BAND_SIZE = 1 << 16;
+
+    /**
+     * Whether the Vector API kernels are used. The module is looked up first, so the kernel class is
+     * never loaded on a JVM without it.
+     */
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorColorKernel.isSupported();
+
+    /**
+     * Brightness offset, from -1 (black) to 1 (white).
+     */
+    private double brightness;
+
+    /**
+     * Contrast, from -1 (flat gray) through 0 (unchanged) to 1 (maximum contrast).
+     */
+    private double contrast;
+
+    /**
+     * Hue rotation, in degrees.
+     */
+    private double hue;
+
+    /**
+     * The input levels mapped to black and white, from 0 to 255.
+     */
+    private int inputBlack = 0, inputWhite = 255;
+
+    /**
+     * The gamma of the levels midtones; 1 leaves them unchanged.
+     */
+    private double gamma = 1;
+
+    /**
+     * @param brightness The brightness offset, from -1 to 1.
+     * @return This adjustment.
+     */
+    ColorAdjustment brightness(double brightness) {
+        this.brightness = brightness;
+        return this;
+    }
+
+    /**
+     * @param contrast The contrast, from -1 to 1.
+     * @return This adjustment.
+     */
+    ColorAdjustment contrast(double contrast) {
+        this.contrast = contrast;
+        return this;
+    }
+
+    /**
+     * @param hue The hue rotation, in degrees.
+     * @return This adjustment.
+     */
+    ColorAdjustment hue(double hue) {
+        this.hue = hue;
+        return this;
+    }
+
+    /**
+     * Sets the levels: input values at or below black become 0, values at or above white become 255,
+     * and the values between are stretched with the given gamma.
+     *
+     * @param black The input black point, from 0 to 254.
+     * @param white The input white point, above the black point.
+     * @param gamma The gamma of the midtones; above 1 brightens them.
+     * @return This adjustment.
+     */
+    ColorAdjustment levels(int black, int white, double gamma) {
+        this.inputBlack = Math.max(0, Math.min(254, black));
+        this.inputWhite = Math.max(this.inputBlack + 1, Math.min(255, white));
+        this.gamma = gamma;
+        return this;
+    }
+
+    /**
+     * Composes brightness, contrast and levels, in that order, into one table mapping each
+     * channel value to its adjusted value.
+     *
+     * @return The 256-entry lookup table.
+     */
+    int[] lookupTable() {
+        double contrastFactor = contrast >= 0 ? 1 / (1 - Math.min(contrast, 0.99)) : 1 + contrast;
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            double value = Math.round(Math.max(0, Math.min(255, v + brightness * 255)));
+            value = Math.round(Math.max(0, Math.min(255, (value - 127.5) * contrastFactor + 127.5)));
+            double level = (value - inputBlack) / (inputWhite - inputBlack);
+            level = Math.pow(Math.max(0, Math.min(1, level)), 1 / gamma);
+            table[v] = (int) Math.round(level * 255);
+        }
+        return table;
+    }
+
+    /**
+     * Adjusts the colors of an image, using all cores.
+     *
+     * @param source The ARGB pixels to adjust.
+     * @return A new array holding the adjusted pixels.
+     */
+    int[] apply(int[] source) {
+        int[] target = new int[source.length];
+        int[] table = lookupTable();
+        int[] hueMatrix = hue % 360 == 0 ? null : hueMatrix(hue);
+        int bands = (source.length + BAND_SIZE - 1) / BAND_SIZE;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int from = band * BAND_SIZE;
+            int to = Math.min(source.length, from + BAND_SIZE);
+            if (VECTORIZED) {
+                if (hueMatrix == null) {
+                    VectorColorKernel.applyTable(source, target, from, to, table);
+                } else {
+                    VectorColorKernel.applyHueAndTable(source, target, from, to, hueMatrix, table);
+                }
+            } else if (hueMatrix == null) {
+                applyTable(source, target, from, to, table);
+            } else {
+                applyHueAndTable(source, target, from, to, hueMatrix, table);
+            }
+        });
+        return target;
+    }
+
+    /**
+     * Maps each channel of a range of pixels through the lookup table.
+     */
+    static void applyTable(int[] source, int[] target, int from, int to, int[] table) {
+        for (int i = from; i < to; i++) {
+            int argb = source[i];
+            target[i] = (argb & 0xff000000)
+                    | table[(argb >> 16) & 0xff] << 16
+                    | table[(argb >> 8) & 0xff] << 8
+                    | table[argb & 0xff];
+        }
+    }
+
+    /**
+     * Rotates the hue of a range of pixels and maps each channel of the result through the lookup table.
+     */
+    static void applyHueAndTable(int[] source, int[] target, int from, int to, int[] matrix, int[] table) {
+        for (int i = from; i < to; i++) {
+            int argb = source[i];
+            int r = (argb >> 16) & 0xff, g = (argb >> 8) & 0xff, b = argb & 0xff;
+            int r2 = clampChannel((matrix[0] * r + matrix[1] * g + matrix[2] * b) >> 12);
+            int g2 = clampChannel((matrix[3] * r + matrix[4] * g + matrix[5] * b) >> 12);
+            int b2 = clampChannel((matrix[6] * r + matrix[7] * g + matrix[8] * b) >> 12);
+            target[i] = (argb & 0xff000000) | table[r2] << 16 | table[g2] << 8 | table[b2];
+        }
+    }
+
+    /**
+     * Builds a luminance-preserving hue rotation matrix in 20.12 fixed point.
+     */
+    static int[] hueMatrix(double degrees) {
+        double c = Math.cos(Math.toRadians(degrees));
+        double s = Math.sin(Math.toRadians(degrees));
+        double[] m = {
+                0.213 + c * 0.787 - s * 0.213, 0.715 - c * 0.715 - s * 0.715, 0.072 - c * 0.072 + s * 0.928,
+                0.213 - c * 0.213 + s * 0.143, 0.715 + c * 0.285 + s * 0.140, 0.072 - c * 0.072 - s * 0.283,
+                0.213 - c * 0.213 - s * 0.787, 0.715 - c * 0.715 + s * 0.715, 0.072 + c * 0.928 + s * 0.072
+        };
+        int[] fixed = new int[9];
+        for (int i = 0; i < 9; i++) {
+            fixed[i] = (int) Math.round(m[i] * 4096);
+        }
+        return fixed;
+    }
+
+    /**
+     * Clamps a channel value into the range 0 to 255.
+     */
+    private static int clampChannel(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.finalturnin;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ConvolutionFilter applies convolution kernels (blur, sharpen, edge detect) to ARGB pixel arrays.
+ * The image is split into square tiles that are filtered in parallel on the common fork/join pool.
+ * Each tile loads its pixels plus a margin of the kernel's radius, so tiles never wait on each other.
+ * Separable kernels are applied as a horizontal pass followed by a vertical pass, which costs
+ * 2 * (2r + 1) samples per pixel instead of (2r + 1)^2.
+ * <p>
+ * Colors are convolved premultiplied by alpha, so transparent pixels do not darken the edges of
+ * what is painted next to them. Pixels beyond the image edge repeat the nearest edge pixel.
+ * </p>
+ */
+final class ConvolutionFilter {
+    /**
+     * The edge length of a tile, in pixels.
+     */
+    private static final int TILE_SIZE = 128;
+
+    /**
+     * A convolution kernel, either separable (one row of weights applied horizontally and then
+     * vertically) or a full square matrix.
+     */
+    static final class Kernel {
+        private final int radius;
+        private final float[] separable;
+        private final float[] matrix;
+        private final boolean convolveAlpha;
+
+        private Kernel(int radius, float[] separable, float[] matrix, boolean convolveAlpha) {
+            this.radius = radius;
+            this.separable = separable;
+            this.matrix = matrix;
+            this.convolveAlpha = convolveAlpha;
+        }
+
+        /**
+         * @return How many pixels beyond a pixel the kernel reaches in each direction.
+         */
+        int radius() {
+            return radius;
+        }
+
+        /**
+         * Creates a Gaussian blur. The kernel reaches three standard deviations out.
+         *
+         * @param radius The blur radius in pixels; values below 1 leave the image unchanged.
+         * @return The separable blur kernel.
+         */
+        static Kernel gaussianBlur(double radius) {
+            int r = Math.max(0, (int) Math.ceil(radius));
+            double sigma = Math.max(radius, 1) / 3;
+            float[] weights = new float[2 * r + 1];
+            double sum = 0;
+            for (int i = -r; i <= r; i++) {
+                double weight = Math.exp(-(i * i) / (2 * sigma * sigma));
+                weights[i + r] = (float) weight;
+                sum += weight;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] /= (float) sum;
+            }
+            return new Kernel(r, weights, null, true);
+        }
+
+        /**
+         * Creates a 3x3 sharpen kernel that boosts each pixel against its four neighbours.
+         *
+         * @param amount The strength of the sharpening; 0 leaves the image unchanged.
+         * @return The sharpen kernel.
+         */
+        static Kernel sharpen(double amount) {
+            float a = (float) amount;
+            return new Kernel(1, null, new float[]{
+                    0, -a, 0,
+                    -a, 1 + 4 * a, -a,
+                    0, -a, 0
+            }, true);
+        }
+
+        /**
+         * Creates a 3x3 Laplacian edge detector. Flat areas turn black and edges turn bright;
+         * the alpha of each pixel is kept, so transparent areas stay transparent.
+         *
+         * @param strength The factor the edge response is multiplied by.
+         * @return The edge detection kernel.
+         */
+        static Kernel edgeDetect(double strength) {
+            float s = (float) strength;
+            return new Kernel(1, null, new float[]{
+                    -s, -s, -s,
+                    -s, 8 * s, -s,
+                    -s, -s, -s
+            }, false);
+        }
+    }
+
+    private ConvolutionFilter() {
+    }
+
+    /**
+     * Filters an image with a kernel, using all cores.
+     *
+     * @param source The ARGB pixels of the image, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param kernel The kernel to apply.
+     * @return A new array holding the filtered pixels.
+     */
+    static int[] apply(int[] source, int width, int height, Kernel kernel) {
+        int[] target = new int[width * height];
+        if (width == 0 || height == 0) {
+            return target;
+        }
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        ForkJoinPool.commonPool().invoke(new TileTask(source, target, width, height, kernel, columns, 0, columns * rows));
+        return target;
+    }
+
+    /**
+     * Filters a range of tiles, splitting it in half until a single tile is left.
+     */
+    private static final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] source, target;
+        private final int width, height;
+        private final Kernel kernel;
+        private final int columns;
+        private final int from, to;
+
+        private TileTask(int[] source, int[] target, int width, int height, Kernel kernel, int columns, int from, int to) {
+            this.source = source;
+            this.target = target;
+            this.width = width;
+            this.height = height;
+            this.kernel = kernel;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(source, target, width, height, kernel, columns, from, middle),
+                        new TileTask(source, target, width, height, kernel, columns, middle, to));
+                return;
+            }
+            int x = (from % columns) * TILE_SIZE;
+            int y = (from / columns) * TILE_SIZE;
+            filterTile(source, target, width, height, kernel, x, y,
+                    Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+        }
+    }
+
+    /**
+     * Filters one tile of the image.
+     */
+    private static void filterTile(int[] source, int[] target, int width, int height, Kernel kernel,
+                                   int tileX, int tileY, int tileWidth, int tileHeight) {
+        int r = kernel.radius;
+        int loadWidth = tileWidth + 2 * r;
+        int loadHeight = tileHeight + 2 * r;
+
+        // The tile plus its margin, premultiplied, as 4 floats (a, r, g, b) per pixel
+        float[] loaded = new float[loadWidth * loadHeight * 4];
+        for (int row = 0; row < loadHeight; row++) {
+            int sy = clamp(tileY - r + row, height);
+            for (int col = 0; col < loadWidth; col++) {
+                int argb = source[sy * width + clamp(tileX - r + col, width)];
+                float a = (argb >>> 24) / 255f;
+                int i = (row * loadWidth + col) * 4;
+                loaded[i] = argb >>> 24;
+                loaded[i + 1] = ((argb >> 16) & 0xff) * a;
+                loaded[i + 2] = ((argb >> 8) & 0xff) * a;
+                loaded[i + 3] = (argb & 0xff) * a;
+            }
+        }
+
+        float[] sum = new float[4];
+        if (kernel.separable != null) {
+            // Horizontal pass over every loaded row, narrowing the rows to the tile's width
+            float[] weights = kernel.separable;
+            float[] horizontal = new float[tileWidth * loadHeight * 4];
+            for (int row = 0; row < loadHeight; row++) {
+                for (int col = 0; col < tileWidth; col++) {
+                    int out = (row * tileWidth + col) * 4;
+                    for (int k = 0; k < weights.length; k++) {
+                        int in = (row * loadWidth + col + k) * 4;
+                        float w = weights[k];
+                        horizontal[out] += loaded[in] * w;
+                        horizontal[out + 1] += loaded[in + 1] * w;
+                        horizontal[out + 2] += loaded[in + 2] * w;
+                        horizontal[out + 3] += loaded[in + 3] * w;
+                    }
+                }
+            }
+
+            // Vertical pass into the tile
+            for (int row = 0; row < tileHeight; row++) {
+                for (int col = 0; col < tileWidth; col++) {
+                    sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                    for (int k = 0; k < weights.length; k++) {
+                        int in = ((row + k) * tileWidth + col) * 4;
+                        float w = weights[k];
+                        sum[0] += horizontal[in] * w;
+                        sum[1] += horizontal[in + 1] * w;
+                        sum[2] += horizontal[in + 2] * w;
+                        sum[3] += horizontal[in + 3] * w;
+                    }
+                    int index = (tileY + row) * width + tileX + col;
+                    target[index] = pack(sum, kernel.convolveAlpha ? sum[0] : source[index] >>> 24);
+                }
+            }
+            return;
+        }
+
+        int size = 2 * r + 1;
+        float[] matrix = kernel.matrix;
+        for (int row = 0; row < tileHeight; row++) {
+            for (int col = 0; col < tileWidth; col++) {
+                sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                for (int ky = 0; ky < size; ky++) {
+                    for (int kx = 0; kx < size; kx++) {
+                        float w = matrix[ky * size + kx];
+                        if (w == 0) {
+                            continue;
+                        }
+                        int in = ((row + ky) * loadWidth + col + kx) * 4;
+                        sum[0] += loaded[in] * w;
+                        sum[1] += loaded[in + 1] * w;
+                        sum[2] += loaded[in + 2] * w;
+                        sum[3] += loaded[in + 3] * w;
+                    }
+                }
+                int index = (tileY + row) * width + tileX + col;
+                target[index] = pack(sum, kernel.convolveAlpha ? sum[0] : source[index] >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Converts premultiplied channel sums back to an ARGB pixel with the given alpha.
+     */
+    private static int pack(float[] sum, float alpha) {
+        int a = Math.round(Math.max(0, Math.min(255, alpha)));
+        if (a == 0) {
+            return 0;
+        }
+        float scale = 255f / a;
+        int red = Math.round(Math.max(0, Math.min(255, sum[1] * scale)));
+        int green = Math.round(Math.max(0, Math.min(255, sum[2] * scale)));
+        int blue = Math.round(Math.max(0, Math.min(255, sum[3] * scale)));
+        return a << 24 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Clamps a coordinate into the range 0 to size - 1.
+     */
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+}
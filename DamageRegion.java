@@ -0,0 +1,128 @@
+package com.example.finalturnin;
+
+/**
+ * DamageRegion accumulates the bounding box of everything drawn on a surface since it was last cleared,
+ * so redraws, snapshots and undo checkpoints only have to visit that box instead of the whole surface.
+ * Rectangles are merged into their union as they are added; the region is empty until the first one.
+ */
+final class DamageRegion {
+    /**
+     * The bounds of the region, right and bottom exclusive; empty when maxX <= minX.
+     */
+    private int minX, minY, maxX, maxY;
+
+    /**
+     * Adds a rectangle to the region. Empty rectangles are ignored.
+     *
+     * @param x The x-coordinate of the rectangle.
+     * @param y The y-coordinate of the rectangle.
+     * @param w The width of the rectangle.
+     * @param h The height of the rectangle.
+     */
+    void add(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        if (isEmpty()) {
+            minX = x;
+            minY = y;
+            maxX = x + w;
+            maxY = y + h;
+        } else {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x + w);
+            maxY = Math.max(maxY, y + h);
+        }
+    }
+
+    /**
+     * Adds a rectangle with fractional bounds, rounded out to whole pixels.
+     *
+     * @param x The x-coordinate of the rectangle.
+     * @param y The y-coordinate of the rectangle.
+     * @param w The width of the rectangle.
+     * @param h The height of the rectangle.
+     */
+    void add(double x, double y, double w, double h) {
+        int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y);
+        add(x0, y0, (int) Math.ceil(x + w) - x0, (int) Math.ceil(y + h) - y0);
+    }
+
+    /**
+     * Adds the area a stroked path can cover: the bounding box of its points, widened by the line width
+     * so caps, joins and antialiasing are included. Curves stay inside the box of their control points.
+     *
+     * @param lineWidth The width of the stroke.
+     * @param points    The x- and y-coordinates of the path's points and control points, alternating.
+     */
+    void addStroke(double lineWidth, double... points) {
+        double left = points[0], top = points[1], right = points[0], bottom = points[1];
+        for (int i = 2; i < points.length; i += 2) {
+            left = Math.min(left, points[i]);
+            right = Math.max(right, points[i]);
+            top = Math.min(top, points[i + 1]);
+            bottom = Math.max(bottom, points[i + 1]);
+        }
+        double pad = lineWidth + 1; // Covers square caps at any angle and one pixel of antialiasing
+        add(left - pad, top - pad, right - left + 2 * pad, bottom - top + 2 * pad);
+    }
+
+    /**
+     * Shrinks the region to the part of it inside a surface; it becomes empty if none of it is.
+     *
+     * @param width  The width of the surface, starting at x = 0.
+     * @param height The height of the surface, starting at y = 0.
+     */
+    void clip(int width, int height) {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, width);
+        maxY = Math.min(maxY, height);
+        if (maxY <= minY) {
+            clear();
+        }
+    }
+
+    /**
+     * Empties the region.
+     */
+    void clear() {
+        maxX = minX;
+    }
+
+    /**
+     * @return true if nothing was added since the region was last cleared.
+     */
+    boolean isEmpty() {
+        return maxX <= minX;
+    }
+
+    /**
+     * @return The left edge of the region.
+     */
+    int minX() {
+        return minX;
+    }
+
+    /**
+     * @return The top edge of the region.
+     */
+    int minY() {
+        return minY;
+    }
+
+    /**
+     * @return The right edge of the region, exclusive.
+     */
+    int maxX() {
+        return maxX;
+    }
+
+    /**
+     * @return The bottom edge of the region, exclusive.
+     */
+    int maxY() {
+        return maxY;
+    }
+}
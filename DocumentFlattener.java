@@ -0,0 +1,138 @@
+package com.example.finalturnin;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * DocumentFlattener composites a whole document onto a white background, a strip of rows at a time,
+ * for encoders that pull rows in order. Each strip is as tall as a layer tile, so every tile is read
+ * once however the encoder splits its bands, and only one strip of the document is ever held at once.
+ * <p>
+ * The layers and shapes it flattens are snapshots, so it can run on a background thread while the
+ * document keeps being edited. Shapes are rasterized per strip with Java2D and sit between the layers
+ * beneath {@code shapeLayer} and the rest, as they do on screen.
+ * </p>
+ */
+final class DocumentFlattener implements PngEncoder.RowSource {
+    /**
+     * The layers to flatten.
+     */
+    private final LayerStack layers;
+
+    /**
+     * The shapes to rasterize between the layers.
+     */
+    private final ShapeDisplayList shapes;
+
+    /**
+     * The index of the first layer drawn above the shapes.
+     */
+    private final int shapeLayer;
+
+    /**
+     * The width and height of the document, and the number of rows in a strip.
+     */
+    private final int width, height, stripHeight;
+
+    /**
+     * The flattened pixels of the current strip, row by row.
+     */
+    private final int[] strip;
+
+    /**
+     * The shapes crossing the current strip, drawn over transparency.
+     */
+    private final BufferedImage shapeBand;
+
+    /**
+     * The pixels of {@link #shapeBand}, in the same layout as {@link #strip}.
+     */
+    private final int[] shapePixels;
+
+    /**
+     * The first row of the current strip, or -1 before the first strip is flattened.
+     */
+    private int stripY = -1;
+
+    /**
+     * Creates a flattener for a snapshot of a document.
+     *
+     * @param layers     The layers, which must no longer change.
+     * @param shapes     The shapes, which must no longer change.
+     * @param shapeLayer The index of the first layer drawn above the shapes.
+     */
+    DocumentFlattener(LayerStack layers, ShapeDisplayList shapes, int shapeLayer) {
+        this.layers = layers;
+        this.shapes = shapes;
+        this.shapeLayer = shapeLayer;
+        this.width = layers.getWidth();
+        this.height = layers.getHeight();
+        this.stripHeight = Math.min(layers.getLayer(0).getPixels().getTileSize(), height);
+        strip = new int[width * stripHeight];
+        shapeBand = new BufferedImage(width, stripHeight, BufferedImage.TYPE_INT_ARGB);
+        shapePixels = ((DataBufferInt) shapeBand.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * @return The width of the document.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the document.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads flattened rows. Rows are opaque; reading them in order flattens each strip once.
+     *
+     * @param y      The first row to read.
+     * @param rows   The number of rows to read.
+     * @param target The array receiving the pixels, row by row with a stride of the document width.
+     * @param offset The index in the target of the first pixel.
+     */
+    @Override
+    public void read(int y, int rows, int[] target, int offset) {
+        while (rows > 0) {
+            if (stripY < 0 || y < stripY || y >= stripY + stripHeight) {
+                flatten(y - y % stripHeight);
+            }
+            int count = Math.min(rows, Math.min(stripY + stripHeight, height) - y);
+            System.arraycopy(strip, (y - stripY) * width, target, offset, count * width);
+            y += count;
+            rows -= count;
+            offset += count * width;
+        }
+    }
+
+    /**
+     * Flattens the strip starting at a row: white, the layers beneath the shapes, the shapes, then the layers above.
+     */
+    private void flatten(int y) {
+        int rows = Math.min(stripHeight, height - y);
+        int count = width * rows;
+        Arrays.fill(strip, 0, count, 0xffffffff);
+        layers.composite(0, y, width, rows, strip, 0, shapeLayer);
+
+        Graphics2D g = shapeBand.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, width, stripHeight);
+            g.setComposite(AlphaComposite.SrcOver);
+            shapes.render(g, 0, y, width, rows);
+        } finally {
+            g.dispose();
+        }
+        LayerStack.blend(strip, shapePixels, count, 1, Layer.BlendMode.NORMAL);
+
+        layers.composite(0, y, width, rows, strip, shapeLayer, layers.size());
+        stripY = y;
+    }
+}
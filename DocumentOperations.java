@@ -0,0 +1,68 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+
+import java.nio.file.Path;
+
+/**
+ * DocumentOperations are the committed changes that make up a document's history: starting or opening a document,
+ * replacing or clearing layer pixels, and adding, undoing or redoing shape records. The
+ * {@link OperationJournal} records them as they happen and replays them into a receiver on restore.
+ */
+interface DocumentOperations {
+    /**
+     * Starts a new, empty document.
+     *
+     * @param width  The width of the document.
+     * @param height The height of the document.
+     */
+    void newDocument(int width, int height);
+
+    /**
+     * Replaces the document with the layers and shapes of a project file.
+     *
+     * @param project The project file.
+     */
+    void openProject(Path project);
+
+    /**
+     * Makes a layer fully transparent.
+     *
+     * @param layer The position of the layer.
+     */
+    void clearLayer(int layer);
+
+    /**
+     * Replaces a region of a layer.
+     *
+     * @param layer  The position of the layer.
+     * @param x      The document x-coordinate of the region.
+     * @param y      The document y-coordinate of the region.
+     * @param width  The width of the region.
+     * @param height The height of the region.
+     * @param pixels The new ARGB pixels of the region; must not be changed afterwards.
+     */
+    void region(int layer, int x, int y, int width, int height, int[] pixels);
+
+    /**
+     * Appends a record to the shape display list.
+     *
+     * @param record The record, in document coordinates.
+     */
+    void shapeAdded(ShapeRecord record);
+
+    /**
+     * Removes every shape record, including those that could be redone.
+     */
+    void clearShapes();
+
+    /**
+     * Undoes the most recent shape record.
+     */
+    void shapeUndone();
+
+    /**
+     * Redoes the most recently undone shape record.
+     */
+    void shapeRedone();
+}
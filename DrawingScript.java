@@ -0,0 +1,216 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+import javafx.scene.paint.Color;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * DrawingScript is a drawing described as text: one tool operation per line, replayed in order.
+ * Shapes become the same records the shape tools create, so a script renders exactly like
+ * the equivalent drawing made by hand.
+ * <pre>
+ * # Lines starting with # are comments
+ * size 800 600                  document size (default 1000 x 900)
+ * background #ffffff            fill behind the drawing (default white)
+ * color #ff0000                 stroke color of the following shapes (default black)
+ * width 3                       line width of the following shapes (default 2)
+ * dashed on                     dashed outlines for the following shapes (on or off)
+ * rectangle 10 10 200 120       rectangle dragged from one corner to the other
+ * circle 300 50 400 150         circle fitted in the box dragged from one corner to the other
+ * triangle 500 300 60           triangle with center and radius
+ * star 200 400 50 5             star with center, outer radius and number of points (4 or more)
+ * polygon 600 500 70 6          regular polygon with center, radius and number of sides (3 or more)
+ * clear                         hides every shape drawn so far
+ * </pre>
+ */
+final class DrawingScript {
+    /**
+     * The size of the document, in pixels.
+     */
+    private int width = 1000, height = 900;
+
+    /**
+     * The fill behind the drawing.
+     */
+    private Color background = Color.WHITE;
+
+    /**
+     * The shapes of the drawing, in drawing order.
+     */
+    private final List<ShapeRecord> records = new ArrayList<>();
+
+    private DrawingScript() {
+    }
+
+    /**
+     * Reads and parses a script file.
+     *
+     * @param file The script to read.
+     * @return The parsed script.
+     * @throws IOException if the file cannot be read or a line is not a valid operation.
+     */
+    static DrawingScript read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader, file.getFileName().toString());
+        }
+    }
+
+    /**
+     * Parses a script.
+     *
+     * @param reader The text of the script.
+     * @param name   The name of the script, used in error messages.
+     * @return The parsed script.
+     * @throws IOException if the text cannot be read or a line is not a valid operation.
+     */
+    static DrawingScript parse(BufferedReader reader, String name) throws IOException {
+        DrawingScript script = new DrawingScript();
+        Color stroke = Color.BLACK;
+        double lineWidth = 2;
+        boolean dashed = false;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try {
+                switch (words[0].toLowerCase(Locale.ROOT)) {
+                    case "size":
+                        script.width = (int) number(words, 1, 2);
+                        script.height = (int) number(words, 2, 2);
+                        if (script.width <= 0 || script.height <= 0) {
+                            throw new IllegalArgumentException("size must be positive");
+                        }
+                        break;
+                    case "background":
+                        script.background = Color.web(argument(words, 1, 1));
+                        break;
+                    case "color":
+                        stroke = Color.web(argument(words, 1, 1));
+                        break;
+                    case "width":
+                        lineWidth = number(words, 1, 1);
+                        break;
+                    case "dashed": {
+                        String value = argument(words, 1, 1);
+                        dashed = value.equalsIgnoreCase("on") || value.equalsIgnoreCase("true");
+                        break;
+                    }
+                    case "rectangle": {
+                        double x0 = number(words, 1, 4), y0 = number(words, 2, 4), x1 = number(words, 3, 4), y1 = number(words, 4, 4);
+                        script.records.add(new ShapeRecord(ShapeDisplayList.Kind.RECTANGLE, Math.min(x0, x1), Math.min(y0, y1),
+                                Math.abs(x1 - x0), Math.abs(y1 - y0), 0, stroke, lineWidth, dashed));
+                        break;
+                    }
+                    case "circle": {
+                        double x0 = number(words, 1, 4), y0 = number(words, 2, 4), x1 = number(words, 3, 4), y1 = number(words, 4, 4);
+                        double w = Math.abs(x1 - x0), h = Math.abs(y1 - y0);
+                        double radius = Math.min(w, h) / 2;
+                        script.records.add(new ShapeRecord(ShapeDisplayList.Kind.OVAL, Math.min(x0, x1) + w / 2 - radius,
+                                Math.min(y0, y1) + h / 2 - radius, radius * 2, radius * 2, 0, stroke, lineWidth, dashed));
+                        break;
+                    }
+                    case "triangle":
+                        script.records.add(new ShapeRecord(ShapeDisplayList.Kind.TRIANGLE, number(words, 1, 3), number(words, 2, 3),
+                                number(words, 3, 3), 0, 3, stroke, lineWidth, dashed));
+                        break;
+                    case "star": {
+                        int points = (int) number(words, 4, 4);
+                        if (points < 4) {
+                            throw new IllegalArgumentException("Number of points must be 4 or greater.");
+                        }
+                        script.records.add(new ShapeRecord(ShapeDisplayList.Kind.STAR, number(words, 1, 4), number(words, 2, 4),
+                                number(words, 3, 4), 0, points, stroke, lineWidth, dashed));
+                        break;
+                    }
+                    case "polygon": {
+                        int sides = (int) number(words, 4, 4);
+                        if (sides < 3) {
+                            throw new IllegalArgumentException("A polygon must have at least 3 sides.");
+                        }
+                        script.records.add(new ShapeRecord(ShapeDisplayList.Kind.POLYGON, number(words, 1, 4), number(words, 2, 4),
+                                number(words, 3, 4), 0, sides, stroke, lineWidth, dashed));
+                        break;
+                    }
+                    case "clear":
+                        script.records.add(ShapeRecord.clear());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown operation '" + words[0] + "'");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(name + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * @return The width of the document.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the document.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The fill behind the drawing.
+     */
+    Color getBackground() {
+        return background;
+    }
+
+    /**
+     * Builds the display list of the drawing.
+     *
+     * @return A new display list holding the script's shapes.
+     */
+    ShapeDisplayList toDisplayList() {
+        ShapeDisplayList list = new ShapeDisplayList(width, height);
+        for (ShapeRecord record : records) {
+            list.add(record);
+        }
+        return list;
+    }
+
+    /**
+     * Returns an argument of an operation, checking the operation has the expected number of them.
+     */
+    private static String argument(String[] words, int index, int expected) {
+        if (words.length != expected + 1) {
+            throw new IllegalArgumentException("'" + words[0] + "' takes " + expected + " argument(s)");
+        }
+        return words[index];
+    }
+
+    /**
+     * Returns a numeric argument of an operation.
+     */
+    private static double number(String[] words, int index, int expected) {
+        String word = argument(words, index, expected);
+        try {
+            return Double.parseDouble(word);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + word + "' is not a number");
+        }
+    }
+}
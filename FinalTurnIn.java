@@ -5,8 +5,18 @@ package com.example.finalturnin;
 //https://stackoverflow.com/questions/29064225/how-to-create-a-javafx-keycombination-with-three-or-more-keys
 //https://github.com/junit-team/junit5/?search=1
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.beans.binding.Bindings;
+import javafx.concurrent.Task;
+import javafx.event.Event;
+import javafx.event.EventDispatcher;
+import javafx.event.EventType;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.geometry.Point2D;
+import javafx.geometry.Pos;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
@@ -15,20 +25,35 @@ import javafx.scene.control.*;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
-import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
+import javafx.scene.text.Text;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Slider;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
-import java.util.Stack;
+import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleFunction;
+import java.util.function.Function;
 import javafx.scene.layout.StackPane;
 import javafx.scene.control.Button;
 import javafx.scene.layout.VBox;
@@ -37,26 +62,122 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
 import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.HBox;
 import javafx.scene.control.Tooltip;
 
-import javax.imageio.ImageIO;
-
 /**
  * FinalTurnIn is a JavaFX application that provides a drawing canvas where users can create and manipulate images.
  * It allows users to draw various shapes, use different tools, and adjust properties such as line width and color.
  */
 public class FinalTurnIn extends Application {
     /**
-     * The canvas used to display the current image.
+     * The largest width of the on-screen canvases; larger documents are viewed through them.
+     */
+    private static final int VIEWPORT_WIDTH = 1000;
+
+    /**
+     * The largest height of the on-screen canvases; larger documents are viewed through them.
+     */
+    private static final int VIEWPORT_HEIGHT = 900;
+
+    /**
+     * Edge length, in pixels, of the tiles the document is stored in.
+     */
+    private static final int DOCUMENT_TILE_SIZE = 256;
+
+    /**
+     * Position of the layer holding the opened image, at the bottom of the layer stack.
+     */
+    private static final int IMAGE_LAYER = 0;
+
+    /**
+     * Position of the layer the drawing tools paint on, shown live through the drawing canvas.
+     */
+    private static final int DRAWING_LAYER = 1;
+
+    /**
+     * Stands for no layer, in an undo step that did not edit a layer directly.
+     */
+    private static final int NO_LAYER = -1;
+
+    /**
+     * The most the view zooms out, as a power of two: 1/32 of actual size.
+     */
+    private static final int MIN_ZOOM_LEVEL = -5;
+
+    /**
+     * The most the view zooms in, as a power of two: 16 times actual size.
+     */
+    private static final int MAX_ZOOM_LEVEL = 4;
+
+    /**
+     * The composited layers beneath the drawing layer, for the part of the document inside the viewport.
+     */
+    private WritableImage layerImage = new WritableImage(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+
+    /**
+     * The node showing the composited layers, at the bottom of the canvas pane.
+     */
+    private final ImageView layerView = new ImageView(layerImage);
+
+    /**
+     * The canvas that shows the retained shapes, between the image layer and the drawing canvas.
+     */
+    private final Canvas shapeCanvas = new Canvas(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+
+    /**
+     * The canvas used for drawing operations. It shows the part of the document inside the viewport.
+     */
+    private Canvas drawingCanvas = new Canvas(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+
+    /**
+     * Transient overlay above the drawing canvas showing the shape being dragged out.
+     */
+    private final Canvas previewCanvas = new Canvas(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+
+    /**
+     * The rubber-band preview drawn on the overlay while a shape is dragged.
+     */
+    private final ShapePreview shapePreview = new ShapePreview(previewCanvas);
+
+    /**
+     * The retained shapes of the document, replayed onto the shape canvas.
+     */
+    private final ShapeDisplayList shapeList = new ShapeDisplayList(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+
+    /**
+     * The raster layers of the document, bottom first.
+     */
+    private LayerStack layers = createLayers(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+
+    /**
+     * The pixels of the drawing layer of the whole document, stored in lazily allocated tiles.
+     */
+    private TiledSurface document = layers.getLayer(DRAWING_LAYER).getPixels();
+
+    /**
+     * The document coordinates of the viewport's top-left corner.
+     */
+    private int viewportX, viewportY;
+
+    /**
+     * The scale of the view as a power of two: 0 shows the document at actual size, where the tools draw;
+     * negative levels zoom out and positive levels zoom in, showing all layers in the layer view.
+     */
+    private int zoomLevel;
+
+    /**
+     * The document coordinates shown at the view's top-left corner while zoomed.
+     * The drawing canvas stays at the viewport, so the undo history keeps matching it.
      */
-    private Canvas imageCanvas = new Canvas(1000, 900);
+    private int zoomOriginX, zoomOriginY;
 
     /**
-     * The canvas used for drawing operations.
+     * The background build of the image layer's mipmap pyramid, or null if none is running.
      */
-    private Canvas drawingCanvas = new Canvas(1000, 900);
+    private Task<MipmapPyramid> pyramidTask;
 
     /**
      * Color picker for selecting the drawing color.
@@ -73,6 +194,11 @@ public class FinalTurnIn extends Application {
      */
     private final Label lineWidthLabel = new Label("Width: " + (int) lineWidthSlider.getValue());
 
+    /**
+     * The color, line width and dashed outline the tools draw with, bound to the controls above.
+     */
+    private final ToolSettings toolSettings = new ToolSettings();
+
     /**
      * Button to clear the drawing canvas.
      */
@@ -83,15 +209,35 @@ public class FinalTurnIn extends Application {
      */
     private final Label colorLabel = new Label();
 
+    /**
+     * Progress bar shown while an image is being saved in the background.
+     */
+    private final ProgressBar saveProgressBar = new ProgressBar(0);
+
+    /**
+     * Button to cancel the image save in progress.
+     */
+    private final Button cancelSaveButton = new Button("✕");
+
+    /**
+     * Background pipeline that converts and encodes saved images.
+     */
+    private final ImageExportQueue imageExportQueue = new ImageExportQueue();
+
+    /**
+     * The save whose progress is currently shown, or null if no save is in progress.
+     */
+    private Task<File> activeSaveTask;
+
     /**
      * File chooser for opening and saving images.
      */
     private final FileChooser fileChooser = new FileChooser();
 
     /**
-     * Graphics context for the image canvas.
+     * Graphics context for the shape canvas.
      */
-    private GraphicsContext imageGC = imageCanvas.getGraphicsContext2D();
+    private final GraphicsContext shapeGC = shapeCanvas.getGraphicsContext2D();
 
     /**
      * Graphics context for the drawing canvas.
@@ -99,9 +245,14 @@ public class FinalTurnIn extends Application {
     private GraphicsContext drawingGC = drawingCanvas.getGraphicsContext2D();
 
     /**
-     * The currently loaded image.
+     * Background decoder for images opened from the File menu.
+     */
+    private final ProgressiveImageLoader imageLoader = new ProgressiveImageLoader();
+
+    /**
+     * Flag indicating whether the current image is a low-resolution preview of an image still loading.
      */
-    private Image currentImage;
+    private boolean showingPreview = false;
 
     /**
      * The x-coordinate of the image's position on the canvas.
@@ -128,6 +279,16 @@ public class FinalTurnIn extends Application {
      */
     private final ToggleButton eraserToggle = new ToggleButton("⌫");
 
+    /**
+     * Toggle button for the paint bucket tool.
+     */
+    private final ToggleButton fillToggle = new ToggleButton("▧");
+
+    /**
+     * Slider for how far, per channel, a pixel's color may be from the clicked color and still be filled.
+     */
+    private final Slider fillToleranceSlider = new Slider(0, 255, 32);
+
     /** Group for toggling between shape tools. */
     static {
         new ToggleGroup();
@@ -173,6 +334,12 @@ public class FinalTurnIn extends Application {
      */
     private Slider starPointSlider;
 
+    /**
+     * The number of points of the last star and sides of the last polygon drawn; previews use them
+     * and the prompts offer them, so the preview matches what is committed unless the user changes it.
+     */
+    private int starPoints = 5, polygonSides = 5;
+
     /**
      * Enumeration of the supported shape types.
      */
@@ -196,7 +363,7 @@ public class FinalTurnIn extends Application {
     /**
      * Enumeration of the available drawing tools.
      */
-    private enum Tool {PENCIL, LINE, ERASER, RECTANGLE, CIRCLE, STAR, TRIANGLE, POLYGON, TEXTBOX}
+    private enum Tool {PENCIL, LINE, ERASER, FILL, RECTANGLE, CIRCLE, STAR, TRIANGLE, POLYGON, TEXTBOX}
 
     /**
      * The currently selected drawing tool.
@@ -209,14 +376,168 @@ public class FinalTurnIn extends Application {
     private StackPane canvasPane;
 
     /**
-     * Stack for undo operations.
+     * The application's menu bar.
+     */
+    private MenuBar menuBar;
+
+    /**
+     * Overlay on the canvas showing frame time, tool handler latency and undo memory.
+     */
+    private final Label metricsOverlay = new Label();
+
+    /**
+     * Timer refreshing the metrics overlay while it is shown.
+     */
+    private final AnimationTimer metricsTimer = new AnimationTimer() {
+        private long lastFrame, lastRefresh;
+        private double frameMillis, worstFrameMillis;
+
+        @Override
+        public void handle(long now) {
+            if (lastFrame != 0) {
+                double millis = (now - lastFrame) / 1e6;
+                frameMillis = frameMillis == 0 ? millis : frameMillis * 0.9 + millis * 0.1;
+                worstFrameMillis = Math.max(worstFrameMillis, millis);
+            }
+            lastFrame = now;
+            if (now - lastRefresh >= 250_000_000L) {
+                updateMetricsOverlay(frameMillis, worstFrameMillis);
+                worstFrameMillis = 0;
+                lastRefresh = now;
+            }
+        }
+
+        @Override
+        public void stop() {
+            super.stop();
+            lastFrame = 0;
+            frameMillis = 0;
+        }
+    };
+
+    /**
+     * The area of the drawing canvas, in canvas coordinates, drawn on since the last undo checkpoint.
+     * Every drawing operation adds to it, and the next checkpoint snapshots only this area.
+     */
+    private final DamageRegion canvasDamage = new DamageRegion();
+
+    /**
+     * Renderer that draws pencil strokes one segment at a time.
+     */
+    private final StrokeRenderer strokeRenderer = new StrokeRenderer();
+
+    /**
+     * Edge length, in pixels, of the tiles tracked by the undo history.
+     */
+    private static final int UNDO_TILE_SIZE = 64;
+
+    /**
+     * Maximum number of heap bytes the undo history may hold before its oldest tiles spill to disk.
+     * Set in megabytes with {@code -Djavadraw.undoHeapMB}.
+     */
+    private static final long UNDO_MEMORY_BUDGET = Long.getLong("javadraw.undoHeapMB", 256) * 1024 * 1024;
+
+    /**
+     * Maximum number of bytes the undo history may spill to disk before the oldest entries are dropped.
+     * Set in megabytes with {@code -Djavadraw.undoDiskMB}.
+     */
+    private static final long UNDO_DISK_BUDGET = Long.getLong("javadraw.undoDiskMB", 4096) * 1024 * 1024;
+
+    /**
+     * Tile-based undo and redo history of the drawing canvas.
+     */
+    private TileUndoHistory undoHistory;
+
+    /**
+     * The journal every committed change to the document is appended to, so work can be restored after a crash.
+     */
+    private OperationJournal journal;
+
+    /**
+     * The project file the document was opened from or last saved to, or null if it has not been saved as a project.
+     */
+    private ProjectFile project;
+
+    /**
+     * The project save running in the background, or null if none is.
+     */
+    private Task<ProjectFile> projectSaveTask;
+
+    /**
+     * The items of the Layers menu that show each layer's visibility and the drawing layer's blend mode.
+     */
+    private CheckMenuItem showImageItem, showDrawingItem;
+    private ToggleGroup blendGroup;
+
+    /**
+     * Flag indicating whether an undo transaction is open, i.e. a gesture is in progress.
+     */
+    private boolean undoTransactionOpen = false;
+
+    /**
+     * One undoable step: whether it changed the raster drawing layer, how many
+     * records it added to the shape display list, and which layer it edited directly,
+     * such as with a filter. One gesture is one step even when it touched several layers.
+     * A step that changed pixels owns exactly one entry of the tile undo history.
+     */
+    private static final class UndoStep {
+        private final boolean pixels;
+        private final int shapeRecords;
+        private final int editedLayer;
+
+        private UndoStep(boolean pixels, int shapeRecords, int editedLayer) {
+            this.pixels = pixels;
+            this.shapeRecords = shapeRecords;
+            this.editedLayer = editedLayer;
+        }
+
+        /**
+         * @return true if the step has an entry in the tile undo history.
+         */
+        private boolean hasHistoryEntry() {
+            return pixels || editedLayer != NO_LAYER;
+        }
+    }
+
+    /**
+     * The layer the Filters menu applies to.
+     */
+    private int filterLayer = IMAGE_LAYER;
+
+    /**
+     * Whether the open undo transaction has changed the raster drawing layer.
+     */
+    private boolean transactionPixels;
+
+    /**
+     * The size of the shape display list when the open undo transaction began.
+     */
+    private int transactionShapeStart;
+
+    /**
+     * Undo steps, newest first.
+     */
+    private final Deque<UndoStep> undoSteps = new ArrayDeque<>();
+
+    /**
+     * Redo steps, newest first.
+     */
+    private final Deque<UndoStep> redoSteps = new ArrayDeque<>();
+
+    /**
+     * The number of tile undo history entries evicted so far whose steps have been dropped as well.
+     */
+    private long evictedUndoEntries;
+
+    /**
+     * Reusable image that receives drawing canvas snapshots for the undo history.
      */
-    private Stack<WritableImage> undoStack = new Stack<>();
+    private WritableImage undoSnapshot;
 
     /**
-     * Stack for redo operations.
+     * Reusable ARGB buffer holding the pixels of the last undo snapshot.
      */
-    private Stack<WritableImage> redoStack = new Stack<>();
+    private int[] undoPixels;
 
 
     @Override
@@ -237,26 +558,64 @@ public class FinalTurnIn extends Application {
 
         VBox root = new VBox(10);
         root.setPadding(new Insets(10));
-        root.getChildren().add(createMenuBar(stage));
+        menuBar = createMenuBar(stage);
+        root.getChildren().add(menuBar);
 
-        // Initialize the drawing and image canvases
-        GraphicsContext imageGC = imageCanvas.getGraphicsContext2D();
+        // Initialize the drawing canvas
         GraphicsContext drawingGC = drawingCanvas.getGraphicsContext2D();
 
+        // Bind the tool settings to their controls once; tool switches reuse them
+        toolSettings.bind(colorPicker, lineWidthSlider, dashedOutlineCheckBox);
+        toolSettings.applyTo(this.drawingGC);
+        lineWidthLabel.textProperty().bind(Bindings.format("Width: %.0f", toolSettings.lineWidthProperty()));
+
         // Create HBox for color picker, line width slider, and buttons
         HBox topBox = new HBox(10);
-        topBox.getChildren().addAll(colorPicker, lineWidthLabel, lineWidthSlider, clearButton);
+        topBox.getChildren().addAll(colorPicker, lineWidthLabel, lineWidthSlider, clearButton, saveProgressBar, cancelSaveButton);
+        saveProgressBar.setVisible(false); // Only shown while a save is in progress
+        cancelSaveButton.setVisible(false);
+        cancelSaveButton.setTooltip(new Tooltip("Cancel Save"));
 
         // Create and add buttons for drawing tools and shapes
         HBox toolsBox = new HBox(10);
-        toolsBox.getChildren().addAll(pencilToggle, straightLineToggle, eraserToggle);
+        toolsBox.getChildren().addAll(pencilToggle, straightLineToggle, eraserToggle, fillToggle, fillToleranceSlider);
+        fillToleranceSlider.setTooltip(new Tooltip("Fill Tolerance"));
 
         HBox shapeBox = new HBox(10);
         shapeBox.getChildren().addAll(rectangleToggle, circleToggle, starToggle, triangleToggle, polygonToggle, textToggle, dashedOutlineCheckBox);
 
-        // Create canvas pane
-        StackPane canvasPane = new StackPane();
-        canvasPane.getChildren().addAll(imageCanvas, drawingCanvas);
+        // Create canvas pane. Shapes form their own layer beneath the drawing layer, so pencil and eraser
+        // strokes always cover them regardless of which came first; exports stack them the same way
+        canvasPane = new StackPane();
+        canvasPane.getChildren().addAll(layerView, shapeCanvas, drawingCanvas, previewCanvas, metricsOverlay);
+        previewCanvas.setMouseTransparent(true); // Events go to the drawing canvas beneath
+        metricsOverlay.setMouseTransparent(true);
+        metricsOverlay.setVisible(false);
+        metricsOverlay.setStyle("-fx-background-color: rgba(0, 0, 0, 0.6); -fx-text-fill: white; "
+                + "-fx-font-family: monospace; -fx-padding: 4;");
+        StackPane.setAlignment(metricsOverlay, Pos.TOP_LEFT);
+        measureToolHandlers();
+
+        // Scroll to pan the viewport across documents larger than the canvas (Shift scrolls sideways),
+        // and zoom around the pointer with Ctrl/Cmd held
+        canvasPane.setOnScroll(event -> {
+            double dx = event.getDeltaX();
+            double dy = event.getDeltaY();
+            if (event.isShortcutDown()) {
+                if (dy != 0) {
+                    Point2D anchor = layerView.sceneToLocal(event.getSceneX(), event.getSceneY());
+                    zoomTo(zoomLevel + (dy > 0 ? 1 : -1), anchor.getX(), anchor.getY());
+                }
+                event.consume();
+                return;
+            }
+            if (event.isShiftDown() && dx == 0) {
+                dx = dy;
+                dy = 0;
+            }
+            scrollViewport(-dx, -dy);
+            event.consume();
+        });
 
         // Add topBox, toolsBox, shapeBox, and canvasPane to root
         root.getChildren().addAll(topBox, toolsBox, shapeBox, colorLabel, canvasPane);
@@ -271,7 +630,7 @@ public class FinalTurnIn extends Application {
         stage.show();
 
         // Add slider for star points dynamically
-        Slider starPointSlider = new Slider(4, 20, 5); // Min 4 points, max 20, default 5
+        starPointSlider = new Slider(4, 20, 5); // Min 4 points, max 20, default 5
         starPointSlider.setShowTickLabels(true);
         starPointSlider.setShowTickMarks(true);
         starPointSlider.setMajorTickUnit(1);
@@ -280,6 +639,13 @@ public class FinalTurnIn extends Application {
         // Add the slider to the controls (below other elements)
         root.getChildren().add(starPointSlider);
 
+        // Swallow every shortcut, menu accelerators included, while a layer operation is running
+        mainScene.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            if (menuBar.isDisabled()) {
+                event.consume();
+            }
+        });
+
         // Add keyboard shortcuts
         mainScene.setOnKeyPressed(event -> {
             // Check for Save (Command + S or Ctrl + S)
@@ -302,6 +668,12 @@ public class FinalTurnIn extends Application {
             }
         });
 
+        // Start the undo history from the empty canvas
+        resetUndoHistory();
+
+        // Offer to restore the work of a session that did not exit cleanly, then journal this one
+        openJournal();
+
         // Ensure that the main scene can receive focus
         mainScene.getRoot().setFocusTraversable(true);
         mainScene.getRoot().requestFocus();
@@ -315,8 +687,11 @@ public class FinalTurnIn extends Application {
 
             Optional<ButtonType> result = alert.showAndWait();
             if (result.isPresent() && result.get() == ButtonType.OK) {
-                saveStateForUndo();
+                beginUndoTransaction();
                 drawingGC.clearRect(0, 0, drawingCanvas.getWidth(), drawingCanvas.getHeight());
+                damageWholeCanvas();
+                addShape(ShapeRecord.clear());
+                commitUndoTransaction();
             }
         });
 
@@ -327,6 +702,8 @@ public class FinalTurnIn extends Application {
         straightLineToggle.setTooltip(new Tooltip("Straight Line"));
         eraserToggle.setOnAction(e -> setActiveTool(Tool.ERASER));
         eraserToggle.setTooltip(new Tooltip("Eraser"));
+        fillToggle.setOnAction(e -> setActiveTool(Tool.FILL));
+        fillToggle.setTooltip(new Tooltip("Fill"));
         rectangleToggle.setOnAction(e -> {
             currentShapeType = ShapeType.RECTANGLE;
             setActiveTool(Tool.RECTANGLE);
@@ -360,31 +737,81 @@ public class FinalTurnIn extends Application {
     }
 
     /**
-     * Loads an image from the specified file and updates the drawing canvas with the image.
+     * Loads an image from the specified file as a new document the size of the image.
+     * Decoding runs in the background: a low-resolution preview is drawn first and replaced
+     * by the full-resolution image once it is ready. Opening another file cancels this load.
      *
      * @param file The image file to be loaded. It must be a valid image file format.
      */
     private void loadImage(File file) {
-        try {
-            System.out.println("Loading image from: " + file.toURI()); // Debugging
-            currentImage = new Image(file.toURI().toString());
+        System.out.println("Loading image from: " + file.toURI()); // Debugging
+        showingPreview = false;
+
+        Task<Image> loadTask = imageLoader.load(file, (preview, fullWidth, fullHeight) -> {
+            // Draw the preview stretched to the full image size so nothing moves when it is replaced
+            startImageDocument(fullWidth, fullHeight);
+            showImage(preview, fullWidth, fullHeight);
+            showingPreview = true;
+            redrawLayers();
+        });
 
-            // Check if there was an error loading the image
-            if (currentImage.isError()) {
-                System.out.println("Error loading image: " + currentImage.getException().getMessage()); // Debugging
-                return; // Exit if there's an error
+        loadTask.setOnSucceeded(e -> {
+            Image image = loadTask.getValue();
+            if (image == null) {
+                return; // Cancelled while decoding
             }
+            if (!showingPreview) {
+                startImageDocument(image.getWidth(), image.getHeight());
+            } // Otherwise the preview started the document, and anything drawn since is kept
+            showImage(image, image.getWidth(), image.getHeight());
+            buildImagePyramid(image);
+            redrawLayers();
+            showingPreview = false;
+            System.out.println("Image loaded successfully. Width: " + imageWidth + ", Height: " + imageHeight); // Debugging
+        });
 
-            // Get image dimensions and calculate position for centering
-            imageWidth = currentImage.getWidth();
-            imageHeight = currentImage.getHeight();
-            imageX = (drawingCanvas.getWidth() - imageWidth) / 2;
-            imageY = (drawingCanvas.getHeight() - imageHeight) / 2;
+        loadTask.setOnFailed(e -> System.out.println(loadTask.getException().getMessage())); // Debugging
+    }
 
-            System.out.println("Image loaded successfully. Width: " + imageWidth + ", Height: " + imageHeight); // Debugging
-            redrawCanvas(); // Ensure the canvas is redrawn after loading the image
-        } catch (Exception e) {
-            e.printStackTrace(); // Log any unexpected exceptions
+    /**
+     * Starts a new, empty document the size of an image that is being opened.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    private void startImageDocument(double width, double height) {
+        startDocument((int) Math.ceil(width), (int) Math.ceil(height));
+        checkpointJournal(); // Nothing before the new document needs replaying
+    }
+
+    /**
+     * Makes the given image the content of the image layer, centered on the document.
+     *
+     * @param image  The image to show.
+     * @param width  The width to draw the image at.
+     * @param height The height to draw the image at.
+     */
+    private void showImage(Image image, double width, double height) {
+        // Get image dimensions and calculate position for centering
+        imageWidth = width;
+        imageHeight = height;
+        imageX = (document.getWidth() - imageWidth) / 2;
+        imageY = (document.getHeight() - imageHeight) / 2;
+
+        Layer imageLayer = layers.getLayer(IMAGE_LAYER);
+        imageLayer.getPixels().clear();
+        imageLayer.drawImage(image, (int) Math.round(imageX), (int) Math.round(imageY), (int) Math.round(width), (int) Math.round(height));
+        layers.markAllDirty();
+
+        // Journal the part of the image that lies inside the document
+        int x0 = Math.max((int) Math.round(imageX), 0), y0 = Math.max((int) Math.round(imageY), 0);
+        int x1 = Math.min((int) Math.round(imageX + width), document.getWidth());
+        int y1 = Math.min((int) Math.round(imageY + height), document.getHeight());
+        journal.clearLayer(IMAGE_LAYER);
+        if (x0 < x1 && y0 < y1) {
+            int[] pixels = new int[(x1 - x0) * (y1 - y0)];
+            imageLayer.getPixels().readRegion(x0, y0, x1 - x0, y1 - y0, pixels);
+            journal.region(IMAGE_LAYER, x0, y0, x1 - x0, y1 - y0, pixels);
         }
     }
 
@@ -395,7 +822,7 @@ public class FinalTurnIn extends Application {
      * @return A Canvas object with a specified width and height, ready for drawing.
      */
     private Canvas createDrawingCanvas() {
-        Canvas canvas = new Canvas(1000, 900);
+        Canvas canvas = new Canvas(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
         GraphicsContext gc = canvas.getGraphicsContext2D();
         setupDrawing(gc);
         return canvas;
@@ -411,16 +838,18 @@ public class FinalTurnIn extends Application {
         // Set the GraphicsContext to the provided gc parameter
         drawingGC = gc;  // Ensure drawingGC is assigned the provided gc
 
-        // Apply color and line width from the color picker and slider
-        drawingGC.setStroke(colorPicker.getValue());  // Apply color
-        drawingGC.setLineWidth(lineWidthSlider.getValue());  // Apply line width
+        // Keep the color and line width in step with the tool settings
+        toolSettings.applyTo(drawingGC);
 
         // Create a WritableImage for the current canvas state
         WritableImage drawingLayer = new WritableImage((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
+        Metrics.SnapshotEvent measured = Metrics.startSnapshot("setup", drawingLayer.getWidth(), drawingLayer.getHeight());
         drawingCanvas.snapshot(null, drawingLayer);  // Snapshot the current canvas to the image
+        Metrics.finishSnapshot(measured);
 
         // Draw the image onto the graphics context
         drawingGC.drawImage(drawingLayer, 0, 0);
+        damageWholeCanvas();
 
         // Save the initial state for undo
         saveStateForUndo();
@@ -436,19 +865,6 @@ public class FinalTurnIn extends Application {
     private void setActiveTool(Tool tool) {
         currentTool = tool;
 
-        // Assuming you have colorPicker and lineWidthSlider already initialized
-        colorPicker.setOnAction(event -> {
-            // Update the stroke color whenever a new color is selected
-            drawingGC.setStroke(colorPicker.getValue());  // Apply selected color
-            System.out.println("Selected Color: " + colorPicker.getValue());
-        });
-
-        lineWidthSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
-            // Update the line width whenever the slider value changes
-            drawingGC.setLineWidth(newValue.doubleValue());  // Apply selected line width
-            System.out.println("Line Width: " + newValue.doubleValue());
-        });
-
         // Clear existing mouse event handlers
         drawingCanvas.setOnMousePressed(null);
         drawingCanvas.setOnMouseDragged(null);
@@ -465,6 +881,9 @@ public class FinalTurnIn extends Application {
             case ERASER:
                 handleEraserTool();
                 break;
+            case FILL:
+                handleFillTool();
+                break;
             case RECTANGLE:
                 handleShapeTool();
                 break;
@@ -493,23 +912,18 @@ public class FinalTurnIn extends Application {
      */
     private void handlePencilTool() {
         drawingCanvas.setOnMousePressed(e -> {
-            drawingGC.beginPath(); // Use drawingGC for pencil strokes
-            drawingGC.moveTo(e.getX(), e.getY());
-            drawingGC.stroke();
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for text box border (if applicable)
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for text box border (if applicable)
-            saveStateForUndo();
+            beginUndoTransaction(); // The whole stroke becomes one undo step
+            strokeRenderer.beginStroke(drawingGC, canvasDamage, e.getX(), e.getY()); // Use drawingGC for pencil strokes
         });
 
         drawingCanvas.setOnMouseDragged(e -> {
-            drawingGC.lineTo(e.getX(), e.getY());
-            drawingGC.stroke();
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for text box border (if applicable)
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for text box border (if applicable)
-            saveStateForUndo();
+            strokeRenderer.continueStroke(e.getX(), e.getY()); // Draws only the newest piece of the stroke
         });
 
-        drawingCanvas.setOnMouseReleased(e -> drawingGC.closePath());
+        drawingCanvas.setOnMouseReleased(e -> {
+            strokeRenderer.endStroke();
+            commitUndoTransaction(); // Record the finished stroke
+        });
     }
 
 
@@ -520,21 +934,21 @@ public class FinalTurnIn extends Application {
      * extends the line to the ending point when the mouse is released.
      */
     private void handleLineTool() {
+        double[] start = new double[2]; // The point where the line began
         drawingCanvas.setOnMousePressed(e -> {
+            start[0] = e.getX();
+            start[1] = e.getY();
             drawingGC.beginPath();
             drawingGC.moveTo(e.getX(), e.getY());
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for the line
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for the line
-            saveStateForUndo(); // Save the current state for undo functionality
+            beginUndoTransaction(); // Open one undo step for the whole gesture
         });
 
         drawingCanvas.setOnMouseReleased(e -> {
             drawingGC.lineTo(e.getX(), e.getY());
             drawingGC.stroke(); // Draw the line on the canvas
             drawingGC.closePath();
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for the line
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for the line
-            saveStateForUndo(); // Save the current state for undo functionality
+            canvasDamage.addStroke(drawingGC.getLineWidth(), start[0], start[1], e.getX(), e.getY());
+            commitUndoTransaction(); // Close the undo step opened on mouse press
         });
     }
 
@@ -545,21 +959,127 @@ public class FinalTurnIn extends Application {
     private void handleEraserTool() {
         // Sets the action for when the mouse is pressed on the drawing canvas
         drawingCanvas.setOnMousePressed(e -> {
+            beginUndoTransaction(); // Open one undo step for the whole gesture
+
             // Clear a rectangle area at the mouse position to simulate erasing
-            drawingGC.clearRect(e.getX(), e.getY(), lineWidthSlider.getValue(), lineWidthSlider.getValue());
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for text box border (if applicable)
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for text box border (if applicable)
-            saveStateForUndo(); // Save the current state for undo functionality
+            drawingGC.clearRect(e.getX(), e.getY(), toolSettings.getLineWidth(), toolSettings.getLineWidth());
+            canvasDamage.add(e.getX(), e.getY(), toolSettings.getLineWidth(), toolSettings.getLineWidth());
+            eraseShapesAt(e.getX(), e.getY(), toolSettings.getLineWidth());
         });
 
         // Sets the action for when the mouse is dragged on the drawing canvas
         drawingCanvas.setOnMouseDragged(e -> {
             // Clear a rectangle area at the mouse position to simulate erasing
-            drawingGC.clearRect(e.getX(), e.getY(), lineWidthSlider.getValue(), lineWidthSlider.getValue());
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for text box border (if applicable)
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for text box border (if applicable)
-            saveStateForUndo(); // Save the current state for undo functionality
+            drawingGC.clearRect(e.getX(), e.getY(), toolSettings.getLineWidth(), toolSettings.getLineWidth());
+            canvasDamage.add(e.getX(), e.getY(), toolSettings.getLineWidth(), toolSettings.getLineWidth());
+            eraseShapesAt(e.getX(), e.getY(), toolSettings.getLineWidth());
         });
+
+        // Record everything erased during the drag as one undo step
+        drawingCanvas.setOnMouseReleased(e -> commitUndoTransaction());
+    }
+
+    /**
+     * Sets up the paint bucket tool, which fills the region of similar color around the clicked pixel.
+     */
+    private void handleFillTool() {
+        drawingCanvas.setOnMousePressed(e -> fillAt((int) e.getX(), (int) e.getY()));
+    }
+
+    /**
+     * Flood-fills the drawing layer around a pixel with the current color.
+     * The region is bounded by what is on screen, the drawing layer over the shapes beneath it, and the
+     * fill reads it one document tile at a time as it spreads, so it reaches beyond the viewport without
+     * reading the whole document. Filled pixels are replaced in the drawing layer tile by tile, and only
+     * the changed tiles are recorded in the tile undo history.
+     *
+     * @param x The x-coordinate of the clicked pixel on the canvas.
+     * @param y The y-coordinate of the clicked pixel on the canvas.
+     */
+    private void fillAt(int x, int y) {
+        commitUndoTransaction();
+        saveStateForUndo(); // Store the latest strokes in the document before reading it
+
+        int width = document.getWidth();
+        int height = document.getHeight();
+        Color color = toolSettings.getColor();
+        int argb = (int) Math.round(color.getOpacity() * 255) << 24 | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8 | (int) Math.round(color.getBlue() * 255);
+        TileUndoHistory.LayerEdit edit = undoHistory.beginLayerEdit(DRAWING_LAYER);
+        int[] before = new int[DOCUMENT_TILE_SIZE * DOCUMENT_TILE_SIZE];
+        boolean filled = FloodFill.fill(width, height, DOCUMENT_TILE_SIZE, this::readFillBoundary, viewportX + x, viewportY + y,
+                argb, (int) fillToleranceSlider.getValue(), (tileX, tileY, mask) -> {
+                    int tw = Math.min(DOCUMENT_TILE_SIZE, width - tileX), th = Math.min(DOCUMENT_TILE_SIZE, height - tileY);
+                    document.readRegion(tileX, tileY, tw, th, before);
+                    int[] after = new int[tw * th]; // The journal keeps it until written
+                    for (int row = 0; row < th; row++) {
+                        for (int col = 0; col < tw; col++) {
+                            int bit = row * DOCUMENT_TILE_SIZE + col;
+                            after[row * tw + col] = (mask[bit >>> 6] & (1L << bit)) != 0 ? argb : before[row * tw + col];
+                        }
+                    }
+                    writeLayerTile(DRAWING_LAYER, tileX, tileY, tw, th, after);
+                    edit.addRegion(tileX, tileY, tw, th, before, after);
+                });
+        if (!filled) {
+            return;
+        }
+        showLayerChange(DRAWING_LAYER);
+        if (edit.commit()) {
+            pushUndoStep(new UndoStep(false, 0, DRAWING_LAYER));
+        }
+    }
+
+    /**
+     * Reads a document tile as the paint bucket sees it: the drawing layer over the shapes beneath it.
+     * The shapes are rasterized with Java2D only if one crosses the tile.
+     *
+     * @param x The document x-coordinate of the tile.
+     * @param y The document y-coordinate of the tile.
+     * @return The ARGB pixels of the tile, or null if it is fully transparent.
+     */
+    private int[] readFillBoundary(int x, int y) {
+        int[] pixels = new int[DOCUMENT_TILE_SIZE * DOCUMENT_TILE_SIZE];
+        document.readRegion(x, y, DOCUMENT_TILE_SIZE, DOCUMENT_TILE_SIZE, pixels);
+        if (shapeList.hasVisible(x, y, x + DOCUMENT_TILE_SIZE, y + DOCUMENT_TILE_SIZE)) {
+            BufferedImage shapes = new BufferedImage(DOCUMENT_TILE_SIZE, DOCUMENT_TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = shapes.createGraphics();
+            try {
+                shapeList.render(g, x, y, DOCUMENT_TILE_SIZE, DOCUMENT_TILE_SIZE);
+            } finally {
+                g.dispose();
+            }
+            int[] composite = ((DataBufferInt) shapes.getRaster().getDataBuffer()).getData();
+            LayerStack.blend(composite, pixels, composite.length, 1, Layer.BlendMode.NORMAL);
+            pixels = composite;
+        }
+        for (int pixel : pixels) {
+            if (pixel != 0) {
+                return pixels;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes every shape whose outline the eraser touches.
+     * The eraser square is hit-tested against the shape index, so only nearby shapes are examined.
+     *
+     * @param x    The x-coordinate of the eraser's top-left corner on the canvas.
+     * @param y    The y-coordinate of the eraser's top-left corner on the canvas.
+     * @param size The edge length of the eraser.
+     */
+    private void eraseShapesAt(double x, double y, double size) {
+        double centerX = viewportX + x + size / 2;
+        double centerY = viewportY + y + size / 2;
+        int hit;
+        while ((hit = shapeList.hitTest(centerX, centerY, size / 2)) >= 0) {
+            ShapeRecord erased = shapeList.get(hit);
+            shapeList.erase(hit);
+            journal.shapeAdded(shapeList.get(shapeList.size() - 1));
+            recordUndoStep(false, 1);
+            shapeList.renderRegion(shapeGC, viewportX, viewportY, erased.minX(), erased.minY(), erased.maxX(), erased.maxY());
+        }
     }
 
     /**
@@ -573,24 +1093,28 @@ public class FinalTurnIn extends Application {
             shapeStartY = e.getY();
             drawingShape = true;
 
-            // Apply the selected color and line width for the shape
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for shape border
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for shape border
-            saveStateForUndo(); // Save the current state for undo functionality
+            beginUndoTransaction(); // Open one undo step for the whole gesture
+        });
+
+        drawingCanvas.setOnMouseDragged(e -> {
+            if (drawingShape) {
+                ShapeRecord preview = shapeRecord(shapeStartX, shapeStartY, e.getX(), e.getY());
+                if (preview != null) {
+                    shapePreview.show(preview);
+                }
+            }
         });
 
         drawingCanvas.setOnMouseReleased(e -> {
             // Check if a shape is being drawn
             if (drawingShape) {
+                shapePreview.hide();
                 double endX = e.getX(); // Get the ending x-coordinate
                 double endY = e.getY(); // Get the ending y-coordinate
                 drawShape(shapeStartX, shapeStartY, endX, endY); // Draw the shape using the start and end coordinates
                 drawingShape = false; // Reset the drawing shape flag
 
-                // Apply the selected color and line width for the shape
-                drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for shape border
-                drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for shape border
-                saveStateForUndo(); // Save the current state for undo functionality
+                commitUndoTransaction(); // Close the undo step opened on mouse press
             }
         });
     }
@@ -606,31 +1130,38 @@ public class FinalTurnIn extends Application {
             shapeStartX = e.getX();
             shapeStartY = e.getY();
             drawingShape = true; // Indicate that a shape is being drawn
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for polygon border
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for polygon border
-            saveStateForUndo(); // Save the current state for undo functionality
+            beginUndoTransaction(); // Open one undo step for the whole gesture
+        });
+
+        drawingCanvas.setOnMouseDragged(e -> {
+            if (drawingShape) {
+                // Preview with the number of sides last chosen until the user chooses again
+                double radius = Math.hypot(e.getX() - shapeStartX, e.getY() - shapeStartY);
+                shapePreview.show(polygonRecord(shapeStartX, shapeStartY, radius, polygonSides));
+            }
         });
 
         drawingCanvas.setOnMouseReleased(e -> {
             if (drawingShape) {
+                shapePreview.hide();
+
                 // Get the ending coordinates for the polygon
                 double endX = e.getX();
                 double endY = e.getY();
                 double radius = Math.sqrt(Math.pow(endX - shapeStartX, 2) + Math.pow(endY - shapeStartY, 2));
-                drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for polygon border
-                drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for polygon border
-
-                // Prompt the user to enter the number of sides for the polygon
-                TextInputDialog dialog = new TextInputDialog("5");
-                dialog.setTitle("Polygon Sides");
-                dialog.setHeaderText("Enter the number of sides for the polygon:");
-                dialog.setContentText("Sides:");
-                int sides = Integer.parseInt(dialog.showAndWait().orElse("5")); // Default to 5 sides if not specified
-
-                // Draw the polygon with the specified number of sides
-                drawPolygon(shapeStartX, shapeStartY, radius, sides);
-                drawingShape = false; // Reset drawing shape flag
-                saveStateForUndo(); // Save the current state for undo functionality
+
+                try {
+                    // Prompt the user to enter the number of sides for the polygon
+                    OptionalInt sides = promptCount("Polygon Sides", "Enter the number of sides for the polygon:",
+                            "Sides:", polygonSides, 3);
+                    if (sides.isPresent()) {
+                        polygonSides = sides.getAsInt();
+                        addShape(polygonRecord(shapeStartX, shapeStartY, radius, polygonSides));
+                    }
+                } finally {
+                    drawingShape = false; // Reset drawing shape flag
+                    commitUndoTransaction(); // Close the undo step opened on mouse press, even if drawing failed
+                }
             }
         });
     }
@@ -645,45 +1176,36 @@ public class FinalTurnIn extends Application {
             shapeStartX = e.getX();
             shapeStartY = e.getY();
             drawingShape = true; // Set the drawing shape flag to true
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for the star's outline
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for the star's outline
-            saveStateForUndo(); // Save the current state for undo functionality
+            beginUndoTransaction(); // Open one undo step for the whole gesture
+        });
+
+        drawingCanvas.setOnMouseDragged(e -> {
+            if (drawingShape) {
+                // Preview with the number of points last chosen until the user chooses again
+                double radius = Math.hypot(e.getX() - shapeStartX, e.getY() - shapeStartY);
+                shapePreview.show(starRecord(shapeStartX, shapeStartY, radius, starPoints));
+            }
         });
 
         drawingCanvas.setOnMouseReleased(e -> {
             if (drawingShape) {
+                shapePreview.hide();
                 double endX = e.getX();
                 double endY = e.getY();
                 double radius = Math.sqrt(Math.pow(endX - shapeStartX, 2) + Math.pow(endY - shapeStartY, 2));
 
-                // Prompt the user to enter the number of points for the star
-                TextInputDialog dialog = new TextInputDialog("5");
-                dialog.setTitle("Star Points");
-                dialog.setHeaderText("Enter the number of points for the star:");
-                dialog.setContentText("Points:");
-                drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for the star's outline
-                drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for the star's outline
-
-                // Get the input and validate it
-                Optional<String> result = dialog.showAndWait();
-                if (result.isPresent()) {
-                    try {
-                        int sides = Integer.parseInt(result.get());
-                        if (sides < 4) {
-                            throw new NumberFormatException(); // Enforce minimum points
-                        }
-                        drawStar(shapeStartX, shapeStartY, radius, sides); // Draw the star with specified points
-                    } catch (NumberFormatException ex) {
-                        // Show an error message if input is invalid
-                        Alert alert = new Alert(AlertType.ERROR);
-                        alert.setTitle("Invalid Input");
-                        alert.setHeaderText("Number of Points Error");
-                        alert.setContentText("Please enter a valid number of points (4 or more).");
-                        alert.showAndWait();
+                try {
+                    // Prompt the user to enter the number of points for the star
+                    OptionalInt points = promptCount("Star Points", "Enter the number of points for the star:",
+                            "Points:", starPoints, 4);
+                    if (points.isPresent()) {
+                        starPoints = points.getAsInt();
+                        addShape(starRecord(shapeStartX, shapeStartY, radius, starPoints));
                     }
+                } finally {
+                    drawingShape = false; // Reset the drawing flag
+                    commitUndoTransaction(); // Close the undo step opened on mouse press, even if drawing failed
                 }
-                drawingShape = false; // Reset the drawing flag
-                saveStateForUndo(); // Save the current state for undo functionality
             }
         });
     }
@@ -697,17 +1219,24 @@ public class FinalTurnIn extends Application {
      * @param endY   The y-coordinate where the shape drawing ends.
      */
     private void drawShape(double startX, double startY, double endX, double endY) {
-        if (dashedOutlineCheckBox.isSelected()) {
-            drawingGC.setLineDashes(10); // Apply dashed line
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for text box border (if applicable)
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for text box border (if applicable)
-            saveStateForUndo();
-        } else {
-            drawingGC.setLineDashes((double[]) null); // Use solid line
-            drawingGC.setStroke(colorPicker.getValue()); // Apply selected color for text box border (if applicable)
-            drawingGC.setLineWidth(lineWidthSlider.getValue()); // Set width for text box border (if applicable)
-            saveStateForUndo();
+        ShapeRecord record = shapeRecord(startX, startY, endX, endY);
+        if (record != null) {
+            addShape(record);
         }
+    }
+
+    /**
+     * Builds the rectangle, circle or triangle dragged between two points with the current tool settings.
+     * The same record serves as the rubber band while dragging and as the shape committed on release.
+     *
+     * @param startX The x-coordinate where the drag starts.
+     * @param startY The y-coordinate where the drag starts.
+     * @param endX   The x-coordinate where the drag ends.
+     * @param endY   The y-coordinate where the drag ends.
+     * @return The shape, in canvas coordinates, or null if the current shape type is not dragged out this way.
+     */
+    private ShapeRecord shapeRecord(double startX, double startY, double endX, double endY) {
+        boolean dashed = toolSettings.isDashed(); // Dashed or solid outline
 
         double width = Math.abs(endX - startX);
         double height = Math.abs(endY - startY);
@@ -716,106 +1245,114 @@ public class FinalTurnIn extends Application {
 
         switch (currentShapeType) {
             case RECTANGLE:
-                drawingGC.strokeRect(x, y, width, height);
-                break;
+                return new ShapeRecord(ShapeDisplayList.Kind.RECTANGLE, x, y, width, height, 0,
+                        toolSettings.getColor(), toolSettings.getLineWidth(), dashed);
             case CIRCLE:
                 double radius = Math.min(width, height) / 2;
-                drawingGC.strokeOval(x + width / 2 - radius, y + height / 2 - radius, radius * 2, radius * 2);
-                break;
-            case STAR:
-                int numPoints = (int) starPointSlider.getValue(); // Get the dynamic number of points from the slider
-                drawStar(x, y, Math.min(50, 50) / 2, numPoints); // Example radius; adjust as needed
-                break;
+                return new ShapeRecord(ShapeDisplayList.Kind.OVAL, x + width / 2 - radius, y + height / 2 - radius, radius * 2, radius * 2, 0,
+                        toolSettings.getColor(), toolSettings.getLineWidth(), dashed);
             case TRIANGLE:
-                drawTriangle(x + width / 2, y + height / 2, Math.min(width, height) / 2); // Use the drawTriangle function
-                break;
+                return new ShapeRecord(ShapeDisplayList.Kind.TRIANGLE, x + width / 2, y + height / 2, Math.min(width, height) / 2, 0, 3,
+                        toolSettings.getColor(), toolSettings.getLineWidth(), dashed);
             default:
-                break;
+                return null;
         }
-
-        drawingGC.setLineDashes((double[]) null); // Reset after drawing
     }
 
 
     /**
-     * Draws a star shape on the canvas with the specified parameters.
+     * Builds a star with the current tool settings. Stars are always outlined in black.
      *
      * @param centerX     The x-coordinate of the center of the star.
      * @param centerY     The y-coordinate of the center of the star.
      * @param outerRadius The outer radius of the star points.
-     * @param numPoints   The total number of points on the star (must be 4 or greater).
-     * @throws IllegalArgumentException if the number of points is less than 4.
+     * @param numPoints   The number of points of the star.
+     * @return The star, in canvas coordinates.
      */
-    private void drawStar(double centerX, double centerY, double outerRadius, int numPoints) {
-        if (numPoints < 4) {
-            throw new IllegalArgumentException("Number of points must be 4 or greater.");
-        }
-
-        double[] xPoints = new double[numPoints * 2];
-        double[] yPoints = new double[numPoints * 2];
-
-        for (int i = 0; i < numPoints * 2; i++) {
-            double angle = Math.toRadians(i * 180.0 / numPoints); // Angle step depends on number of points
-            double radius = (i % 2 == 0) ? outerRadius : outerRadius / 2; // Alternate between outer and inner radius
-            xPoints[i] = centerX + radius * Math.cos(angle);
-            yPoints[i] = centerY - radius * Math.sin(angle);
-        }
-
-        drawingGC.setStroke(Color.BLACK); // Set the stroke color
-        drawingGC.strokePolygon(xPoints, yPoints, numPoints * 2); // Draw the star
+    private ShapeRecord starRecord(double centerX, double centerY, double outerRadius, int numPoints) {
+        return new ShapeRecord(ShapeDisplayList.Kind.STAR, centerX, centerY, outerRadius, 0, numPoints,
+                Color.BLACK, toolSettings.getLineWidth(), false);
     }
 
+    /**
+     * Builds a regular polygon with the current tool settings.
+     *
+     * @param centerX The x-coordinate of the center of the polygon.
+     * @param centerY The y-coordinate of the center of the polygon.
+     * @param radius  The radius from the center to each vertex of the polygon.
+     * @param sides   The number of sides (vertices) of the polygon.
+     * @return The polygon, in canvas coordinates.
+     */
+    private ShapeRecord polygonRecord(double centerX, double centerY, double radius, int sides) {
+        return new ShapeRecord(ShapeDisplayList.Kind.POLYGON, centerX, centerY, radius, 0, sides,
+                toolSettings.getColor(), toolSettings.getLineWidth(), false);
+    }
 
     /**
-     * Draws an equilateral triangle on the canvas.
+     * Asks the user for a count, such as the number of sides of a polygon.
+     * Input that is not a whole number of at least the minimum shows an error and counts as cancelled.
      *
-     * @param centerX The x-coordinate of the triangle's center.
-     * @param centerY The y-coordinate of the triangle's center.
-     * @param radius  The radius, which determines the size of the triangle.
+     * @param title   The title of the dialog.
+     * @param header  The question to ask.
+     * @param label   The label of the input field.
+     * @param initial The count offered in the input field.
+     * @param minimum The smallest count allowed.
+     * @return The count, or empty if the user cancelled or entered an invalid count.
      */
-    private void drawTriangle(double centerX, double centerY, double radius) {
-        double[] xPoints = new double[3];
-        double[] yPoints = new double[3];
+    private OptionalInt promptCount(String title, String header, String label, int initial, int minimum) {
+        TextInputDialog dialog = new TextInputDialog(Integer.toString(initial));
+        dialog.setTitle(title);
+        dialog.setHeaderText(header);
+        dialog.setContentText(label);
 
-        // We need 3 points for the triangle, equally spaced by 120 degrees
-        for (int i = 0; i < 3; i++) {
-            double angle = Math.toRadians(120 * i - 90); // -90 to start the first point at the top
-            xPoints[i] = centerX + radius * Math.cos(angle);
-            yPoints[i] = centerY + radius * Math.sin(angle);
+        Optional<String> result = dialog.showAndWait();
+        if (result.isEmpty()) {
+            return OptionalInt.empty();
+        }
+        try {
+            int count = Integer.parseInt(result.get().trim());
+            if (count >= minimum) {
+                return OptionalInt.of(count);
+            }
+        } catch (NumberFormatException ignored) {
+            // Reported below like a count that is too small
         }
 
-        drawingGC.strokePolygon(xPoints, yPoints, 3);
+        // Show an error message if input is invalid
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Invalid Input");
+        alert.setHeaderText(title + " Error");
+        alert.setContentText("Please enter a whole number of " + minimum + " or more.");
+        alert.showAndWait();
+        return OptionalInt.empty();
     }
 
     /**
-     * Draws a regular polygon on the canvas using the specified parameters.
+     * Adds a shape to the display list as one undo step and redraws the shape layer.
+     * The shape is given in viewport coordinates and stored in document coordinates.
      *
-     * @param centerX The x-coordinate of the center of the polygon.
-     * @param centerY The y-coordinate of the center of the polygon.
-     * @param radius  The radius from the center to each vertex of the polygon.
-     * @param sides   The number of sides (vertices) the polygon should have.
-     *                Must be at least 3.
-     * @throws IllegalArgumentException If the number of sides is less than 3.
+     * @param record The shape to add.
      */
-    private void drawPolygon(double centerX, double centerY, double radius, int sides) {
-        if (sides < 3) {
-            throw new IllegalArgumentException("A polygon must have at least 3 sides.");
-        }
-
-        double[] xPoints = new double[sides];
-        double[] yPoints = new double[sides];
-
-        // Calculate the angle between each vertex in the polygon
-        double angleStep = 2 * Math.PI / sides;
+    private void addShape(ShapeRecord record) {
+        shapeList.add(record.translate(viewportX, viewportY));
+        journal.shapeAdded(shapeList.get(shapeList.size() - 1));
+        recordUndoStep(false, 1);
+        shapeList.renderLast(shapeGC, viewportX, viewportY); // Only the new shape needs drawing
+    }
 
-        // Calculate the position of each vertex
-        for (int i = 0; i < sides; i++) {
-            double angle = i * angleStep;
-            xPoints[i] = centerX + radius * Math.cos(angle);
-            yPoints[i] = centerY + radius * Math.sin(angle);
+    /**
+     * Redraws the shape layer by replaying the display list for the current viewport.
+     */
+    private void renderShapes() {
+        if (zoomLevel == 0) {
+            shapeList.render(shapeGC, viewportX, viewportY, shapeCanvas.getWidth(), shapeCanvas.getHeight());
+            return;
         }
-
-        drawingGC.strokePolygon(xPoints, yPoints, sides);
+        double scale = Math.scalb(1.0, zoomLevel);
+        shapeGC.save();
+        shapeGC.scale(scale, scale);
+        shapeList.render(shapeGC, zoomOriginX, zoomOriginY, shapeCanvas.getWidth() / scale, shapeCanvas.getHeight() / scale);
+        shapeGC.restore();
     }
 
 
@@ -832,11 +1369,14 @@ public class FinalTurnIn extends Application {
         MenuItem newItem = new MenuItem("New");
         MenuItem openItem = new MenuItem("Open");
         MenuItem saveItem = new MenuItem("Save/Save As");
+        MenuItem openProjectItem = new MenuItem("Open Project...");
+        MenuItem saveProjectItem = new MenuItem("Save Project");
+        MenuItem saveProjectAsItem = new MenuItem("Save Project As...");
         MenuItem exitItem = new MenuItem("Exit");
 
         newItem.setOnAction(e -> {
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "Are you sure you want to create a new canvas?");
-            if (alert.showAndWait().orElse(ButtonType.NO) == ButtonType.YES) {
+            if (alert.showAndWait().orElse(ButtonType.CANCEL) == ButtonType.OK) {
                 createNewCanvas();
             }
         });
@@ -852,7 +1392,13 @@ public class FinalTurnIn extends Application {
         saveItem.setOnAction(e -> saveImage(stage)); // Call saveImage on saveItem action
         exitItem.setOnAction(e -> stage.close());
 
-        fileMenu.getItems().addAll(newItem, openItem, saveItem, new SeparatorMenuItem(), exitItem);
+        openProjectItem.setOnAction(e -> openProject(stage));
+        saveProjectItem.setAccelerator(new KeyCodeCombination(KeyCode.S, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN));
+        saveProjectItem.setOnAction(e -> saveProject(stage, false));
+        saveProjectAsItem.setOnAction(e -> saveProject(stage, true));
+
+        fileMenu.getItems().addAll(newItem, openItem, saveItem, new SeparatorMenuItem(),
+                openProjectItem, saveProjectItem, saveProjectAsItem, new SeparatorMenuItem(), exitItem);
 
         Menu editMenu = new Menu("Edit");
         MenuItem undoItem = new MenuItem("Undo");
@@ -863,6 +1409,32 @@ public class FinalTurnIn extends Application {
 
         editMenu.getItems().addAll(undoItem, redoItem);
 
+        Menu viewMenu = new Menu("View");
+        CheckMenuItem metricsItem = new CheckMenuItem("Metrics Overlay");
+        metricsItem.setAccelerator(new KeyCodeCombination(KeyCode.F12));
+        metricsItem.setOnAction(e -> {
+            metricsOverlay.setVisible(metricsItem.isSelected());
+            if (metricsItem.isSelected()) {
+                updateMetricsOverlay(0, 0);
+                metricsTimer.start();
+            } else {
+                metricsTimer.stop();
+            }
+        });
+
+        // Zoom around the middle of the view
+        MenuItem zoomInItem = new MenuItem("Zoom In");
+        zoomInItem.setAccelerator(new KeyCodeCombination(KeyCode.EQUALS, KeyCombination.SHORTCUT_DOWN));
+        zoomInItem.setOnAction(e -> zoomTo(zoomLevel + 1, layerImage.getWidth() / 2, layerImage.getHeight() / 2));
+        MenuItem zoomOutItem = new MenuItem("Zoom Out");
+        zoomOutItem.setAccelerator(new KeyCodeCombination(KeyCode.MINUS, KeyCombination.SHORTCUT_DOWN));
+        zoomOutItem.setOnAction(e -> zoomTo(zoomLevel - 1, layerImage.getWidth() / 2, layerImage.getHeight() / 2));
+        MenuItem actualSizeItem = new MenuItem("Actual Size");
+        actualSizeItem.setAccelerator(new KeyCodeCombination(KeyCode.DIGIT0, KeyCombination.SHORTCUT_DOWN));
+        actualSizeItem.setOnAction(e -> zoomTo(0, layerImage.getWidth() / 2, layerImage.getHeight() / 2));
+
+        viewMenu.getItems().addAll(metricsItem, new SeparatorMenuItem(), zoomInItem, zoomOutItem, actualSizeItem);
+
         Menu helpMenu = new Menu("Help");
         MenuItem helpItem = new MenuItem("Help");
         MenuItem aboutItem = new MenuItem("About");
@@ -872,10 +1444,552 @@ public class FinalTurnIn extends Application {
 
         helpMenu.getItems().addAll(helpItem, aboutItem);
 
-        menuBar.getMenus().addAll(fileMenu, editMenu, helpMenu);
+        menuBar.getMenus().addAll(fileMenu, editMenu, viewMenu, createLayersMenu(), createFiltersMenu(), helpMenu);
         return menuBar;
     }
 
+    /**
+     * Creates the Layers menu, which shows or hides each layer and sets the drawing layer's blend mode.
+     *
+     * @return The Layers menu.
+     */
+    private Menu createLayersMenu() {
+        Menu layersMenu = new Menu("Layers");
+
+        showImageItem = new CheckMenuItem("Show Image Layer");
+        showImageItem.setSelected(true);
+        showImageItem.setOnAction(e -> {
+            layers.getLayer(IMAGE_LAYER).setVisible(showImageItem.isSelected());
+            layers.markAllDirty();
+            redrawLayers();
+        });
+
+        showDrawingItem = new CheckMenuItem("Show Drawing Layer");
+        showDrawingItem.setSelected(true);
+        showDrawingItem.setOnAction(e -> {
+            layers.getLayer(DRAWING_LAYER).setVisible(showDrawingItem.isSelected());
+            applyDrawingLayerSettings();
+        });
+
+        Menu blendMenu = new Menu("Drawing Layer Blend");
+        blendGroup = new ToggleGroup();
+        for (Layer.BlendMode mode : Layer.BlendMode.values()) {
+            RadioMenuItem blendItem = new RadioMenuItem(mode.name().charAt(0) + mode.name().substring(1).toLowerCase());
+            blendItem.setToggleGroup(blendGroup);
+            blendItem.setUserData(mode);
+            blendItem.setSelected(mode == Layer.BlendMode.NORMAL);
+            blendItem.setOnAction(e -> {
+                layers.getLayer(DRAWING_LAYER).setBlendMode(mode);
+                applyDrawingLayerSettings();
+            });
+            blendMenu.getItems().add(blendItem);
+        }
+
+        layersMenu.getItems().addAll(showImageItem, showDrawingItem, new SeparatorMenuItem(), blendMenu);
+        return layersMenu;
+    }
+
+    /**
+     * Shows the current layers' visibility and the drawing layer's blend mode in the Layers menu,
+     * after they were set from outside the menu, as opening a project does.
+     */
+    private void showLayerSettingsInMenu() {
+        showImageItem.setSelected(layers.getLayer(IMAGE_LAYER).isVisible());
+        showDrawingItem.setSelected(layers.getLayer(DRAWING_LAYER).isVisible());
+        Layer.BlendMode blendMode = layers.getLayer(DRAWING_LAYER).getBlendMode();
+        for (Toggle toggle : blendGroup.getToggles()) {
+            toggle.setSelected(toggle.getUserData() == blendMode);
+        }
+    }
+
+    /**
+     * Creates the Filters menu, which applies convolution filters and color adjustments
+     * to the image layer or the drawing layer.
+     *
+     * @return The Filters menu.
+     */
+    private Menu createFiltersMenu() {
+        Menu filtersMenu = new Menu("Filters");
+
+        ToggleGroup targetGroup = new ToggleGroup();
+        RadioMenuItem imageTargetItem = new RadioMenuItem("Apply to Image Layer");
+        imageTargetItem.setToggleGroup(targetGroup);
+        imageTargetItem.setSelected(true);
+        imageTargetItem.setOnAction(e -> filterLayer = IMAGE_LAYER);
+        RadioMenuItem drawingTargetItem = new RadioMenuItem("Apply to Drawing Layer");
+        drawingTargetItem.setToggleGroup(targetGroup);
+        drawingTargetItem.setOnAction(e -> filterLayer = DRAWING_LAYER);
+
+        MenuItem blurItem = new MenuItem("Blur...");
+        blurItem.setOnAction(e -> showFilterDialog("Blur", "Radius", 1, 25, 3, ConvolutionFilter.Kernel::gaussianBlur));
+        MenuItem sharpenItem = new MenuItem("Sharpen...");
+        sharpenItem.setOnAction(e -> showFilterDialog("Sharpen", "Amount", 0, 2, 0.5, ConvolutionFilter.Kernel::sharpen));
+        MenuItem edgeItem = new MenuItem("Edge Detect...");
+        edgeItem.setOnAction(e -> showFilterDialog("Edge Detect", "Strength", 0.5, 4, 1, ConvolutionFilter.Kernel::edgeDetect));
+
+        MenuItem adjustItem = new MenuItem("Adjust Colors...");
+        adjustItem.setOnAction(e -> showColorAdjustmentDialog());
+
+        filtersMenu.getItems().addAll(imageTargetItem, drawingTargetItem, new SeparatorMenuItem(), blurItem, sharpenItem, edgeItem,
+                new SeparatorMenuItem(), adjustItem);
+        return filtersMenu;
+    }
+
+    /**
+     * An operation that turns the pixels of a layer region into new pixels, such as a filter or a color adjustment.
+     */
+    private interface LayerOperation {
+        /**
+         * @param pixels The ARGB pixels of the region, row by row; must not be modified.
+         * @param width  The width of the region.
+         * @param height The height of the region.
+         * @return A new array holding the resulting pixels.
+         */
+        int[] apply(int[] pixels, int width, int height);
+
+        /**
+         * @return How many pixels beyond a pixel the operation reads in each direction; 0 if each pixel
+         * only depends on itself.
+         */
+        default int radius() {
+            return 0;
+        }
+    }
+
+    /**
+     * Renders the preview of a layer operation dialog off the FX thread. One rendering runs at a time;
+     * slider moves made while it runs are coalesced into a single rendering of the latest values.
+     */
+    private static final class OperationPreview {
+        private final Function<double[], LayerOperation> operationFor;
+        private final int[] source;
+        private final int width, height;
+        private final WritableImage image;
+
+        /**
+         * The values waiting to be rendered, or null if the preview is up to date.
+         */
+        private double[] pending;
+
+        /**
+         * Whether a rendering is in progress, and whether the dialog has closed.
+         */
+        private boolean running, stopped;
+
+        /**
+         * @param operationFor Creates the operation for a set of parameter values.
+         * @param source       The ARGB pixels to preview the operation on; must not be modified.
+         * @param width        The width of the preview.
+         * @param height       The height of the preview.
+         * @param image        The image showing the preview.
+         */
+        private OperationPreview(Function<double[], LayerOperation> operationFor, int[] source, int width, int height,
+                                 WritableImage image) {
+            this.operationFor = operationFor;
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.image = image;
+        }
+
+        /**
+         * Asks for the preview to show a set of parameter values. Called on the FX thread.
+         *
+         * @param values The parameter values, copied before this returns.
+         */
+        private void request(double[] values) {
+            pending = values.clone();
+            if (!running) {
+                render();
+            }
+        }
+
+        /**
+         * Drops any pending rendering and ignores the result of the running one.
+         */
+        private void stop() {
+            stopped = true;
+            pending = null;
+        }
+
+        /**
+         * Starts rendering the pending values in the background.
+         */
+        private void render() {
+            double[] values = pending;
+            pending = null;
+            running = true;
+            Task<int[]> task = new Task<>() {
+                @Override
+                protected int[] call() {
+                    return operationFor.apply(values).apply(source, width, height);
+                }
+            };
+            task.setOnSucceeded(e -> {
+                if (!stopped) {
+                    image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), task.getValue(), 0, width);
+                }
+                finish();
+            });
+            task.setOnFailed(e -> {
+                System.out.println("Error rendering preview: " + task.getException().getMessage());
+                finish();
+            });
+            ForkJoinPool.commonPool().execute(task);
+        }
+
+        /**
+         * Renders the values that arrived while the last rendering ran, if any.
+         */
+        private void finish() {
+            running = false;
+            if (pending != null) {
+                render();
+            }
+        }
+    }
+
+    /**
+     * Shows a dialog for a filter with a single parameter.
+     *
+     * @param title     The name of the filter.
+     * @param parameter The name of the filter's parameter.
+     * @param min       The smallest value of the parameter.
+     * @param max       The largest value of the parameter.
+     * @param initial   The value the slider starts at.
+     * @param kernelFor Creates the filter's kernel for a parameter value.
+     */
+    private void showFilterDialog(String title, String parameter, double min, double max, double initial,
+                                  DoubleFunction<ConvolutionFilter.Kernel> kernelFor) {
+        showLayerOperationDialog(title, new String[]{parameter}, new double[][]{{min, max, initial}}, values -> {
+            ConvolutionFilter.Kernel kernel = kernelFor.apply(values[0]);
+            return new LayerOperation() {
+                @Override
+                public int[] apply(int[] pixels, int width, int height) {
+                    return ConvolutionFilter.apply(pixels, width, height, kernel);
+                }
+
+                @Override
+                public int radius() {
+                    return kernel.radius();
+                }
+            };
+        });
+    }
+
+    /**
+     * Shows the color adjustment dialog. Brightness, contrast, hue and levels are applied together
+     * as one fused pass over the pixels.
+     */
+    private void showColorAdjustmentDialog() {
+        showLayerOperationDialog("Adjust Colors",
+                new String[]{"Brightness", "Contrast", "Hue", "Black Point", "White Point", "Gamma"},
+                new double[][]{{-1, 1, 0}, {-1, 1, 0}, {-180, 180, 0}, {0, 254, 0}, {1, 255, 255}, {0.1, 5, 1}},
+                values -> {
+                    ColorAdjustment adjustment = new ColorAdjustment()
+                            .brightness(values[0])
+                            .contrast(values[1])
+                            .hue(values[2])
+                            .levels((int) values[3], (int) values[4], values[5]);
+                    return (pixels, width, height) -> adjustment.apply(pixels);
+                });
+    }
+
+    /**
+     * Shows a dialog with a slider for each parameter of an operation on the target layer of the Filters menu.
+     * The result on the viewport is previewed in the dialog as the sliders move, rendered in the background
+     * so dragging stays smooth. On OK the layer is processed tile by tile in the background while the canvas,
+     * menus and shortcuts are disabled, and the changed tiles are committed as one undoable step; they are
+     * discarded if the layer changed meanwhile.
+     *
+     * @param title        The name of the operation.
+     * @param parameters   The names of the operation's parameters.
+     * @param ranges       The smallest value, largest value and initial value of each parameter.
+     * @param operationFor Creates the operation for the current parameter values.
+     */
+    private void showLayerOperationDialog(String title, String[] parameters, double[][] ranges,
+                                          Function<double[], LayerOperation> operationFor) {
+        commitUndoTransaction();
+        saveStateForUndo(); // The drawing layer's pixels must include the latest strokes
+        int layer = filterLayer;
+        TiledSurface pixels = layers.getLayer(layer).getPixels();
+
+        // The preview processes only the part of the layer inside the viewport
+        int previewWidth = (int) drawingCanvas.getWidth();
+        int previewHeight = (int) drawingCanvas.getHeight();
+        int[] previewSource = new int[previewWidth * previewHeight];
+        pixels.readRegion(viewportX, viewportY, previewWidth, previewHeight, previewSource);
+        WritableImage preview = new WritableImage(previewWidth, previewHeight);
+        ImageView previewView = new ImageView(preview);
+        previewView.setFitWidth(480);
+        previewView.setFitHeight(360);
+        previewView.setPreserveRatio(true);
+
+        VBox content = new VBox(10, previewView);
+        Slider[] sliders = new Slider[parameters.length];
+        Label[] valueLabels = new Label[parameters.length];
+        double[] values = new double[parameters.length];
+        OperationPreview operationPreview = new OperationPreview(operationFor, previewSource, previewWidth, previewHeight, preview);
+        Runnable updatePreview = () -> {
+            for (int i = 0; i < sliders.length; i++) {
+                values[i] = sliders[i].getValue();
+                valueLabels[i].setText(parameters[i] + ": " + String.format("%.1f", values[i]));
+            }
+            operationPreview.request(values);
+        };
+        for (int i = 0; i < parameters.length; i++) {
+            sliders[i] = new Slider(ranges[i][0], ranges[i][1], ranges[i][2]);
+            sliders[i].valueProperty().addListener((observable, oldValue, newValue) -> updatePreview.run());
+            valueLabels[i] = new Label();
+            content.getChildren().addAll(valueLabels[i], sliders[i]);
+        }
+        updatePreview.run();
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle(title);
+        dialog.setHeaderText(title + ": " + layers.getLayer(layer).getName() + " layer");
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        boolean confirmed = dialog.showAndWait().orElse(ButtonType.CANCEL) == ButtonType.OK;
+        operationPreview.stop();
+        if (!confirmed) {
+            return;
+        }
+
+        // Process a snapshot of the layer off the FX thread; editing is locked so nothing is drawn over the result
+        LayerOperation operation = operationFor.apply(values);
+        TiledSurface source = pixels.snapshot();
+        TiledSurface result = new TiledSurface(source.getWidth(), source.getHeight(), DOCUMENT_TILE_SIZE);
+        TileUndoHistory.LayerEdit edit = undoHistory.beginLayerEdit(layer);
+        Task<List<int[]>> operationTask = new Task<>() {
+            @Override
+            protected List<int[]> call() {
+                return applyByTile(operation, source, result, edit);
+            }
+        };
+        LayerStack operationLayers = layers;
+        long version = pixels.version();
+        setEditingLocked(true);
+        operationTask.setOnSucceeded(e -> {
+            setEditingLocked(false);
+            if (layers != operationLayers) {
+                edit.discard(); // A new document was started while processing
+                return;
+            }
+            if (pixels.version() != version) {
+                System.out.println("Discarded " + title + ": the layer changed while it was being processed");
+                edit.discard();
+                return;
+            }
+            for (int[] tile : operationTask.getValue()) {
+                int[] after = new int[tile[2] * tile[3]]; // The journal keeps it until written
+                result.readRegion(tile[0], tile[1], tile[2], tile[3], after);
+                writeLayerTile(layer, tile[0], tile[1], tile[2], tile[3], after);
+            }
+            showLayerChange(layer);
+            if (edit.commit()) {
+                pushUndoStep(new UndoStep(false, 0, layer));
+            }
+        });
+        operationTask.setOnFailed(e -> {
+            System.out.println("Error applying " + title + ": " + operationTask.getException().getMessage());
+            edit.discard();
+            setEditingLocked(false);
+        });
+        ForkJoinPool.commonPool().execute(operationTask);
+    }
+
+    /**
+     * Applies a layer operation to a snapshot of a layer one document tile at a time, so only a tile and its
+     * margin are in memory at once. Each tile is processed together with a margin of the operation's radius,
+     * clipped to the layer, which gives the same pixels as processing the whole layer at once. Tiles that
+     * change are written to the result and added to the undo edit.
+     *
+     * @param operation The operation to apply.
+     * @param source    The snapshot of the layer.
+     * @param result    Receives the changed tiles; transparent until then.
+     * @param edit      Receives the pixels of the changed tiles before and after the operation.
+     * @return The document x, y, width and height of every changed tile.
+     */
+    private static List<int[]> applyByTile(LayerOperation operation, TiledSurface source, TiledSurface result,
+                                           TileUndoHistory.LayerEdit edit) {
+        int width = source.getWidth(), height = source.getHeight();
+        int radius = operation.radius();
+        List<int[]> changed = new ArrayList<>();
+        for (int tileY = 0; tileY < height; tileY += DOCUMENT_TILE_SIZE) {
+            for (int tileX = 0; tileX < width; tileX += DOCUMENT_TILE_SIZE) {
+                int tw = Math.min(DOCUMENT_TILE_SIZE, width - tileX), th = Math.min(DOCUMENT_TILE_SIZE, height - tileY);
+                int x0 = Math.max(tileX - radius, 0), y0 = Math.max(tileY - radius, 0);
+                int rw = Math.min(tileX + tw + radius, width) - x0, rh = Math.min(tileY + th + radius, height) - y0;
+                int[] region = new int[rw * rh];
+                source.readRegion(x0, y0, rw, rh, region);
+                int[] processed = operation.apply(region, rw, rh);
+
+                // Cut the tile out of the region and its margin
+                int[] before = new int[tw * th], after = new int[tw * th];
+                int offset = (tileY - y0) * rw + (tileX - x0);
+                for (int row = 0; row < th; row++) {
+                    System.arraycopy(region, offset + row * rw, before, row * tw, tw);
+                    System.arraycopy(processed, offset + row * rw, after, row * tw, tw);
+                }
+                if (!Arrays.equals(before, after)) {
+                    result.writeRegion(tileX, tileY, tw, th, after, 0, tw);
+                    edit.addRegion(tileX, tileY, tw, th, before, after);
+                    changed.add(new int[]{tileX, tileY, tw, th});
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Disables or re-enables everything that edits the document: the canvas, the menus and, through
+     * the scene's key filter, every keyboard shortcut.
+     *
+     * @param locked true to disable editing.
+     */
+    private void setEditingLocked(boolean locked) {
+        canvasPane.setDisable(locked);
+        menuBar.setDisable(locked);
+    }
+
+    /**
+     * Lets the user pick a project file and opens it in place of the current document.
+     *
+     * @param stage The stage the file chooser belongs to.
+     */
+    private void openProject(Stage stage) {
+        FileChooser projectChooser = new FileChooser();
+        projectChooser.setTitle("Open Project");
+        projectChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("JavaDraw projects (*." + ProjectFile.EXTENSION + ")", "*." + ProjectFile.EXTENSION));
+        File file = projectChooser.showOpenDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        Metrics.ImageFileEvent measured = Metrics.startImageFile("load", file.getName());
+        try {
+            loadProject(file.toPath());
+            checkpointJournal(); // Recovery starts from the project file
+        } catch (IOException e) {
+            System.out.println("Error opening project: " + e.getMessage());
+        } finally {
+            Metrics.finishImageFile(measured, layers.getWidth(), layers.getHeight());
+        }
+    }
+
+    /**
+     * Replaces the document with a project file. Only the index is read; the tiles are decoded
+     * as they come into view.
+     *
+     * @param file The project file.
+     * @throws IOException if the file cannot be read or does not hold a document this application can edit.
+     */
+    private void loadProject(Path file) throws IOException {
+        ProjectFile opened = ProjectFile.open(file);
+        if (opened.getTileSize() != DOCUMENT_TILE_SIZE || opened.layerCount() != layers.size()) {
+            opened.close();
+            throw new IOException("Project has an unsupported layer layout.");
+        }
+
+        startDocument(opened.getWidth(), opened.getHeight());
+        project = opened;
+        project.attach(layers);
+        applyDrawingLayerSettings();
+        showLayerSettingsInMenu();
+        for (ShapeRecord record : project.getShapes()) {
+            shapeList.add(record);
+        }
+
+        layers.markAllDirty();
+        redrawLayers();
+        renderViewport();
+        renderShapes();
+        resetUndoHistory();
+    }
+
+    /**
+     * Saves the document as a project. Saving again to the file it came from only writes the tiles
+     * changed since; a new file receives the whole document. The file is written in the background from
+     * a snapshot of the document, so editing can go on; tiles written meanwhile are saved the next time.
+     *
+     * @param stage  The stage the file chooser belongs to.
+     * @param choose Whether to ask for a file even if the document already has one.
+     */
+    private void saveProject(Stage stage, boolean choose) {
+        if (projectSaveTask != null) {
+            System.out.println("A project save is already in progress.");
+            return;
+        }
+        Path target = project != null ? project.getPath() : null;
+        if (choose || target == null) {
+            FileChooser projectChooser = new FileChooser();
+            projectChooser.setTitle("Save Project");
+            projectChooser.getExtensionFilters().add(
+                    new FileChooser.ExtensionFilter("JavaDraw projects (*." + ProjectFile.EXTENSION + ")", "*." + ProjectFile.EXTENSION));
+            File file = projectChooser.showSaveDialog(stage);
+            if (file == null) {
+                return;
+            }
+            if (!file.getName().endsWith("." + ProjectFile.EXTENSION)) {
+                file = new File(file.getPath() + "." + ProjectFile.EXTENSION);
+            }
+            target = file.toPath();
+        }
+
+        commitUndoTransaction();
+        saveStateForUndo(); // Store the latest strokes in the drawing layer
+
+        // The snapshot takes over the record of written tiles; the layers start collecting the next save's
+        LayerStack savedLayers = layers;
+        LayerStack snapshot = layers.snapshot();
+        for (int i = 0; i < layers.size(); i++) {
+            layers.getLayer(i).getPixels().markClean();
+        }
+        List<ShapeRecord> records = new ArrayList<>(shapeList.size());
+        for (int i = 0; i < shapeList.size(); i++) {
+            records.add(shapeList.get(i));
+        }
+        ProjectFile previous = project;
+        Path path = target;
+
+        Metrics.ImageFileEvent measured = Metrics.startImageFile("save", target.getFileName().toString());
+        Task<ProjectFile> task = new Task<>() {
+            @Override
+            protected ProjectFile call() throws IOException {
+                return ProjectFile.save(previous, path, snapshot, records);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            projectSaveTask = null;
+            Metrics.finishImageFile(measured, snapshot.getWidth(), snapshot.getHeight());
+            ProjectFile saved = task.getValue();
+            if (layers != savedLayers) {
+                if (saved != previous) {
+                    saved.close(); // Another document was started or opened meanwhile
+                }
+                return;
+            }
+            saved.adopt(previous, layers);
+            project = saved;
+            checkpointJournal(); // Recovery now starts from the saved file
+            System.out.println("Project saved successfully: " + project.getPath());
+        });
+        task.setOnFailed(e -> {
+            projectSaveTask = null;
+            Metrics.finishImageFile(measured, snapshot.getWidth(), snapshot.getHeight());
+            System.out.println("Error saving project: " + task.getException().getMessage());
+            if (layers == savedLayers) {
+                for (int i = 0; i < layers.size(); i++) {
+                    layers.getLayer(i).getPixels().restoreDirty(snapshot.getLayer(i).getPixels());
+                }
+            }
+        });
+        projectSaveTask = task;
+        ForkJoinPool.commonPool().execute(task);
+    }
+
     // Save image method
     private void saveImage(Stage stage) {
         // Create a FileChooser to select the save location and file type
@@ -896,50 +2010,79 @@ public class FinalTurnIn extends Application {
                 file = new File(filePath + ".png"); // Default to PNG if no extension
             }
 
-            // Capture the canvas as an image
-            WritableImage image = new WritableImage((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
-            drawingCanvas.snapshot(new SnapshotParameters(), image);
-
-            // Convert WritableImage to BufferedImage
-            BufferedImage bufferedImage = new BufferedImage(
-                    (int) drawingCanvas.getWidth(),
-                    (int) drawingCanvas.getHeight(),
-                    BufferedImage.TYPE_INT_ARGB
-            );
-
-            // Retrieve the PixelReader from the WritableImage
-            PixelReader pixelReader = image.getPixelReader();
-
-            // Loop through each pixel to retrieve its color
-            for (int x = 0; x < image.getWidth(); x++) {
-                for (int y = 0; y < image.getHeight(); y++) {
-                    // Get the pixel color from the WritableImage using PixelReader
-                    Color color = pixelReader.getColor(x, y);
-
-                    // Convert Color to ARGB int for BufferedImage
-                    int alpha = (int) (color.getOpacity() * 255); // Get alpha as int
-                    int red = (int) (color.getRed() * 255); // Get red as int
-                    int green = (int) (color.getGreen() * 255); // Get green as int
-                    int blue = (int) (color.getBlue() * 255); // Get blue as int
-
-                    // Set the pixel color in BufferedImage
-                    int rgb = (alpha << 24) | (red << 16) | (green << 8) | blue; // Combine into ARGB int
-                    bufferedImage.setRGB(x, y, rgb);
-                }
-            }
+            String format = file.getPath().endsWith(".jpg") ? "jpg" : "png";
 
-            // Save the image to the specified file
-            try {
-                if (filePath.endsWith(".png")) {
-                    ImageIO.write(bufferedImage, "png", file);
-                } else if (filePath.endsWith(".jpg")) {
-                    ImageIO.write(bufferedImage, "jpg", file);
-                }
-                System.out.println("Image saved successfully: " + file.getPath());
-            } catch (IOException e) {
-                System.out.println("Error saving image: " + e.getMessage());
+            // Snapshot the document; this is the only part of the save that runs on the FX thread
+            DocumentFlattener document = snapshotForExport();
+
+            // Flatten and encode in the background; saves queue up instead of running in parallel
+            Task<File> saveTask = imageExportQueue.submit(document.getWidth(), document.getHeight(), document, file, format);
+            showSaveProgress(saveTask);
+        }
+    }
+
+    /**
+     * Snapshots the whole document for export: the layers, shared with the document until either is written,
+     * and the visible shapes, which are immutable records. Strokes still only on the drawing canvas are written
+     * into the snapshot's drawing layer, so they are saved without ending the undo step they belong to.
+     * The snapshot is flattened onto a white background on the export thread, a strip at a time.
+     *
+     * @return The rows of the flattened document.
+     */
+    private DocumentFlattener snapshotForExport() {
+        LayerStack snapshot = layers.snapshot();
+        int[] drawingPixels = pendingDrawingPixels();
+        if (!canvasDamage.isEmpty()) {
+            int canvasWidth = (int) drawingCanvas.getWidth();
+            int x = canvasDamage.minX(), y = canvasDamage.minY();
+            snapshot.getLayer(DRAWING_LAYER).getPixels().writeRegion(viewportX + x, viewportY + y,
+                    canvasDamage.maxX() - x, canvasDamage.maxY() - y, drawingPixels, y * canvasWidth + x, canvasWidth);
+        }
+        return new DocumentFlattener(snapshot, shapeList.copyVisible(), DRAWING_LAYER);
+    }
+
+    /**
+     * Shows the progress of a background save next to the other controls,
+     * with a button to cancel it. The controls are hidden again once the save ends.
+     *
+     * @param saveTask The save to track.
+     */
+    private void showSaveProgress(Task<File> saveTask) {
+        activeSaveTask = saveTask;
+        saveProgressBar.progressProperty().bind(saveTask.progressProperty());
+        saveProgressBar.setVisible(true);
+        cancelSaveButton.setVisible(true);
+        cancelSaveButton.setOnAction(e -> saveTask.cancel());
+
+        saveTask.setOnSucceeded(e -> {
+            if (saveTask.getValue() != null) {
+                System.out.println("Image saved successfully: " + saveTask.getValue().getPath());
             }
+            hideSaveProgress(saveTask);
+        });
+        saveTask.setOnFailed(e -> {
+            System.out.println("Error saving image: " + saveTask.getException().getMessage());
+            hideSaveProgress(saveTask);
+        });
+        saveTask.setOnCancelled(e -> {
+            System.out.println("Save cancelled");
+            hideSaveProgress(saveTask);
+        });
+    }
+
+    /**
+     * Hides the save progress controls if the given save is the one they are showing.
+     *
+     * @param saveTask The save that ended.
+     */
+    private void hideSaveProgress(Task<File> saveTask) {
+        if (activeSaveTask != saveTask) {
+            return; // A newer save is being shown
         }
+        activeSaveTask = null;
+        saveProgressBar.progressProperty().unbind();
+        saveProgressBar.setVisible(false);
+        cancelSaveButton.setVisible(false);
     }
 
 
@@ -969,95 +2112,865 @@ public class FinalTurnIn extends Application {
     }
 
     /**
-     * Saves the current state of the drawing canvas to the undo stack.
-     * This allows for the ability to revert to this state if needed.
+     * Saves the current state of the drawing canvas to the undo history.
+     * Only the area drawn on since the previous save is captured, and only the tiles
+     * it touches are compared, so a small edit costs the same on any canvas size.
      */
     private void saveStateForUndo() {
-        // Save current state to the undo stack
-        WritableImage currentSnapshot = new WritableImage((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
-        drawingCanvas.snapshot(null, currentSnapshot);
-        undoStack.push(currentSnapshot);
+        canvasDamage.clip((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
+        if (canvasDamage.isEmpty()) {
+            return; // Nothing was drawn on the canvas since the last save
+        }
+        int x = canvasDamage.minX(), y = canvasDamage.minY();
+        int w = canvasDamage.maxX() - x, h = canvasDamage.maxY() - y;
+        canvasDamage.clear();
+        int[] pixels = snapshotDrawingPixels(x, y, w, h);
+        if (undoHistory.checkpoint(pixels, x, y, w, h, this::storeDocumentTile)) {
+            recordUndoStep(true, 0);
+        }
+    }
+
+    /**
+     * Reads what the drawing canvas shows now, including strokes not yet saved to the undo history,
+     * without saving them. The area drawn on is captured into the undo buffer, and stays marked so
+     * the next save still records it.
+     *
+     * @return The ARGB pixels of the drawing canvas, row by row.
+     */
+    private int[] pendingDrawingPixels() {
+        canvasDamage.clip((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
+        if (!canvasDamage.isEmpty()) {
+            int x = canvasDamage.minX(), y = canvasDamage.minY();
+            snapshotDrawingPixels(x, y, canvasDamage.maxX() - x, canvasDamage.maxY() - y);
+        }
+        return undoPixels;
+    }
+
+    /**
+     * Marks the whole drawing canvas as drawn on, for operations that change more than can be tracked cheaply.
+     */
+    private void damageWholeCanvas() {
+        canvasDamage.add(0, 0, (int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
+    }
+
+    /**
+     * Records that a layer changed. Inside a transaction the change joins the transaction's step;
+     * otherwise it becomes a step of its own. A new step discards everything that could be redone.
+     *
+     * @param pixels       Whether the raster drawing layer changed.
+     * @param shapeRecords The number of records added to the shape display list.
+     */
+    private void recordUndoStep(boolean pixels, int shapeRecords) {
+        if (undoTransactionOpen) {
+            transactionPixels |= pixels; // Shape records are counted when the transaction commits
+            return;
+        }
+        pushUndoStep(new UndoStep(pixels, shapeRecords, NO_LAYER));
+    }
+
+    /**
+     * Makes a step the newest undo step and discards everything that could be redone.
+     *
+     * @param step The step to record.
+     */
+    private void pushUndoStep(UndoStep step) {
+        undoSteps.push(step);
+        redoSteps.clear();
+        undoHistory.discardRedo();
+        shapeList.discardRedo();
+        dropEvictedUndoSteps();
+        if (journal.needsCheckpoint() && projectSaveTask == null) {
+            // Compact the journal between gestures, but not while a save is running: the project does not hold
+            // the tiles being saved yet
+            checkpointJournal();
+        }
+    }
+
+    /**
+     * Drops the oldest undo steps along with the history entries the tile undo history evicted,
+     * together with any older steps, so every step left can still be undone in order.
+     */
+    private void dropEvictedUndoSteps() {
+        for (; evictedUndoEntries < undoHistory.evictedEntries(); evictedUndoEntries++) {
+            UndoStep dropped;
+            do {
+                dropped = undoSteps.pollLast();
+            } while (dropped != null && !dropped.hasHistoryEntry());
+        }
+    }
+
+    /**
+     * Opens an undo transaction for a gesture, typically on mouse press.
+     * Any changes made before the gesture are recorded as their own step first,
+     * so the transaction only covers what the gesture draws.
+     */
+    private void beginUndoTransaction() {
+        if (undoTransactionOpen) {
+            return;
+        }
+        saveStateForUndo();
+        undoTransactionOpen = true;
+        transactionPixels = false;
+        transactionShapeStart = shapeList.size();
     }
 
     /**
-     * Undoes the last action by restoring the previous state of the drawing canvas.
-     * The current state is saved to the redo stack before the undo action is performed.
+     * Closes the open undo transaction, typically on mouse release,
+     * recording everything drawn since it was opened as a single undo step.
+     */
+    private void commitUndoTransaction() {
+        if (!undoTransactionOpen) {
+            return;
+        }
+        saveStateForUndo();
+        undoTransactionOpen = false;
+        int shapeRecords = shapeList.size() - transactionShapeStart;
+        if (transactionPixels || shapeRecords > 0) {
+            recordUndoStep(transactionPixels, shapeRecords);
+        }
+    }
+
+    /**
+     * Undoes the last action by restoring the tiles it changed on the drawing canvas
+     * and removing the shape records it added.
+     * Changes that have not been saved yet are recorded first so they can be redone.
      */
     private void undo() {
-        if (!undoStack.isEmpty()) {
-            // Save the current state to the redo stack before undoing
-            WritableImage currentSnapshot = new WritableImage((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
-            drawingCanvas.snapshot(null, currentSnapshot);
-            redoStack.push(currentSnapshot);
+        Metrics.UndoEvent measured = Metrics.startUndo("undo");
+        try {
+            undoStep();
+        } finally {
+            Metrics.finishUndo(measured, undoSteps.size(), undoMemory());
+        }
+    }
 
-            // Restore the last state from the undo stack
-            WritableImage lastImage = undoStack.pop();
-            drawingGC.clearRect(0, 0, drawingCanvas.getWidth(), drawingCanvas.getHeight());
-            drawingGC.drawImage(lastImage, 0, 0);
+    /**
+     * Performs the undo of {@link #undo()}.
+     */
+    private void undoStep() {
+        commitUndoTransaction();
+        saveStateForUndo();
+        UndoStep step = undoSteps.poll();
+        if (step == null) {
+            return;
+        }
+        if (step.hasHistoryEntry()) {
+            undoHistory.undo(this::writeDrawingTile, this::writeLayerTile);
         }
+        if (step.editedLayer != NO_LAYER) {
+            showLayerChange(step.editedLayer);
+        } else if (step.pixels && zoomLevel != 0) {
+            redrawLayers(); // The drawing canvas is not shown while zoomed
+        }
+        if (step.shapeRecords > 0) {
+            for (int i = 0; i < step.shapeRecords; i++) {
+                if (shapeList.undo()) {
+                    journal.shapeUndone();
+                }
+            }
+            renderShapes();
+        }
+        redoSteps.push(step);
     }
 
     /**
-     * Redoes the last undone action by restoring the next state of the drawing canvas.
-     * The current state is saved to the undo stack before the redo action is performed.
+     * Redoes the last undone action by restoring the tiles it changed on the drawing canvas
+     * and bringing back the shape records it added.
      */
     private void redo() {
-        if (!redoStack.isEmpty()) {
-            // Save the current state to the undo stack before redoing
-            WritableImage currentSnapshot = new WritableImage((int) drawingCanvas.getWidth(), (int) drawingCanvas.getHeight());
-            drawingCanvas.snapshot(null, currentSnapshot);
-            undoStack.push(currentSnapshot);
+        Metrics.UndoEvent measured = Metrics.startUndo("redo");
+        try {
+            redoStep();
+        } finally {
+            Metrics.finishUndo(measured, undoSteps.size(), undoMemory());
+        }
+    }
 
-            // Restore the last state from the redo stack
-            WritableImage nextImage = redoStack.pop();
-            drawingGC.clearRect(0, 0, drawingCanvas.getWidth(), drawingCanvas.getHeight());
-            drawingGC.drawImage(nextImage, 0, 0);
+    /**
+     * Performs the redo of {@link #redo()}.
+     */
+    private void redoStep() {
+        UndoStep step = redoSteps.poll();
+        if (step == null) {
+            return;
+        }
+        if (step.hasHistoryEntry()) {
+            undoHistory.redo(this::writeDrawingTile, this::writeLayerTile);
+        }
+        if (step.editedLayer != NO_LAYER) {
+            showLayerChange(step.editedLayer);
+        } else if (step.pixels && zoomLevel != 0) {
+            redrawLayers(); // The drawing canvas is not shown while zoomed
+        }
+        if (step.shapeRecords > 0) {
+            for (int i = 0; i < step.shapeRecords; i++) {
+                if (shapeList.redo()) {
+                    journal.shapeRedone();
+                }
+            }
+            renderShapes();
         }
+        undoSteps.push(step);
     }
 
     /**
-     * Redraws the canvas by clearing the previous content and rendering the current image
-     * along with any drawn shapes or lines.
+     * @return The heap bytes held by the undo history: the changed drawing tiles and the replaced layer tiles.
+     *         The history keeps a running count, so this is cheap enough to report with every handled event.
      */
-    private void redrawCanvas() {
-        // Clear the image canvas to prepare for redrawing
-        imageGC.clearRect(0, 0, imageCanvas.getWidth(), imageCanvas.getHeight());
+    private long undoMemory() {
+        return undoHistory.memoryUsed();
+    }
+
+    /**
+     * Measures every press, drag and release the drawing canvas handles, whichever tool's handlers are installed.
+     * Each one is recorded as a {@link Metrics.ToolHandlerEvent} and feeds the overlay's latency percentiles.
+     * Pencil events also record how many pieces the stroke has, so their latency can be checked against stroke length.
+     */
+    private void measureToolHandlers() {
+        EventDispatcher dispatcher = drawingCanvas.getEventDispatcher();
+        drawingCanvas.setEventDispatcher((event, tail) -> {
+            EventType<? extends Event> type = event.getEventType();
+            if (type != MouseEvent.MOUSE_PRESSED && type != MouseEvent.MOUSE_DRAGGED && type != MouseEvent.MOUSE_RELEASED) {
+                return dispatcher.dispatchEvent(event, tail);
+            }
+            Metrics.ToolHandlerEvent measured = Metrics.startToolHandler(currentTool.name(), type.getName());
+            try {
+                return dispatcher.dispatchEvent(event, tail);
+            } finally {
+                int strokeSegments = currentTool == Tool.PENCIL ? strokeRenderer.segmentCount() : 0;
+                Metrics.finishToolHandler(measured, strokeSegments, undoSteps.size(), undoMemory());
+            }
+        });
+    }
+
+    /**
+     * Shows the latest measurements in the metrics overlay.
+     *
+     * @param frameMillis      The average time between frames, in milliseconds.
+     * @param worstFrameMillis The longest time between frames since the last update, in milliseconds.
+     */
+    private void updateMetricsOverlay(double frameMillis, double worstFrameMillis) {
+        long[] latency = Metrics.latencyPercentiles(50, 95, 99);
+        metricsOverlay.setText(String.format(
+                "Frame      %6.1f ms (worst %.1f ms)%n"
+                        + "Handlers   p50 %.2f  p95 %.2f  p99 %.2f ms (%d)%n"
+                        + "Snapshot   %6.2f ms (%d)%n"
+                        + "Undo       %d steps, %.1f MB heap, %.1f MB disk%n"
+                        + "Undo/redo  %d   Loads %d   Saves %d",
+                frameMillis, worstFrameMillis,
+                latency[0] / 1e6, latency[1] / 1e6, latency[2] / 1e6, Metrics.toolHandlerCount(),
+                Metrics.lastSnapshotNanos() / 1e6, Metrics.snapshotCount(),
+                undoSteps.size(), undoMemory() / (1024.0 * 1024), undoHistory.diskUsed() / (1024.0 * 1024),
+                Metrics.undoCount(), Metrics.loadCount(), Metrics.saveCount()));
+    }
 
-        // Draw the current image if it exists
-        if (currentImage != null) {
-            imageGC.drawImage(currentImage, imageX, imageY, imageWidth, imageHeight);
+    /**
+     * Replaces a region of a layer in the document without showing it yet, as undoing a layer edit does tile by tile.
+     *
+     * @param layer  The position of the layer.
+     * @param x      The document x-coordinate of the region.
+     * @param y      The document y-coordinate of the region.
+     * @param width  The width of the region.
+     * @param height The height of the region.
+     * @param pixels The new ARGB pixels of the region.
+     */
+    private void writeLayerTile(int layer, int x, int y, int width, int height, int[] pixels) {
+        layers.getLayer(layer).getPixels().writeRegion(x, y, width, height, pixels, 0, width);
+        layers.markDirty(x, y, width, height);
+        journal.region(layer, x, y, width, height, pixels);
+    }
+
+    /**
+     * Shows the changed regions of a layer. A change to the drawing layer is drawn onto the drawing canvas
+     * from the document, and the undo history is re-based on the new pixels.
+     *
+     * @param layer The position of the layer.
+     */
+    private void showLayerChange(int layer) {
+        if (layer == DRAWING_LAYER) {
+            renderViewport();
+        }
+        if (layer != DRAWING_LAYER || zoomLevel != 0) {
+            redrawLayers(); // Zoomed views show the drawing layer in the layer view too
         }
+    }
 
-        // Clear the drawing canvas to prepare for new drawings
-        drawingGC.clearRect(0, 0, drawingCanvas.getWidth(), drawingCanvas.getHeight());
+    /**
+     * Starts a new, empty undo history for the current drawing canvas.
+     */
+    private void resetUndoHistory() {
+        int width = (int) drawingCanvas.getWidth();
+        int height = (int) drawingCanvas.getHeight();
+        undoSnapshot = new WritableImage(width, height);
+        undoPixels = new int[width * height];
+        if (undoHistory != null) {
+            undoHistory.close(); // Release the old history's scratch file
+        }
+        undoHistory = new TileUndoHistory(width, height, UNDO_TILE_SIZE, UNDO_MEMORY_BUDGET, UNDO_DISK_BUDGET, snapshotDrawingPixels());
+        evictedUndoEntries = 0;
+        undoHistory.moveViewport(viewportX, viewportY, undoPixels);
+        canvasDamage.clear(); // The new history starts from what is on the canvas now
+    }
+
+    /**
+     * Captures the drawing canvas into the reusable undo buffer.
+     *
+     * @return The ARGB pixels of the drawing canvas, row by row.
+     */
+    private int[] snapshotDrawingPixels() {
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT); // Keep erased areas transparent so the layers beneath show through
+        Metrics.SnapshotEvent measured = Metrics.startSnapshot("undo", undoSnapshot.getWidth(), undoSnapshot.getHeight());
+        drawingCanvas.snapshot(parameters, undoSnapshot);
+        Metrics.finishSnapshot(measured);
+
+        int width = (int) undoSnapshot.getWidth();
+        int height = (int) undoSnapshot.getHeight();
+        undoSnapshot.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), undoPixels, 0, width);
+        return undoPixels;
+    }
+
+    /**
+     * Captures a rectangle of the drawing canvas into the same place in the reusable undo buffer.
+     * The rest of the buffer keeps the pixels of earlier captures, which match the undo history's
+     * baseline because everything drawn since then lies inside the rectangle.
+     *
+     * @param x The canvas x-coordinate of the rectangle.
+     * @param y The canvas y-coordinate of the rectangle.
+     * @param w The width of the rectangle.
+     * @param h The height of the rectangle.
+     * @return The ARGB pixels of the drawing canvas, row by row.
+     */
+    private int[] snapshotDrawingPixels(int x, int y, int w, int h) {
+        int width = (int) undoSnapshot.getWidth();
+        if (w == width && h == (int) undoSnapshot.getHeight()) {
+            return snapshotDrawingPixels();
+        }
+        // The viewport is in the canvas's parent coordinates, like the image of an unclipped snapshot
+        Bounds bounds = drawingCanvas.getBoundsInParent();
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT); // Keep erased areas transparent so the layers beneath show through
+        parameters.setViewport(new Rectangle2D(bounds.getMinX() + x, bounds.getMinY() + y, w, h));
+        WritableImage region = new WritableImage(w, h);
+        Metrics.SnapshotEvent measured = Metrics.startSnapshot("undo", w, h);
+        drawingCanvas.snapshot(parameters, region);
+        Metrics.finishSnapshot(measured);
+
+        region.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), undoPixels, y * width + x, width);
+        return undoPixels;
+    }
+
+    /**
+     * Stores a tile that changed on the drawing canvas in the document.
+     *
+     * @param x      The document x-coordinate of the tile.
+     * @param y      The document y-coordinate of the tile.
+     * @param width  The width of the tile.
+     * @param height The height of the tile.
+     * @param pixels The ARGB pixels of the tile.
+     */
+    private void storeDocumentTile(int x, int y, int width, int height, int[] pixels) {
+        document.writeRegion(x, y, width, height, pixels, 0, width);
+        layers.markDirty(x, y, width, height);
+        journal.region(DRAWING_LAYER, x, y, width, height, pixels);
+    }
+
+    /**
+     * Writes a tile restored by the undo history back to the document, and to the
+     * drawing canvas for the part of it that lies inside the viewport.
+     *
+     * @param x      The document x-coordinate of the tile.
+     * @param y      The document y-coordinate of the tile.
+     * @param width  The width of the tile.
+     * @param height The height of the tile.
+     * @param pixels The ARGB pixels of the tile.
+     */
+    private void writeDrawingTile(int x, int y, int width, int height, int[] pixels) {
+        storeDocumentTile(x, y, width, height, pixels);
+
+        int x0 = Math.max(x, viewportX);
+        int y0 = Math.max(y, viewportY);
+        int x1 = Math.min(x + width, viewportX + (int) drawingCanvas.getWidth());
+        int y1 = Math.min(y + height, viewportY + (int) drawingCanvas.getHeight());
+        if (x0 < x1 && y0 < y1) {
+            drawingGC.getPixelWriter().setPixels(x0 - viewportX, y0 - viewportY, x1 - x0, y1 - y0,
+                    PixelFormat.getIntArgbInstance(), pixels, (y0 - y) * width + (x0 - x), width);
+            // Keep the undo buffer in step with the canvas, since partial snapshots only refresh the damaged area
+            int canvasWidth = (int) drawingCanvas.getWidth();
+            for (int row = y0; row < y1; row++) {
+                System.arraycopy(pixels, (row - y) * width + (x0 - x),
+                        undoPixels, (row - viewportY) * canvasWidth + (x0 - viewportX), x1 - x0);
+            }
+        }
+    }
+
+
+    /**
+     * Composites the changed parts of the layers beneath the drawing layer into the layer view,
+     * leaving the drawing canvas untouched.
+     */
+    private void redrawLayers() {
+        if (zoomLevel == 0) {
+            layers.updateDisplay(layerImage, viewportX, viewportY, 0, 0, DRAWING_LAYER);
+        } else {
+            layers.updateDisplay(layerImage, zoomOriginX, zoomOriginY, zoomLevel, 0, layers.size());
+        }
+    }
+
+    /**
+     * Shows the drawing layer's opacity, visibility and blend mode on the drawing canvas, which presents it on screen.
+     * A hidden layer is made fully transparent rather than invisible, so the canvas keeps receiving mouse events.
+     * While the view is zoomed the layer view shows the drawing layer instead, and the canvas and its tools are set aside.
+     */
+    private void applyDrawingLayerSettings() {
+        Layer drawingLayer = layers.getLayer(DRAWING_LAYER);
+        boolean zoomed = zoomLevel != 0;
+        drawingCanvas.setOpacity(drawingLayer.isVisible() && !zoomed ? drawingLayer.getOpacity() : 0);
+        drawingCanvas.setBlendMode(drawingLayer.getBlendMode().fxMode());
+        drawingCanvas.setMouseTransparent(zoomed);
+        clearButton.setDisable(zoomed);
+        if (zoomed) {
+            layers.markAllDirty();
+            redrawLayers();
+        }
+    }
+
+    /**
+     * Creates the layers of a new, empty document.
+     *
+     * @param width  The width of the document.
+     * @param height The height of the document.
+     * @return The image layer and the drawing layer, in that order.
+     */
+    private static LayerStack createLayers(int width, int height) {
+        LayerStack stack = new LayerStack(width, height);
+        stack.addLayer("Image", DOCUMENT_TILE_SIZE);
+        stack.addLayer("Drawing", DOCUMENT_TILE_SIZE);
+        return stack;
     }
 
     /**
      * Creates a new drawing canvas and clears the existing one.
      * <p>
-     * This function clears the current drawing canvas and the image canvas,
-     * creates new canvases with specified dimensions, and updates the graphics contexts.
-     * Finally, it clears the canvas pane and adds the new canvases for rendering.
+     * This function starts a new, empty document the size of the current image and clears
+     * both canvases. Documents larger than the viewport are not allocated up front: their tiles
+     * are created as they are painted, and the canvases only show the part inside the viewport.
      * </p>
      */
     private void createNewCanvas() {
-        // Clear the existing drawing canvas
+        // The new document takes the size of the current image, if there is one
+        int documentWidth = imageWidth > 0 ? (int) Math.ceil(imageWidth) : VIEWPORT_WIDTH;
+        int documentHeight = imageHeight > 0 ? (int) Math.ceil(imageHeight) : VIEWPORT_HEIGHT;
+        startDocument(documentWidth, documentHeight);
+        checkpointJournal(); // Nothing before the new document needs replaying
+    }
+
+    /**
+     * Replaces the document with a new, empty one of the given size and resets the canvases and history to it.
+     *
+     * @param documentWidth  The width of the new document.
+     * @param documentHeight The height of the new document.
+     */
+    private void startDocument(int documentWidth, int documentHeight) {
+        if (project != null) {
+            project.close(); // The new document is not based on it
+            project = null;
+        }
+        LayerStack previousLayers = layers;
+        layers = createLayers(documentWidth, documentHeight);
+        for (int i = 0; i < layers.size(); i++) {
+            // The new document keeps the layer settings chosen in the Layers menu
+            Layer previous = previousLayers.getLayer(i);
+            Layer layer = layers.getLayer(i);
+            layer.setVisible(previous.isVisible());
+            layer.setOpacity(previous.getOpacity());
+            layer.setBlendMode(previous.getBlendMode());
+        }
+        document = layers.getLayer(DRAWING_LAYER).getPixels();
+        viewportX = 0;
+        viewportY = 0;
+        zoomLevel = 0;
+        if (pyramidTask != null) {
+            pyramidTask.cancel(); // It belongs to the previous document's image
+            pyramidTask = null;
+        }
+        applyDrawingLayerSettings();
+
+        // Resize the canvases to the viewport; the nodes, their graphics contexts and mouse handlers are kept
+        double canvasWidth = Math.min(documentWidth, VIEWPORT_WIDTH);
+        double canvasHeight = Math.min(documentHeight, VIEWPORT_HEIGHT);
+        drawingCanvas.setWidth(canvasWidth);
+        drawingCanvas.setHeight(canvasHeight);
+        shapeCanvas.setWidth(canvasWidth);
+        shapeCanvas.setHeight(canvasHeight);
+        layerImage = new WritableImage((int) canvasWidth, (int) canvasHeight);
+        layerView.setImage(layerImage);
+
+        // Clear the drawing canvas and show the empty layers
         drawingGC.clearRect(0, 0, drawingCanvas.getWidth(), drawingCanvas.getHeight());
+        redrawLayers();
+
+        // The old history and shapes refer to the previous document
+        shapeList.reset(documentWidth, documentHeight);
+        renderShapes();
+        undoSteps.clear();
+        redoSteps.clear();
+        resetUndoHistory();
+    }
+
+    /**
+     * Starts journaling the document. A journal left behind means the last session did not exit cleanly,
+     * so the user is first offered to restore its work by replaying that journal.
+     */
+    private void openJournal() {
+        Path file = OperationJournal.defaultFile();
+        if (OperationJournal.hasChanges(file)) {
+            Alert alert = new Alert(AlertType.CONFIRMATION);
+            alert.setTitle("Restore Unsaved Work");
+            alert.setHeaderText(null);
+            alert.setContentText("JavaDraw did not exit cleanly last time. Do you want to restore the unsaved drawing?");
 
-        // Optionally clear the image canvas too
-        imageGC.clearRect(0, 0, imageCanvas.getWidth(), imageCanvas.getHeight());
+            Optional<ButtonType> result = alert.showAndWait();
+            if (result.isPresent() && result.get() == ButtonType.OK) {
+                restoreJournal(file);
+            }
+        }
+        journal = new OperationJournal(file);
+        checkpointJournal(); // Start from the restored document, or an empty one
+    }
+
+    /**
+     * Rebuilds the document by replaying a journal. The layers and shapes are restored;
+     * the undo history starts afresh from the restored document.
+     *
+     * @param file The journal to replay.
+     */
+    private void restoreJournal(Path file) {
+        try {
+            int records = OperationJournal.replay(file, new DocumentOperations() {
+                @Override
+                public void newDocument(int width, int height) {
+                    startDocument(width, height);
+                }
+
+                @Override
+                public void openProject(Path file) {
+                    try {
+                        loadProject(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void clearLayer(int layer) {
+                    layers.getLayer(layer).getPixels().clear();
+                }
+
+                @Override
+                public void region(int layer, int x, int y, int width, int height, int[] pixels) {
+                    layers.getLayer(layer).getPixels().writeRegion(x, y, width, height, pixels, 0, width);
+                }
+
+                @Override
+                public void shapeAdded(ShapeRecord record) {
+                    shapeList.add(record);
+                }
+
+                @Override
+                public void clearShapes() {
+                    shapeList.reset(layers.getWidth(), layers.getHeight());
+                }
+
+                @Override
+                public void shapeUndone() {
+                    shapeList.undo();
+                }
+
+                @Override
+                public void shapeRedone() {
+                    shapeList.redo();
+                }
+            });
+            System.out.println("Restored " + records + " journal records from: " + file);
+        } catch (IOException e) {
+            System.out.println("Error restoring journal: " + e.getMessage());
+        }
+
+        layers.markAllDirty();
+        redrawLayers();
+        renderViewport();
+        renderShapes();
+        resetUndoHistory();
+    }
+
+    /**
+     * Finishes the journal and deletes it when the application exits cleanly; there is nothing to restore.
+     */
+    @Override
+    public void stop() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (project != null) {
+            project.close();
+        }
+    }
+
+    /**
+     * Compacts the journal into a checkpoint of the document, relative to its project file if it has one.
+     */
+    private void checkpointJournal() {
+        journal.checkpoint(layers, shapeList, project);
+    }
+
+    /**
+     * Pans the view by the given amount, clamped to the document edges. At actual size the viewport moves:
+     * pending changes are stored in the document first, and the newly visible part is then drawn from the
+     * tiles that intersect the viewport. Zoomed, only the view moves. Either way the layer view keeps the
+     * pixels still in view and composites just the strips that came into view.
+     *
+     * @param dx The horizontal distance to move, in screen pixels.
+     * @param dy The vertical distance to move, in screen pixels.
+     */
+    private void scrollViewport(double dx, double dy) {
+        if (zoomLevel != 0) {
+            int newX = clampViewOrigin(zoomOriginX + panDistance(dx), document.getWidth(), layerImage.getWidth());
+            int newY = clampViewOrigin(zoomOriginY + panDistance(dy), document.getHeight(), layerImage.getHeight());
+            int shiftX = LayerStack.toDisplay(newX - zoomOriginX, zoomLevel);
+            int shiftY = LayerStack.toDisplay(newY - zoomOriginY, zoomLevel);
+            if (shiftX == 0 && shiftY == 0) {
+                return;
+            }
+            zoomOriginX = newX;
+            zoomOriginY = newY;
+            layers.scrollDisplay(layerImage, zoomOriginX, zoomOriginY, zoomLevel, shiftX, shiftY, 0, layers.size());
+            redrawLayers();
+            renderShapes();
+            return;
+        }
+
+        int maxX = document.getWidth() - (int) drawingCanvas.getWidth();
+        int maxY = document.getHeight() - (int) drawingCanvas.getHeight();
+        int newX = Math.max(0, Math.min(maxX, viewportX + (int) Math.round(dx)));
+        int newY = Math.max(0, Math.min(maxY, viewportY + (int) Math.round(dy)));
+        moveViewport(newX, newY);
+    }
+
+    /**
+     * Moves the viewport at actual size to new document coordinates, storing pending changes in the document first.
+     *
+     * @param newX The document x-coordinate of the viewport's new top-left corner.
+     * @param newY The document y-coordinate of the viewport's new top-left corner.
+     */
+    private void moveViewport(int newX, int newY) {
+        if (newX == viewportX && newY == viewportY) {
+            return;
+        }
 
-        // Create new canvases (if necessary, you can set different sizes or reset states)
-        drawingCanvas = new Canvas(imageWidth, imageHeight);
-        imageCanvas = new Canvas(imageWidth, imageHeight);
+        commitUndoTransaction();
+        saveStateForUndo(); // Flush what is on the canvas into the document before it scrolls away
+
+        int shiftX = newX - viewportX;
+        int shiftY = newY - viewportY;
+        viewportX = newX;
+        viewportY = newY;
+        scrollCanvas(shiftX, shiftY);
+        renderShapes();
+        layers.scrollDisplay(layerImage, viewportX, viewportY, 0, shiftX, shiftY, 0, DRAWING_LAYER);
+        redrawLayers();
+    }
+
+    /**
+     * Zooms the view to a power of two, keeping the document point under an anchor in place.
+     * Leaving actual size stores pending changes in the document first and sets the drawing tools aside;
+     * returning to it moves the viewport to what the zoomed view was showing.
+     *
+     * @param level   The new zoom level; clamped to the supported range.
+     * @param anchorX The x-coordinate on the view that stays over the same document point.
+     * @param anchorY The y-coordinate on the view that stays over the same document point.
+     */
+    private void zoomTo(int level, double anchorX, double anchorY) {
+        level = Math.max(MIN_ZOOM_LEVEL, Math.min(MAX_ZOOM_LEVEL, level));
+        if (level == zoomLevel) {
+            return;
+        }
+        int originX = zoomLevel == 0 ? viewportX : zoomOriginX;
+        int originY = zoomLevel == 0 ? viewportY : zoomOriginY;
+        double anchorDocumentX = originX + Math.scalb(anchorX, -zoomLevel);
+        double anchorDocumentY = originY + Math.scalb(anchorY, -zoomLevel);
+        int newX = (int) Math.round(anchorDocumentX - Math.scalb(anchorX, -level));
+        int newY = (int) Math.round(anchorDocumentY - Math.scalb(anchorY, -level));
+
+        if (zoomLevel == 0) {
+            commitUndoTransaction();
+            saveStateForUndo(); // The layer view shows the drawing layer from the document while zoomed
+        }
+        zoomLevel = level;
+        if (level == 0) {
+            // Nothing was drawn while zoomed, so the canvas only has to follow the viewport
+            int maxX = document.getWidth() - (int) drawingCanvas.getWidth();
+            int maxY = document.getHeight() - (int) drawingCanvas.getHeight();
+            newX = Math.max(0, Math.min(maxX, newX));
+            newY = Math.max(0, Math.min(maxY, newY));
+            if (newX != viewportX || newY != viewportY) {
+                viewportX = newX;
+                viewportY = newY;
+                renderViewport();
+            }
+        } else {
+            zoomOriginX = clampViewOrigin(newX, document.getWidth(), layerImage.getWidth());
+            zoomOriginY = clampViewOrigin(newY, document.getHeight(), layerImage.getHeight());
+        }
+
+        applyDrawingLayerSettings();
+        previewCanvas.getGraphicsContext2D().clearRect(0, 0, previewCanvas.getWidth(), previewCanvas.getHeight());
+        renderShapes();
+        layers.markAllDirty(); // Every pixel of the layer view now shows the document at another scale
+        redrawLayers();
+    }
+
+    /**
+     * Converts a pan distance on the zoomed view to whole document pixels, moving at least one pixel
+     * for any movement so small scrolls still pan when zoomed in.
+     *
+     * @param distance The distance in screen pixels.
+     * @return The distance in document pixels.
+     */
+    private int panDistance(double distance) {
+        if (zoomLevel < 0) {
+            return (int) Math.round(distance) << -zoomLevel;
+        }
+        int pixels = (int) Math.round(Math.scalb(distance, -zoomLevel));
+        return pixels == 0 ? (int) Math.signum(distance) : pixels;
+    }
 
-        // Update the graphics contexts
-        drawingGC = drawingCanvas.getGraphicsContext2D();
-        imageGC = imageCanvas.getGraphicsContext2D();
+    /**
+     * Clamps the document coordinate shown at the zoomed view's edge so the view stays over the document.
+     * Zoomed out, the coordinate is kept at a multiple of the pixels a screen pixel covers,
+     * so panning always moves the view by whole screen pixels.
+     *
+     * @param origin       The requested document coordinate.
+     * @param documentSize The width or height of the document.
+     * @param viewSize     The width or height of the view, in screen pixels.
+     * @return The clamped coordinate.
+     */
+    private int clampViewOrigin(int origin, int documentSize, double viewSize) {
+        int visible = (int) Math.ceil(Math.scalb(viewSize, -zoomLevel));
+        int clamped = Math.max(0, Math.min(documentSize - visible, origin));
+        if (zoomLevel < 0) {
+            clamped &= -(1 << -zoomLevel); // Round down to the pixels one screen pixel covers
+        }
+        return clamped;
+    }
 
-        // Clear the canvas pane and add the new canvases
-        canvasPane.getChildren().clear();
-        canvasPane.getChildren().addAll(imageCanvas, drawingCanvas);
+    /**
+     * Builds the mipmap pyramid of a newly opened image in the background, so zoomed-out views of the
+     * image layer sample reduced copies instead of the full-size pixels. Until it is ready, and once the
+     * image layer changes, zoomed-out views sample the layer itself.
+     *
+     * @param image The image shown in the image layer, at its full size.
+     */
+    private void buildImagePyramid(Image image) {
+        if (pyramidTask != null) {
+            pyramidTask.cancel();
+        }
+        Layer imageLayer = layers.getLayer(IMAGE_LAYER);
+        long version = imageLayer.getPixels().version();
+        int x = (int) Math.round(imageX), y = (int) Math.round(imageY);
+        Task<MipmapPyramid> task = new Task<>() {
+            @Override
+            protected MipmapPyramid call() {
+                return MipmapPyramid.build(image, x, y, -MIN_ZOOM_LEVEL);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (pyramidTask == task) {
+                pyramidTask = null;
+            }
+            imageLayer.setPyramid(task.getValue(), version); // Ignored if the layer has changed since
+            if (zoomLevel < 0 && layers.getLayer(IMAGE_LAYER) == imageLayer) {
+                layers.markAllDirty();
+                redrawLayers();
+            }
+        });
+        task.setOnFailed(e -> System.out.println("Error building image pyramid: " + task.getException().getMessage()));
+        pyramidTask = task;
+        ForkJoinPool.commonPool().execute(task);
+    }
+
+    /**
+     * Draws the part of the document inside the viewport onto the drawing canvas
+     * and moves the undo history's view along with it.
+     */
+    private void renderViewport() {
+        int width = (int) drawingCanvas.getWidth();
+        int height = (int) drawingCanvas.getHeight();
+        document.readRegion(viewportX, viewportY, width, height, undoPixels);
+        showViewport();
+    }
+
+    /**
+     * Follows a viewport move on the drawing canvas. The undo buffer mirrors the canvas, so the pixels still
+     * in view are shifted within it and only the strips that came into view are read from the document.
+     * A move of a whole canvas or more redraws the viewport instead.
+     *
+     * @param shiftX How far the viewport moved right, in document pixels.
+     * @param shiftY How far the viewport moved down, in document pixels.
+     */
+    private void scrollCanvas(int shiftX, int shiftY) {
+        int width = (int) drawingCanvas.getWidth();
+        int height = (int) drawingCanvas.getHeight();
+        if (Math.abs(shiftX) >= width || Math.abs(shiftY) >= height) {
+            renderViewport();
+            return;
+        }
+
+        // Shift the kept rows, walking away from the rows still to be read
+        int keptWidth = width - Math.abs(shiftX), keptHeight = height - Math.abs(shiftY);
+        int fromX = Math.max(shiftX, 0), toX = Math.max(-shiftX, 0);
+        int fromY = Math.max(shiftY, 0), toY = Math.max(-shiftY, 0);
+        for (int i = 0; i < keptHeight; i++) {
+            int row = shiftY < 0 ? keptHeight - 1 - i : i;
+            System.arraycopy(undoPixels, (fromY + row) * width + fromX, undoPixels, (toY + row) * width + toX, keptWidth);
+        }
+
+        // Read the rows that came into view across the whole canvas, then the columns beside the kept rows
+        readIntoCanvasBuffer(0, shiftY > 0 ? keptHeight : 0, width, height - keptHeight);
+        readIntoCanvasBuffer(shiftX > 0 ? keptWidth : 0, toY, width - keptWidth, keptHeight);
+        showViewport();
+    }
+
+    /**
+     * Reads a region of the document inside the viewport into the same place in the undo buffer.
+     *
+     * @param x The canvas x-coordinate of the region.
+     * @param y The canvas y-coordinate of the region.
+     * @param w The width of the region.
+     * @param h The height of the region.
+     */
+    private void readIntoCanvasBuffer(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        int width = (int) drawingCanvas.getWidth();
+        int[] strip = new int[w * h];
+        document.readRegion(viewportX + x, viewportY + y, w, h, strip);
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(strip, row * w, undoPixels, (y + row) * width + x, w);
+        }
+    }
+
+    /**
+     * Draws the undo buffer, which holds the document's pixels inside the viewport, onto the drawing canvas
+     * and makes it the undo history's baseline at the viewport.
+     */
+    private void showViewport() {
+        int width = (int) drawingCanvas.getWidth();
+        int height = (int) drawingCanvas.getHeight();
+        drawingGC.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), undoPixels, 0, width);
+        undoHistory.moveViewport(viewportX, viewportY, undoPixels);
+        canvasDamage.clear(); // The canvas now shows exactly what the document holds
     }
 
 
@@ -1109,7 +3022,14 @@ public class FinalTurnIn extends Application {
                 double startY = e.getY();
 
                 // Draw the text at the specified location
+                beginUndoTransaction();
                 gc.strokeText(text, startX, startY);
+                Text measure = new Text(text);
+                measure.setFont(gc.getFont());
+                Bounds textBounds = measure.getLayoutBounds(); // Relative to the baseline at the text's origin
+                canvasDamage.addStroke(gc.getLineWidth(), startX + textBounds.getMinX(), startY + textBounds.getMinY(),
+                        startX + textBounds.getMaxX(), startY + textBounds.getMaxY());
+                commitUndoTransaction();
             });
         });
     }
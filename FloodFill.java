@@ -0,0 +1,251 @@
+package com.example.finalturnin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FloodFill finds the connected region around a seed pixel, as the paint bucket does.
+ * It works span by span: each step marks a whole horizontal run of matching pixels with one loop, then
+ * scans the rows above and below the run for new runs to fill. Pending runs are kept on a primitive stack.
+ * <p>
+ * The pixels the fill compares against are read a tile at a time, only once a run reaches the tile, so
+ * a fill costs memory for the area it covers rather than for the whole document. The filled pixels are
+ * marked in one bit set per tile, which also tells visited pixels apart, whatever the fill color; the
+ * caller applies the fill from those masks.
+ * </p>
+ * <p>
+ * A pixel belongs to the region if no channel, alpha included, differs from the seed's by more than
+ * the tolerance. The region is 4-connected.
+ * </p>
+ */
+final class FloodFill {
+    /**
+     * Supplies the pixels the fill compares against.
+     */
+    interface TileSource {
+        /**
+         * Reads a tile.
+         *
+         * @param x The document x-coordinate of the tile.
+         * @param y The document y-coordinate of the tile.
+         * @return The tileSize * tileSize ARGB pixels of the tile, row by row, or null if the tile is fully
+         * transparent; pixels beyond the document's edges are never read.
+         */
+        int[] read(int x, int y);
+    }
+
+    /**
+     * Receives the filled pixels of a tile.
+     */
+    interface FilledTile {
+        /**
+         * Visits a tile with at least one filled pixel.
+         *
+         * @param x    The document x-coordinate of the tile.
+         * @param y    The document y-coordinate of the tile.
+         * @param mask One bit per pixel of the tile, row by row: pixel i is filled if bit i % 64 of mask[i / 64] is set.
+         */
+        void visit(int x, int y, long[] mask);
+    }
+
+    /**
+     * Stands for a tile the source reported as fully transparent.
+     */
+    private static final int[] TRANSPARENT = new int[0];
+
+    /**
+     * The size of the document and the edge length of a tile, in pixels.
+     */
+    private final int width, height, tileSize;
+
+    /**
+     * Where tiles are read from.
+     */
+    private final TileSource source;
+
+    /**
+     * The tiles read so far, keyed by {@link #key(int, int)} of their column and row.
+     */
+    private final Map<Long, int[]> tiles = new HashMap<>();
+
+    /**
+     * The filled pixels of each tile read so far, with the same keys.
+     */
+    private final Map<Long, long[]> masks = new HashMap<>();
+
+    /**
+     * The column and row of the tile last looked up, with its pixels and mask; neighbouring pixels mostly share it.
+     */
+    private int cachedCol = -1, cachedRow = -1;
+    private int[] cachedTile;
+    private long[] cachedMask;
+
+    private FloodFill(int width, int height, int tileSize, TileSource source) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.source = source;
+    }
+
+    /**
+     * Fills the region around a seed pixel.
+     *
+     * @param width     The width of the document.
+     * @param height    The height of the document.
+     * @param tileSize  The edge length of the tiles the source supplies.
+     * @param source    Supplies the pixels to compare.
+     * @param seedX     The x-coordinate of the seed.
+     * @param seedY     The y-coordinate of the seed.
+     * @param color     The ARGB fill color.
+     * @param tolerance The largest channel difference from the seed color that is still filled, from 0 to 255.
+     * @param filled    Receives the filled pixels, tile by tile, once the region is complete.
+     * @return false if nothing was filled.
+     */
+    static boolean fill(int width, int height, int tileSize, TileSource source, int seedX, int seedY, int color,
+                        int tolerance, FilledTile filled) {
+        if (seedX < 0 || seedY < 0 || seedX >= width || seedY >= height) {
+            return false;
+        }
+        FloodFill fill = new FloodFill(width, height, tileSize, source);
+        int seed = fill.pixel(seedX, seedY);
+        if (seed == color && tolerance == 0) {
+            return false; // Already filled
+        }
+        fill.run(seedX, seedY, seed, tolerance);
+
+        for (Map.Entry<Long, long[]> entry : fill.masks.entrySet()) {
+            long key = entry.getKey();
+            long[] mask = entry.getValue();
+            for (long bits : mask) {
+                if (bits != 0) {
+                    filled.visit((int) key * tileSize, (int) (key >> 32) * tileSize, mask);
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks every pixel of the region, run by run.
+     */
+    private void run(int seedX, int seedY, int seed, int tolerance) {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = seedX;
+        stack[top++] = seedY;
+
+        while (top > 0) {
+            int y = stack[--top];
+            int x = stack[--top];
+            if (!isOpen(x, y, seed, tolerance)) {
+                continue;
+            }
+
+            // Extend the run to both sides, then mark it
+            int left = x, right = x;
+            while (left > 0 && isOpen(left - 1, y, seed, tolerance)) {
+                left--;
+            }
+            while (right < width - 1 && isOpen(right + 1, y, seed, tolerance)) {
+                right++;
+            }
+            for (int i = left; i <= right; i++) {
+                markFilled(i, y);
+            }
+
+            // Queue the start of every matching run touching this one in the rows above and below
+            for (int ny = y - 1; ny <= y + 1; ny += 2) {
+                if (ny < 0 || ny >= height) {
+                    continue;
+                }
+                boolean inRun = false;
+                for (int nx = left; nx <= right; nx++) {
+                    boolean open = isOpen(nx, ny, seed, tolerance);
+                    if (open && !inRun) {
+                        if (top + 2 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[top++] = nx;
+                        stack[top++] = ny;
+                    }
+                    inRun = open;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the pixel is not filled yet and matches the seed.
+     */
+    private boolean isOpen(int x, int y, int seed, int tolerance) {
+        locate(x, y);
+        int index = (y - cachedRow * tileSize) * tileSize + (x - cachedCol * tileSize);
+        if ((cachedMask[index >>> 6] & (1L << index)) != 0) {
+            return false;
+        }
+        return matches(cachedTile == TRANSPARENT ? 0 : cachedTile[index], seed, tolerance);
+    }
+
+    /**
+     * @return The pixel at a position.
+     */
+    private int pixel(int x, int y) {
+        locate(x, y);
+        return cachedTile == TRANSPARENT ? 0 : cachedTile[(y - cachedRow * tileSize) * tileSize + (x - cachedCol * tileSize)];
+    }
+
+    /**
+     * Marks a pixel as filled.
+     */
+    private void markFilled(int x, int y) {
+        locate(x, y);
+        int index = (y - cachedRow * tileSize) * tileSize + (x - cachedCol * tileSize);
+        cachedMask[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * Makes the tile holding a position the cached one, reading it from the source the first time.
+     */
+    private void locate(int x, int y) {
+        int col = x / tileSize, row = y / tileSize;
+        if (col == cachedCol && row == cachedRow) {
+            return;
+        }
+        long key = key(col, row);
+        int[] tile = tiles.get(key);
+        if (tile == null) {
+            tile = source.read(col * tileSize, row * tileSize);
+            if (tile == null) {
+                tile = TRANSPARENT;
+            }
+            tiles.put(key, tile);
+            masks.put(key, new long[(tileSize * tileSize + 63) >>> 6]);
+        }
+        cachedCol = col;
+        cachedRow = row;
+        cachedTile = tile;
+        cachedMask = masks.get(key);
+    }
+
+    /**
+     * @return true if no channel of the pixel differs from the seed's by more than the tolerance.
+     */
+    private static boolean matches(int argb, int seed, int tolerance) {
+        if (argb == seed) {
+            return true;
+        }
+        return Math.abs((argb >>> 24) - (seed >>> 24)) <= tolerance
+                && Math.abs(((argb >> 16) & 0xff) - ((seed >> 16) & 0xff)) <= tolerance
+                && Math.abs(((argb >> 8) & 0xff) - ((seed >> 8) & 0xff)) <= tolerance
+                && Math.abs((argb & 0xff) - (seed & 0xff)) <= tolerance;
+    }
+
+    /**
+     * Packs a tile column and row into a map key, as {@link TiledSurface} does.
+     */
+    private static long key(int col, int row) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+}
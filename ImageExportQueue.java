@@ -0,0 +1,228 @@
+package com.example.finalturnin;
+
+import javafx.concurrent.Task;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ImageExportQueue flattens and encodes document snapshots on a background thread.
+ * Only the snapshot is taken on the JavaFX application thread; compositing and PNG/JPG
+ * encoding run on a single worker, so saves never run in parallel. Saves queue up behind the one
+ * in flight, and a save that has not started yet is replaced when a newer save targets the same file.
+ * <p>
+ * PNG files are written by {@link PngEncoder}, which pulls the rows band by band and compresses
+ * the bands on all cores, so no full-size copy of the image is made; only JPEG files go through
+ * a full-size BufferedImage and ImageIO.
+ * </p>
+ */
+final class ImageExportQueue {
+    /**
+     * Share of the progress bar used by pixel conversion; encoding takes the rest.
+     */
+    private static final double CONVERSION_SHARE = 0.2;
+
+    /**
+     * Number of rows read from the source per call when filling a JPEG image.
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * The worker that runs one export at a time, in submission order.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-export");
+        thread.setDaemon(true); // Do not keep the JVM alive after the stage closes
+        return thread;
+    });
+
+    /**
+     * Exports that are queued but not started yet, by target file.
+     */
+    private final Map<File, ExportTask> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Queues an image for export. If an export to the same file is still waiting in the queue,
+     * it is cancelled in favour of this newer one.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param source Supplies the opaque rows of the image, in order, on the export thread.
+     * @param file   The file to write.
+     * @param format The ImageIO format name, "png" or "jpg".
+     * @return The task, which reports progress and can be cancelled.
+     */
+    Task<File> submit(int width, int height, PngEncoder.RowSource source, File file, String format) {
+        ExportTask task = new ExportTask(width, height, source, file, format);
+        ExportTask replaced = pending.put(file, task);
+        if (replaced != null) {
+            replaced.cancel();
+        }
+        executor.submit(task);
+        return task;
+    }
+
+    /**
+     * A single export: read the rows, encode them to a temporary file, then move it into place.
+     */
+    private final class ExportTask extends Task<File> {
+        private final int width, height;
+        private final PngEncoder.RowSource source;
+        private final File file;
+        private final String format;
+
+        private ExportTask(int width, int height, PngEncoder.RowSource source, File file, String format) {
+            this.width = width;
+            this.height = height;
+            this.source = source;
+            this.file = file;
+            this.format = format;
+            updateTitle("Saving " + file.getName());
+        }
+
+        @Override
+        protected File call() throws IOException {
+            pending.remove(file, this); // Started: newer saves to this file now queue behind it
+            if (isCancelled()) {
+                return null;
+            }
+
+            Metrics.ImageFileEvent measured = Metrics.startImageFile("save", file.getName());
+            try {
+                return convertAndEncode();
+            } finally {
+                Metrics.finishImageFile(measured, width, height);
+            }
+        }
+
+        /**
+         * Reads the rows and encodes them to the file, through a partial file that replaces it once complete.
+         *
+         * @return The saved file, or null if the export was cancelled.
+         */
+        private File convertAndEncode() throws IOException {
+            File partial = new File(file.getPath() + ".part");
+            try {
+                boolean completed = format.equals("png")
+                        ? encodePng(partial)
+                        : encodeJpeg(partial);
+                if (!completed) {
+                    Files.deleteIfExists(partial.toPath());
+                    return null;
+                }
+                Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(partial.toPath());
+                throw e;
+            }
+
+            updateProgress(1, 1);
+            updateMessage("Saved");
+            return file;
+        }
+
+        /**
+         * Streams the rows into a PNG file, reading and compressing them one band at a time.
+         *
+         * @return false if the export was cancelled while encoding.
+         */
+        private boolean encodePng(File target) throws IOException {
+            updateMessage("Encoding");
+            return PngEncoder.write(width, height, source, target.toPath(), rows -> {
+                updateProgress(rows, height);
+                return !isCancelled();
+            });
+        }
+
+        /**
+         * Reads the rows into an opaque BufferedImage and encodes it as a JPEG file.
+         *
+         * @return false if the export was cancelled.
+         */
+        private boolean encodeJpeg(File target) throws IOException {
+            updateMessage("Converting");
+            // TYPE_INT_RGB keeps its pixels in one int[] laid out row by row and ignores the alpha byte,
+            // so the opaque rows are read straight into it
+            BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] raster = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+            for (int y = 0; y < height; y += BAND_HEIGHT) {
+                if (isCancelled()) {
+                    return false;
+                }
+                source.read(y, Math.min(BAND_HEIGHT, height - y), raster, y * width);
+                updateProgress(CONVERSION_SHARE * Math.min(y + BAND_HEIGHT, height) / height, 1);
+            }
+
+            updateMessage("Encoding");
+            return encode(bufferedImage, target);
+        }
+
+        /**
+         * Encodes the image with an ImageWriter so progress can be reported and the write aborted.
+         *
+         * @return false if the export was cancelled while encoding.
+         */
+        private boolean encode(BufferedImage bufferedImage, File target) throws IOException {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+            if (!writers.hasNext()) {
+                throw new IOException("No image writer for format: " + format);
+            }
+            ImageWriter writer = writers.next();
+            writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+                @Override
+                public void imageProgress(ImageWriter source, float percentageDone) {
+                    updateProgress(CONVERSION_SHARE + (1 - CONVERSION_SHARE) * percentageDone / 100, 1);
+                    if (isCancelled()) {
+                        source.abort();
+                    }
+                }
+
+                @Override
+                public void imageStarted(ImageWriter source, int imageIndex) {
+                }
+
+                @Override
+                public void imageComplete(ImageWriter source) {
+                }
+
+                @Override
+                public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+                }
+
+                @Override
+                public void thumbnailProgress(ImageWriter source, float percentageDone) {
+                }
+
+                @Override
+                public void thumbnailComplete(ImageWriter source) {
+                }
+
+                @Override
+                public void writeAborted(ImageWriter source) {
+                }
+            });
+
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(target)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(bufferedImage, null, null), null);
+            } finally {
+                writer.dispose();
+            }
+            return !isCancelled();
+        }
+    }
+}
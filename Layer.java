@@ -0,0 +1,249 @@
+package com.example.finalturnin;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+/**
+ * Layer is one raster layer of a document: its ARGB pixels, kept in a {@link TiledSurface},
+ * together with how it is combined with the layers beneath it (opacity, visibility and blend mode).
+ * The pixels are plain int arrays, so the layer can be read and written without a scene graph.
+ */
+final class Layer {
+    /**
+     * How the colors of a layer are combined with the colors beneath it.
+     * Each mode maps to the JavaFX blend mode that gives the same result on screen.
+     */
+    enum BlendMode {
+        NORMAL(javafx.scene.effect.BlendMode.SRC_OVER),
+        MULTIPLY(javafx.scene.effect.BlendMode.MULTIPLY),
+        SCREEN(javafx.scene.effect.BlendMode.SCREEN),
+        ADD(javafx.scene.effect.BlendMode.ADD),
+        DARKEN(javafx.scene.effect.BlendMode.DARKEN),
+        LIGHTEN(javafx.scene.effect.BlendMode.LIGHTEN);
+
+        private final javafx.scene.effect.BlendMode fxMode;
+
+        BlendMode(javafx.scene.effect.BlendMode fxMode) {
+            this.fxMode = fxMode;
+        }
+
+        /**
+         * @return The JavaFX blend mode for showing a layer in this mode as a node.
+         */
+        javafx.scene.effect.BlendMode fxMode() {
+            return fxMode;
+        }
+
+        /**
+         * Blends one color channel.
+         *
+         * @param backdrop The channel value beneath the layer, from 0 to 255.
+         * @param source   The channel value of the layer, from 0 to 255.
+         * @return The blended channel value, from 0 to 255.
+         */
+        int blend(int backdrop, int source) {
+            switch (this) {
+                case MULTIPLY:
+                    return backdrop * source / 255;
+                case SCREEN:
+                    return backdrop + source - backdrop * source / 255;
+                case ADD:
+                    return Math.min(255, backdrop + source);
+                case DARKEN:
+                    return Math.min(backdrop, source);
+                case LIGHTEN:
+                    return Math.max(backdrop, source);
+                default:
+                    return source;
+            }
+        }
+    }
+
+    /**
+     * Number of rows read from an image per bulk transfer.
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * The name shown for the layer.
+     */
+    private final String name;
+
+    /**
+     * The pixels of the layer, in document coordinates.
+     */
+    private final TiledSurface pixels;
+
+    /**
+     * The opacity of the layer, from 0 (invisible) to 1 (opaque).
+     */
+    private double opacity = 1;
+
+    /**
+     * Whether the layer is shown.
+     */
+    private boolean visible = true;
+
+    /**
+     * How the layer is combined with the layers beneath it.
+     */
+    private BlendMode blendMode = BlendMode.NORMAL;
+
+    /**
+     * Reduced copies of the layer's pixels for zoomed-out views, or null if there are none.
+     */
+    private MipmapPyramid pyramid;
+
+    /**
+     * The version of the pixels the pyramid was made from.
+     */
+    private long pyramidVersion;
+
+    /**
+     * Creates a visible, opaque layer.
+     *
+     * @param name   The name shown for the layer.
+     * @param pixels The pixels of the layer.
+     */
+    Layer(String name, TiledSurface pixels) {
+        this.name = name;
+        this.pixels = pixels;
+    }
+
+    /**
+     * @return The name shown for the layer.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return The pixels of the layer, in document coordinates.
+     */
+    TiledSurface getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return The opacity of the layer, from 0 to 1.
+     */
+    double getOpacity() {
+        return opacity;
+    }
+
+    /**
+     * @param opacity The new opacity of the layer; clamped to the range 0 to 1.
+     */
+    void setOpacity(double opacity) {
+        this.opacity = Math.max(0, Math.min(1, opacity));
+    }
+
+    /**
+     * @return true if the layer is shown.
+     */
+    boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * @param visible Whether the layer is shown.
+     */
+    void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    /**
+     * @return How the layer is combined with the layers beneath it.
+     */
+    BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    /**
+     * @param blendMode How the layer is combined with the layers beneath it.
+     */
+    void setBlendMode(BlendMode blendMode) {
+        this.blendMode = blendMode;
+    }
+
+    /**
+     * Takes a snapshot of the layer: its settings and a copy-on-write snapshot of its pixels.
+     *
+     * @return An independent copy of the layer that may be used on another thread.
+     */
+    Layer snapshot() {
+        Layer copy = new Layer(name, pixels.snapshot());
+        copy.opacity = opacity;
+        copy.visible = visible;
+        copy.blendMode = blendMode;
+        return copy;
+    }
+
+    /**
+     * @return Reduced copies of the layer's pixels, or null if there are none or the pixels changed since they were made.
+     */
+    MipmapPyramid getPyramid() {
+        if (pyramid != null && pyramidVersion != pixels.version()) {
+            pyramid = null; // Stale: release its memory
+        }
+        return pyramid;
+    }
+
+    /**
+     * Sets reduced copies of the layer's pixels. They are dropped as soon as the pixels change.
+     *
+     * @param pyramid The pyramid of the pixels.
+     * @param version The version of the pixels the pyramid was made from.
+     */
+    void setPyramid(MipmapPyramid pyramid, long version) {
+        this.pyramid = pyramid;
+        this.pyramidVersion = version;
+    }
+
+    /**
+     * Writes an image into the layer, scaled to the given size with nearest-neighbour sampling.
+     * The image is read in bands of rows, so no full-size copy of it is held at once.
+     * Parts outside the document are ignored.
+     *
+     * @param image  The image to write.
+     * @param x      The document x-coordinate of the image's top-left corner.
+     * @param y      The document y-coordinate of the image's top-left corner.
+     * @param width  The width to write the image at.
+     * @param height The height to write the image at.
+     */
+    void drawImage(Image image, int x, int y, int width, int height) {
+        int sourceWidth = (int) image.getWidth();
+        int sourceHeight = (int) image.getHeight();
+        if (width <= 0 || height <= 0 || sourceWidth <= 0 || sourceHeight <= 0) {
+            return;
+        }
+        PixelReader reader = image.getPixelReader();
+
+        if (sourceWidth == width && sourceHeight == height) {
+            int[] band = new int[width * Math.min(BAND_HEIGHT, height)];
+            for (int row = 0; row < height; row += BAND_HEIGHT) {
+                int rows = Math.min(BAND_HEIGHT, height - row);
+                reader.getPixels(0, row, width, rows, PixelFormat.getIntArgbInstance(), band, 0, width);
+                pixels.writeRegion(x, y + row, width, rows, band, 0, width);
+            }
+            return;
+        }
+
+        // Scaled: read each source row once and stretch it into every target row that samples it
+        int[] sourceRow = new int[sourceWidth];
+        int[] targetRow = new int[width];
+        int loadedRow = -1;
+        for (int row = 0; row < height; row++) {
+            int sourceY = (int) ((long) row * sourceHeight / height);
+            if (sourceY != loadedRow) {
+                reader.getPixels(0, sourceY, sourceWidth, 1, PixelFormat.getIntArgbInstance(), sourceRow, 0, sourceWidth);
+                for (int col = 0; col < width; col++) {
+                    targetRow[col] = sourceRow[(int) ((long) col * sourceWidth / width)];
+                }
+                loadedRow = sourceY;
+            }
+            pixels.writeRegion(x, y + row, width, 1, targetRow, 0, width);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.finalturnin;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LayerStack is the ordered set of raster layers that make up a document, bottom layer first.
+ * It composites the layers on int arrays: each visible layer is blended over the ones beneath it
+ * with its own opacity and blend mode. Changes are reported as dirty rectangles, and only the
+ * dirty part of the viewport is composited again when the display image is brought up to date.
+ * <p>
+ * The display can show the document zoomed by a power of two. Zoomed views sample the layers
+ * pixel by pixel, using a layer's mipmap pyramid when zoomed out, so a frame costs the same
+ * whatever the size of the document. When the view pans, the pixels still visible are moved and
+ * only the strips that came into view are composited.
+ * </p>
+ */
+final class LayerStack {
+    /**
+     * The width and height of the document, in pixels.
+     */
+    private final int width, height;
+
+    /**
+     * The layers, bottom first.
+     */
+    private final List<Layer> layers = new ArrayList<>();
+
+    /**
+     * The document region changed since the display image was last updated.
+     */
+    private final DamageRegion dirty = new DamageRegion();
+
+    /**
+     * Reusable buffer receiving the pixels of one layer while compositing.
+     */
+    private int[] layerBuffer = new int[0];
+
+    /**
+     * Reusable buffer receiving the composited pixels of a dirty region.
+     */
+    private int[] compositeBuffer = new int[0];
+
+    /**
+     * Reusable buffer holding the pixels kept when the display pans.
+     */
+    private int[] scrollBuffer = new int[0];
+
+    /**
+     * Creates an empty stack for a document of the given size.
+     *
+     * @param width  The width of the document.
+     * @param height The height of the document.
+     */
+    LayerStack(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return The width of the document.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the document.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Adds a new, empty layer on top of the others.
+     *
+     * @param name     The name shown for the layer.
+     * @param tileSize The edge length of the layer's tiles, in pixels.
+     * @return The new layer.
+     */
+    Layer addLayer(String name, int tileSize) {
+        Layer layer = new Layer(name, new TiledSurface(width, height, tileSize));
+        layers.add(layer);
+        markAllDirty();
+        return layer;
+    }
+
+    /**
+     * @param index The position of a layer, 0 being the bottom.
+     * @return The layer.
+     */
+    Layer getLayer(int index) {
+        return layers.get(index);
+    }
+
+    /**
+     * @return The number of layers.
+     */
+    int size() {
+        return layers.size();
+    }
+
+    /**
+     * Takes a snapshot of every layer, so the document can be composited on another thread while it is edited.
+     *
+     * @return An independent copy of the stack.
+     */
+    LayerStack snapshot() {
+        LayerStack copy = new LayerStack(width, height);
+        for (Layer layer : layers) {
+            copy.layers.add(layer.snapshot());
+        }
+        return copy;
+    }
+
+    /**
+     * Records that a region of the document changed and has to be composited again.
+     *
+     * @param x The document x-coordinate of the region.
+     * @param y The document y-coordinate of the region.
+     * @param w The width of the region.
+     * @param h The height of the region.
+     */
+    void markDirty(int x, int y, int w, int h) {
+        dirty.add(x, y, w, h);
+    }
+
+    /**
+     * Records that the whole document has to be composited again, for example after a layer's
+     * opacity, visibility or blend mode changed.
+     */
+    void markAllDirty() {
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Composites the dirty part of a viewport into a display image and clears the dirty region.
+     * The layers from {@code fromLayer} (inclusive) to {@code toLayer} (exclusive) are blended over
+     * a transparent background; layers outside that range are shown some other way.
+     *
+     * @param display   The image showing the viewport; its size is the size of the viewport.
+     * @param originX   The document x-coordinate shown at the display's left edge.
+     * @param originY   The document y-coordinate shown at the display's top edge.
+     * @param zoomLevel The scale of the display as a power of two; 0 shows the document at actual size.
+     * @param fromLayer The bottom layer to composite.
+     * @param toLayer   The layer above the top layer to composite.
+     */
+    void updateDisplay(WritableImage display, int originX, int originY, int zoomLevel, int fromLayer, int toLayer) {
+        if (dirty.isEmpty()) {
+            return; // Nothing changed
+        }
+        int x0 = Math.max(toDisplay(dirty.minX() - originX, zoomLevel), 0);
+        int y0 = Math.max(toDisplay(dirty.minY() - originY, zoomLevel), 0);
+        int x1 = Math.min(-toDisplay(originX - dirty.maxX(), zoomLevel), (int) display.getWidth()); // Rounded up
+        int y1 = Math.min(-toDisplay(originY - dirty.maxY(), zoomLevel), (int) display.getHeight());
+        dirty.clear(); // Everything outside the viewport is drawn again when it pans into view
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        drawDisplay(display, originX, originY, zoomLevel, x0, y0, x1 - x0, y1 - y0, fromLayer, toLayer);
+    }
+
+    /**
+     * Pans a display image: the pixels that stay in view are moved, and the strips that came into view
+     * are composited. Dirty regions are left for {@link #updateDisplay}.
+     *
+     * @param display   The image showing the viewport.
+     * @param originX   The document x-coordinate now shown at the display's left edge.
+     * @param originY   The document y-coordinate now shown at the display's top edge.
+     * @param zoomLevel The scale of the display as a power of two.
+     * @param dx        How far the view moved right, in display pixels.
+     * @param dy        How far the view moved down, in display pixels.
+     * @param fromLayer The bottom layer to composite.
+     * @param toLayer   The layer above the top layer to composite.
+     */
+    void scrollDisplay(WritableImage display, int originX, int originY, int zoomLevel, int dx, int dy,
+                       int fromLayer, int toLayer) {
+        int w = (int) display.getWidth(), h = (int) display.getHeight();
+        int keptWidth = w - Math.abs(dx), keptHeight = h - Math.abs(dy);
+        if (keptWidth <= 0 || keptHeight <= 0) {
+            drawDisplay(display, originX, originY, zoomLevel, 0, 0, w, h, fromLayer, toLayer);
+            return;
+        }
+
+        WritablePixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+        scrollBuffer = ensureCapacity(scrollBuffer, keptWidth * keptHeight);
+        display.getPixelReader().getPixels(Math.max(dx, 0), Math.max(dy, 0), keptWidth, keptHeight, format, scrollBuffer, 0, keptWidth);
+        display.getPixelWriter().setPixels(Math.max(-dx, 0), Math.max(-dy, 0), keptWidth, keptHeight, format, scrollBuffer, 0, keptWidth);
+
+        // The columns that came into view, full height, then the rows that came into view beside them
+        if (dx != 0) {
+            drawDisplay(display, originX, originY, zoomLevel, dx > 0 ? keptWidth : 0, 0, Math.abs(dx), h, fromLayer, toLayer);
+        }
+        if (dy != 0) {
+            drawDisplay(display, originX, originY, zoomLevel, Math.max(-dx, 0), dy > 0 ? keptHeight : 0,
+                    keptWidth, Math.abs(dy), fromLayer, toLayer);
+        }
+    }
+
+    /**
+     * Composites a rectangle of a display image from the layers.
+     *
+     * @param display   The image showing the viewport.
+     * @param originX   The document x-coordinate shown at the display's left edge.
+     * @param originY   The document y-coordinate shown at the display's top edge.
+     * @param zoomLevel The scale of the display as a power of two.
+     * @param x         The display x-coordinate of the rectangle.
+     * @param y         The display y-coordinate of the rectangle.
+     * @param w         The width of the rectangle.
+     * @param h         The height of the rectangle.
+     * @param fromLayer The bottom layer to composite.
+     * @param toLayer   The layer above the top layer to composite.
+     */
+    private void drawDisplay(WritableImage display, int originX, int originY, int zoomLevel, int x, int y, int w, int h,
+                             int fromLayer, int toLayer) {
+        compositeBuffer = ensureCapacity(compositeBuffer, w * h);
+        Arrays.fill(compositeBuffer, 0, w * h, 0);
+        if (zoomLevel == 0) {
+            composite(originX + x, originY + y, w, h, compositeBuffer, fromLayer, toLayer);
+        } else {
+            compositeZoomed(originX, originY, zoomLevel, x, y, w, h, compositeBuffer, fromLayer, toLayer);
+        }
+        display.getPixelWriter().setPixels(x, y, w, h, PixelFormat.getIntArgbInstance(), compositeBuffer, 0, w);
+    }
+
+    /**
+     * Blends a range of layers, sampled at a zoom level, over the pixels already in a buffer.
+     * Zoomed out, a layer's mipmap pyramid is read at the level closest to the display's resolution if it has one.
+     */
+    private void compositeZoomed(int originX, int originY, int zoomLevel, int x, int y, int w, int h, int[] target,
+                                 int fromLayer, int toLayer) {
+        // The document pixel under each display column and row; -1 beyond the document's edges
+        int[] xs = new int[w];
+        int[] ys = new int[h];
+        for (int i = 0; i < w; i++) {
+            int documentX = originX + toDocument(x + i, zoomLevel);
+            xs[i] = documentX < width ? documentX : -1;
+        }
+        for (int j = 0; j < h; j++) {
+            int documentY = originY + toDocument(y + j, zoomLevel);
+            ys[j] = documentY < height ? documentY : -1;
+        }
+
+        layerBuffer = ensureCapacity(layerBuffer, w * h);
+        for (int i = fromLayer; i < toLayer; i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible() || layer.getOpacity() == 0) {
+                continue;
+            }
+            MipmapPyramid pyramid = zoomLevel < 0 ? layer.getPyramid() : null;
+            if (pyramid != null && pyramid.depth() > 0) {
+                pyramid.sample(Math.min(-zoomLevel, pyramid.depth()), xs, ys, w, h, layerBuffer);
+            } else {
+                layer.getPixels().readSampled(xs, ys, w, h, layerBuffer);
+            }
+            blend(target, layerBuffer, w * h, layer.getOpacity(), layer.getBlendMode());
+        }
+    }
+
+    /**
+     * Converts a distance on the display to a distance in the document, rounding down.
+     *
+     * @param distance  The distance in display pixels.
+     * @param zoomLevel The scale of the display as a power of two.
+     * @return The distance in document pixels.
+     */
+    static int toDocument(int distance, int zoomLevel) {
+        return zoomLevel >= 0 ? distance >> zoomLevel : distance << -zoomLevel;
+    }
+
+    /**
+     * Converts a distance in the document to a distance on the display, rounding down.
+     *
+     * @param distance  The distance in document pixels.
+     * @param zoomLevel The scale of the display as a power of two.
+     * @return The distance in display pixels.
+     */
+    static int toDisplay(int distance, int zoomLevel) {
+        return zoomLevel >= 0 ? distance << zoomLevel : distance >> -zoomLevel;
+    }
+
+    /**
+     * Blends a range of layers over the pixels already in a buffer.
+     *
+     * @param x         The document x-coordinate of the region.
+     * @param y         The document y-coordinate of the region.
+     * @param w         The width of the region.
+     * @param h         The height of the region.
+     * @param target    The ARGB pixels beneath the layers, row by row with a stride of w; receives the result.
+     * @param fromLayer The bottom layer to blend.
+     * @param toLayer   The layer above the top layer to blend.
+     */
+    void composite(int x, int y, int w, int h, int[] target, int fromLayer, int toLayer) {
+        layerBuffer = ensureCapacity(layerBuffer, w * h);
+        for (int i = fromLayer; i < toLayer; i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible() || layer.getOpacity() == 0) {
+                continue;
+            }
+            layer.getPixels().readRegion(x, y, w, h, layerBuffer);
+            blend(target, layerBuffer, w * h, layer.getOpacity(), layer.getBlendMode());
+        }
+    }
+
+    /**
+     * Blends ARGB pixels over the pixels beneath them.
+     * Colors are not premultiplied; the blend mode is applied where the backdrop is opaque
+     * and fades to plain source-over where it is transparent.
+     *
+     * @param backdrop The pixels beneath; receives the result.
+     * @param source   The pixels to blend over them.
+     * @param count    The number of pixels.
+     * @param opacity  The opacity applied to the source, from 0 to 1.
+     * @param mode     How the source colors are combined with the backdrop colors.
+     */
+    static void blend(int[] backdrop, int[] source, int count, double opacity, Layer.BlendMode mode) {
+        int layerAlpha = (int) Math.round(opacity * 255);
+        for (int i = 0; i < count; i++) {
+            int s = source[i];
+            int as = (s >>> 24) * layerAlpha / 255;
+            if (as == 0) {
+                continue; // Nothing to blend
+            }
+            int b = backdrop[i];
+            int ab = b >>> 24;
+            if (as == 255 && (ab == 0 || mode == Layer.BlendMode.NORMAL)) {
+                backdrop[i] = s | 0xff000000; // Opaque source simply replaces the backdrop
+                continue;
+            }
+
+            // Result alpha, and the weights of the source and the backdrop in the result color (all scaled by 255)
+            int ao = as + ab * (255 - as) / 255;
+            int weightBackdrop = ab * (255 - as) / 255;
+            int result = ao << 24;
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                int cs = (s >> shift) & 0xff;
+                int cb = (b >> shift) & 0xff;
+                int mixed = ((255 - ab) * cs + ab * mode.blend(cb, cs)) / 255;
+                int c = (as * mixed + weightBackdrop * cb) / ao;
+                result |= Math.min(255, c) << shift;
+            }
+            backdrop[i] = result;
+        }
+    }
+
+    /**
+     * Returns the given buffer if it holds at least the given number of pixels, or a larger one.
+     */
+    private static int[] ensureCapacity(int[] buffer, int size) {
+        return buffer.length >= size ? buffer : new int[size];
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.finalturnin;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics instruments the interactive paths of the application: tool handlers, canvas snapshots,
+ * undo and redo, image loads and saves. Each measured operation is emitted as a JDK Flight Recorder
+ * event with its duration and the bytes it allocated, and is counted here for the metrics overlay.
+ * <p>
+ * The events are recorded when the application is started with a flight recording, for example
+ * {@code -XX:StartFlightRecording=filename=javadraw.jfr}, and appear under the JavaDraw category.
+ * </p>
+ */
+final class Metrics {
+    /**
+     * The number of recent tool handler latencies kept for the percentiles.
+     */
+    private static final int LATENCY_WINDOW = 512;
+
+    /**
+     * Base of the events: the bytes the operation allocated on its thread.
+     * Call {@link #start()} before the operation and {@link #finish()} after it.
+     */
+    abstract static class MeasuredEvent extends Event {
+        @Label("Allocated")
+        @Description("Bytes allocated on the thread during the operation")
+        @DataAmount
+        long allocated;
+
+        private transient long startNanos;
+        private transient long startAllocated;
+
+        /**
+         * Starts timing the operation.
+         */
+        void start() {
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+            begin();
+        }
+
+        /**
+         * Stops timing the operation and commits the event.
+         *
+         * @return The duration of the operation, in nanoseconds.
+         */
+        long finish() {
+            end();
+            long nanos = System.nanoTime() - startNanos;
+            long now = allocatedBytes();
+            allocated = startAllocated < 0 || now < 0 ? 0 : now - startAllocated;
+            commit();
+            return nanos;
+        }
+    }
+
+    /**
+     * One call of a tool's mouse handler on the drawing canvas.
+     */
+    @Name("com.example.finalturnin.ToolHandler")
+    @Label("Tool Handler")
+    @Category("JavaDraw")
+    static final class ToolHandlerEvent extends MeasuredEvent {
+        @Label("Tool")
+        String tool;
+
+        @Label("Event")
+        String event;
+
+        @Label("Stroke Segments")
+        @Description("The pieces of the pencil stroke in progress once the handler ran; 0 for other tools")
+        int strokeSegments;
+
+        @Label("Undo Steps")
+        int undoSteps;
+
+        @Label("Undo Memory")
+        @DataAmount
+        long undoMemory;
+    }
+
+    /**
+     * One snapshot of a canvas into an image.
+     */
+    @Name("com.example.finalturnin.Snapshot")
+    @Label("Canvas Snapshot")
+    @Category("JavaDraw")
+    static final class SnapshotEvent extends MeasuredEvent {
+        @Label("Purpose")
+        String purpose;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    /**
+     * One undo or redo.
+     */
+    @Name("com.example.finalturnin.Undo")
+    @Label("Undo")
+    @Category("JavaDraw")
+    static final class UndoEvent extends MeasuredEvent {
+        @Label("Action")
+        String action;
+
+        @Label("Undo Steps")
+        int undoSteps;
+
+        @Label("Undo Memory")
+        @DataAmount
+        long undoMemory;
+    }
+
+    /**
+     * One image load or save, measured on the thread that decodes or encodes it.
+     */
+    @Name("com.example.finalturnin.ImageFile")
+    @Label("Image File")
+    @Category("JavaDraw")
+    static final class ImageFileEvent extends MeasuredEvent {
+        @Label("Action")
+        String action;
+
+        @Label("File")
+        String file;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    /**
+     * Thread bean for per-thread allocation counters, or null if the JVM does not provide them.
+     */
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    /**
+     * Counts of measured operations, for the overlay.
+     */
+    private static final AtomicLong toolHandlers = new AtomicLong(), snapshots = new AtomicLong(),
+            undos = new AtomicLong(), loads = new AtomicLong(), saves = new AtomicLong();
+
+    /**
+     * The most recent tool handler latencies, in nanoseconds, as a ring buffer.
+     * Only written on the JavaFX application thread.
+     */
+    private static final long[] latencies = new long[LATENCY_WINDOW];
+
+    /**
+     * The number of latencies recorded so far.
+     */
+    private static long latencyCount;
+
+    /**
+     * The duration of the last snapshot, in nanoseconds.
+     */
+    private static volatile long lastSnapshotNanos;
+
+    private Metrics() {
+    }
+
+    /**
+     * Starts measuring a tool handler call.
+     *
+     * @param tool  The active tool.
+     * @param event The mouse event type.
+     * @return The event to finish with {@link #finishToolHandler(ToolHandlerEvent, int, int, long)}.
+     */
+    static ToolHandlerEvent startToolHandler(String tool, String event) {
+        ToolHandlerEvent measured = new ToolHandlerEvent();
+        measured.tool = tool;
+        measured.event = event;
+        measured.start();
+        return measured;
+    }
+
+    /**
+     * Finishes measuring a tool handler call and records its latency.
+     *
+     * @param measured       The event returned by {@link #startToolHandler(String, String)}.
+     * @param strokeSegments The number of pieces of the pencil stroke in progress after the call, or 0.
+     * @param undoSteps      The number of undo steps after the call.
+     * @param undoMemory     The bytes held by the undo history after the call.
+     */
+    static void finishToolHandler(ToolHandlerEvent measured, int strokeSegments, int undoSteps, long undoMemory) {
+        measured.strokeSegments = strokeSegments;
+        measured.undoSteps = undoSteps;
+        measured.undoMemory = undoMemory;
+        long nanos = measured.finish();
+        latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+        toolHandlers.incrementAndGet();
+    }
+
+    /**
+     * Starts measuring a canvas snapshot.
+     *
+     * @param purpose What the snapshot is for.
+     * @param width   The width of the snapshot.
+     * @param height  The height of the snapshot.
+     * @return The event to finish with {@link #finishSnapshot(SnapshotEvent)}.
+     */
+    static SnapshotEvent startSnapshot(String purpose, double width, double height) {
+        SnapshotEvent measured = new SnapshotEvent();
+        measured.purpose = purpose;
+        measured.width = (int) width;
+        measured.height = (int) height;
+        measured.start();
+        return measured;
+    }
+
+    /**
+     * Finishes measuring a canvas snapshot.
+     *
+     * @param measured The event returned by {@link #startSnapshot(String, double, double)}.
+     */
+    static void finishSnapshot(SnapshotEvent measured) {
+        lastSnapshotNanos = measured.finish();
+        snapshots.incrementAndGet();
+    }
+
+    /**
+     * Starts measuring an undo or redo.
+     *
+     * @param action "undo" or "redo".
+     * @return The event to finish with {@link #finishUndo(UndoEvent, int, long)}.
+     */
+    static UndoEvent startUndo(String action) {
+        UndoEvent measured = new UndoEvent();
+        measured.action = action;
+        measured.start();
+        return measured;
+    }
+
+    /**
+     * Finishes measuring an undo or redo.
+     *
+     * @param measured   The event returned by {@link #startUndo(String)}.
+     * @param undoSteps  The number of undo steps afterwards.
+     * @param undoMemory The bytes held by the undo history afterwards.
+     */
+    static void finishUndo(UndoEvent measured, int undoSteps, long undoMemory) {
+        measured.undoSteps = undoSteps;
+        measured.undoMemory = undoMemory;
+        measured.finish();
+        undos.incrementAndGet();
+    }
+
+    /**
+     * Starts measuring an image load or save.
+     *
+     * @param action "load" or "save".
+     * @param file   The name of the file.
+     * @return The event to finish with {@link #finishImageFile(ImageFileEvent, double, double)}.
+     */
+    static ImageFileEvent startImageFile(String action, String file) {
+        ImageFileEvent measured = new ImageFileEvent();
+        measured.action = action;
+        measured.file = file;
+        measured.start();
+        return measured;
+    }
+
+    /**
+     * Finishes measuring an image load or save.
+     *
+     * @param measured The event returned by {@link #startImageFile(String, String)}.
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     */
+    static void finishImageFile(ImageFileEvent measured, double width, double height) {
+        measured.width = (int) width;
+        measured.height = (int) height;
+        measured.finish();
+        (measured.action.equals("save") ? saves : loads).incrementAndGet();
+    }
+
+    /**
+     * Computes percentiles of the recent tool handler latencies. Only call on the JavaFX application thread.
+     *
+     * @param percentiles The percentiles to compute, from 0 to 100.
+     * @return The latencies at those percentiles, in nanoseconds, or zeros if nothing was recorded yet.
+     */
+    static long[] latencyPercentiles(double... percentiles) {
+        int count = (int) Math.min(latencyCount, LATENCY_WINDOW);
+        long[] result = new long[percentiles.length];
+        if (count == 0) {
+            return result;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = (int) Math.ceil(percentiles[i] / 100 * count) - 1;
+            result[i] = sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of tool handler calls measured.
+     */
+    static long toolHandlerCount() {
+        return toolHandlers.get();
+    }
+
+    /**
+     * @return The number of snapshots measured.
+     */
+    static long snapshotCount() {
+        return snapshots.get();
+    }
+
+    /**
+     * @return The duration of the last snapshot, in nanoseconds.
+     */
+    static long lastSnapshotNanos() {
+        return lastSnapshotNanos;
+    }
+
+    /**
+     * @return The number of undos and redos measured.
+     */
+    static long undoCount() {
+        return undos.get();
+    }
+
+    /**
+     * @return The number of image loads measured.
+     */
+    static long loadCount() {
+        return loads.get();
+    }
+
+    /**
+     * @return The number of image saves measured.
+     */
+    static long saveCount() {
+        return saves.get();
+    }
+
+    /**
+     * @return The bytes allocated so far by the current thread, or -1 if unknown.
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Finds the thread bean with allocation counters, enabling them if needed.
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
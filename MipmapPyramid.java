@@ -0,0 +1,190 @@
+package com.example.finalturnin;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+import java.util.Arrays;
+
+/**
+ * MipmapPyramid holds successively halved copies of an image, so a zoomed-out view samples a level
+ * close to the screen's resolution instead of skipping over the full-size pixels. Level 1 is half the
+ * size of the image, level 2 a quarter, and so on; each pixel is the alpha-weighted average of the
+ * 2x2 pixels beneath it. Level 0 is the image itself and is not stored here.
+ * <p>
+ * The image is read in bands of rows, so building the pyramid needs no full-size copy of it. Building
+ * only reads the image, and can run on a background thread.
+ * </p>
+ */
+final class MipmapPyramid {
+    /**
+     * Number of level 1 rows built per bulk read from the image.
+     */
+    private static final int BAND_HEIGHT = 128;
+
+    /**
+     * The document coordinates of the image's top-left corner.
+     */
+    private final int x, y;
+
+    /**
+     * The ARGB pixels of levels 1 and up, row by row.
+     */
+    private final int[][] levels;
+
+    /**
+     * The width and height of levels 1 and up.
+     */
+    private final int[] widths, heights;
+
+    private MipmapPyramid(int x, int y, int depth) {
+        this.x = x;
+        this.y = y;
+        this.levels = new int[depth][];
+        this.widths = new int[depth];
+        this.heights = new int[depth];
+    }
+
+    /**
+     * Builds the pyramid of an image. Levels stop once they are a single pixel or the given depth is reached.
+     *
+     * @param image The image to reduce.
+     * @param x     The document x-coordinate of the image's top-left corner.
+     * @param y     The document y-coordinate of the image's top-left corner.
+     * @param depth The number of levels to build below the image.
+     * @return The pyramid.
+     */
+    static MipmapPyramid build(Image image, int x, int y, int depth) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int levelCount = 0;
+        for (int w = width, h = height; levelCount < depth && (w > 1 || h > 1); levelCount++) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        MipmapPyramid pyramid = new MipmapPyramid(x, y, levelCount);
+        if (levelCount == 0) {
+            return pyramid;
+        }
+
+        // Level 1 comes straight from the image, two source rows per level row
+        int levelWidth = (width + 1) / 2, levelHeight = (height + 1) / 2;
+        int[] level = new int[levelWidth * levelHeight];
+        PixelReader reader = image.getPixelReader();
+        int[] band = new int[width * Math.min(2 * BAND_HEIGHT, height)];
+        for (int row = 0; row < levelHeight; row += BAND_HEIGHT) {
+            int rows = Math.min(BAND_HEIGHT, levelHeight - row);
+            int sourceRows = Math.min(2 * rows, height - 2 * row);
+            reader.getPixels(0, 2 * row, width, sourceRows, PixelFormat.getIntArgbInstance(), band, 0, width);
+            reduce(band, width, sourceRows, level, row * levelWidth, levelWidth, rows);
+        }
+        pyramid.store(0, level, levelWidth, levelHeight);
+
+        for (int i = 1; i < levelCount; i++) {
+            int[] above = pyramid.levels[i - 1];
+            int aboveWidth = pyramid.widths[i - 1], aboveHeight = pyramid.heights[i - 1];
+            levelWidth = (aboveWidth + 1) / 2;
+            levelHeight = (aboveHeight + 1) / 2;
+            level = new int[levelWidth * levelHeight];
+            reduce(above, aboveWidth, aboveHeight, level, 0, levelWidth, levelHeight);
+            pyramid.store(i, level, levelWidth, levelHeight);
+        }
+        return pyramid;
+    }
+
+    /**
+     * @return The number of levels below the image.
+     */
+    int depth() {
+        return levels.length;
+    }
+
+    /**
+     * Reads pixels of a level by nearest-neighbour sampling. Coordinates outside the image, and negative
+     * coordinates, read as transparent.
+     *
+     * @param level  The level to read, from 1 to {@link #depth()}.
+     * @param xs     The document x-coordinate of each target column.
+     * @param ys     The document y-coordinate of each target row.
+     * @param w      The number of target columns.
+     * @param h      The number of target rows.
+     * @param target The array receiving the ARGB pixels, row by row with a stride of w.
+     */
+    void sample(int level, int[] xs, int[] ys, int w, int h, int[] target) {
+        int[] pixels = levels[level - 1];
+        int levelWidth = widths[level - 1], levelHeight = heights[level - 1];
+        int[] columns = new int[w];
+        for (int i = 0; i < w; i++) {
+            int column = xs[i] < 0 ? -1 : (xs[i] - x) >> level;
+            columns[i] = column < levelWidth ? column : -1;
+        }
+        for (int j = 0; j < h; j++) {
+            int start = j * w;
+            int row = ys[j] < 0 ? -1 : (ys[j] - y) >> level;
+            if (row < 0 || row >= levelHeight) {
+                Arrays.fill(target, start, start + w, 0);
+                continue;
+            }
+            int rowOffset = row * levelWidth;
+            for (int i = 0; i < w; i++) {
+                int column = columns[i];
+                target[start + i] = column < 0 ? 0 : pixels[rowOffset + column];
+            }
+        }
+    }
+
+    /**
+     * Stores a built level.
+     */
+    private void store(int index, int[] pixels, int width, int height) {
+        levels[index] = pixels;
+        widths[index] = width;
+        heights[index] = height;
+    }
+
+    /**
+     * Halves a block of pixels into rows of the next level. A missing last column or row is
+     * taken from the one before it.
+     *
+     * @param source      The pixels to reduce, row by row.
+     * @param width       The width of the source.
+     * @param height      The number of source rows.
+     * @param target      Receives the reduced pixels.
+     * @param offset      The index in the target of the first reduced pixel.
+     * @param targetWidth The width of the target.
+     * @param rows        The number of target rows to fill.
+     */
+    private static void reduce(int[] source, int width, int height, int[] target, int offset, int targetWidth, int rows) {
+        for (int row = 0; row < rows; row++) {
+            int top = 2 * row * width;
+            int bottom = Math.min(2 * row + 1, height - 1) * width;
+            for (int col = 0; col < targetWidth; col++) {
+                int left = 2 * col;
+                int right = Math.min(left + 1, width - 1);
+                target[offset + row * targetWidth + col] = average(source[top + left], source[top + right],
+                        source[bottom + left], source[bottom + right]);
+            }
+        }
+    }
+
+    /**
+     * Averages four ARGB pixels, weighting their colors by alpha so transparent pixels do not darken the edges.
+     */
+    private static int average(int p0, int p1, int p2, int p3) {
+        if (p0 == p1 && p0 == p2 && p0 == p3) {
+            return p0; // Flat areas are common and need no arithmetic
+        }
+        int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+        int alpha = a0 + a1 + a2 + a3;
+        if (alpha == 0) {
+            return 0;
+        }
+        int result = ((alpha + 2) >> 2) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int sum = ((p0 >> shift) & 0xff) * a0 + ((p1 >> shift) & 0xff) * a1
+                    + ((p2 >> shift) & 0xff) * a2 + ((p3 >> shift) & 0xff) * a3;
+            result |= ((sum + alpha / 2) / alpha) << shift;
+        }
+        return result;
+    }
+}
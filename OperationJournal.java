@@ -0,0 +1,455 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * OperationJournal is an append-only log of the committed changes to a document, kept so unsaved work
+ * can be recovered after a crash. Every change is appended as a small binary record: the new pixels of
+ * a layer region, a cleared layer, or a shape added, undone or redone. The drawing thread only queues
+ * the change; a background thread compresses pixels with {@link PixelCodec} and writes the record, so
+ * journaling costs a gesture next to nothing. Records reach the operating system as they are written,
+ * so they survive the JVM dying.
+ * <p>
+ * Once the journal grows past a threshold it is compacted: a checkpoint of the whole document, one
+ * record per allocated tile and one per shape in effect, is written to a new file that then replaces
+ * the journal. A document opened from or saved to a {@link ProjectFile} is checkpointed as a reference
+ * to the project plus what changed since. Each record is {@code [int length][int crc32][byte type][payload]};
+ * replay stops at the first record that is truncated or fails its checksum, which is where a crash cut
+ * the journal off.
+ * If the journal file cannot be written, journaling is given up and the application carries on.
+ * </p>
+ */
+final class OperationJournal implements DocumentOperations, Closeable {
+    /**
+     * Builds the type and payload of a record, with the position at its end.
+     */
+    private interface Encoder {
+        ByteBuffer encode();
+    }
+
+    /**
+     * The record types.
+     */
+    private static final byte NEW_DOCUMENT = 1, CLEAR_LAYER = 2, REGION = 3, SHAPE_ADD = 4, SHAPE_UNDO = 5, SHAPE_REDO = 6,
+            OPEN_PROJECT = 7, CLEAR_SHAPES = 8;
+
+    /**
+     * The size of a record's length and checksum, in bytes.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The journal size above which it is compacted into a checkpoint.
+     */
+    private static final long COMPACT_THRESHOLD = 64L << 20;
+
+    /**
+     * The file the journal is written to.
+     */
+    private final Path file;
+
+    /**
+     * The thread that compresses and writes records, in the order they were queued.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-write");
+        thread.setDaemon(true); // Do not keep the JVM alive after the stage closes
+        return thread;
+    });
+
+    /**
+     * The open journal file; only used on the writer thread.
+     */
+    private FileChannel channel;
+
+    /**
+     * The number of bytes in the journal file, as of the last record written.
+     */
+    private volatile long size;
+
+    /**
+     * Whether a checkpoint is queued but not yet written.
+     */
+    private volatile boolean compacting;
+
+    /**
+     * Whether journaling was given up because the file could not be written.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Opens an empty journal, replacing any journal already in the file.
+     *
+     * @param file The journal file.
+     */
+    OperationJournal(Path file) {
+        this.file = file;
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * @return The journal file named by the {@code javadraw.journal} system property,
+     * or {@code ~/.javadraw/journal.bin} if it is not set.
+     */
+    static Path defaultFile() {
+        String configured = System.getProperty("javadraw.journal");
+        return configured != null ? Paths.get(configured) : Paths.get(System.getProperty("user.home"), ".javadraw", "journal.bin");
+    }
+
+    /**
+     * @param file The journal file.
+     * @return true if the file holds changes beyond the document it starts from.
+     */
+    static boolean hasChanges(Path file) {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            in.read(length, 0);
+            return !length.hasRemaining() && in.size() > HEADER_SIZE + length.getInt(0);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replays a journal, passing every intact record to the target in order. The file is memory-mapped
+     * and read up to the first record that is truncated or corrupt.
+     *
+     * @param file   The journal file.
+     * @param target Receives the recorded changes.
+     * @return The number of records replayed.
+     * @throws IOException if the file cannot be read.
+     */
+    static int replay(Path file, DocumentOperations target) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(in.size(), Integer.MAX_VALUE));
+        }
+        CRC32 crc = new CRC32();
+        int count = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                break; // Cut off by a crash
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum || !apply(record, target)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Deletes a journal file, if there is one.
+     *
+     * @param file The journal file.
+     */
+    static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error deleting journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the journal has grown large enough that it should be compacted with {@link #checkpoint}.
+     */
+    boolean needsCheckpoint() {
+        return !failed && !compacting && size > COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Replaces the journal with a checkpoint of the whole document. A document based on a project file
+     * is checkpointed as the project plus the tiles written since it was opened or saved, and its shapes
+     * only if they differ from the project's. The tiles are copied on the calling thread; compressing and
+     * writing them happens in the background. Changes recorded afterwards are appended to the checkpoint.
+     *
+     * @param layers The layers of the document.
+     * @param shapes The shape display list of the document.
+     * @param base   The project file the document was opened from or last saved to, or null if there is none.
+     */
+    void checkpoint(LayerStack layers, ShapeDisplayList shapes, ProjectFile base) {
+        if (failed) {
+            return;
+        }
+
+        // Copy what the checkpoint holds now; it is encoded on the writer thread
+        List<Encoder> records = new ArrayList<>();
+        if (base == null) {
+            int width = layers.getWidth(), height = layers.getHeight();
+            records.add(() -> newDocumentRecord(width, height));
+        } else {
+            String project = base.getPath().toString();
+            records.add(() -> openProjectRecord(project));
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            int layer = i;
+            TiledSurface surface = layers.getLayer(i).getPixels();
+            int tileSize = surface.getTileSize();
+            int[] blank = new int[tileSize * tileSize];
+            TiledSurface.TileVisitor visitor = (x, y, pixels) -> {
+                int[] copy = pixels != null ? pixels.clone() : blank; // A released tile is written back as transparent
+                records.add(() -> regionRecord(layer, x, y, tileSize, tileSize, copy));
+            };
+            if (base == null) {
+                surface.forEachTile(visitor);
+            } else {
+                surface.forEachDirtyTile(visitor); // The project holds the others
+            }
+        }
+        if (base == null || !base.hasSameShapes(shapes)) {
+            if (base != null) {
+                records.add(() -> ByteBuffer.allocate(1).put(CLEAR_SHAPES));
+            }
+            for (int i = 0; i < shapes.size(); i++) {
+                ShapeRecord record = shapes.get(i);
+                records.add(() -> shapeRecord(record));
+            }
+        }
+
+        compacting = true;
+        writer.execute(() -> {
+            compacting = false;
+            if (failed) {
+                return;
+            }
+            Path next = file.resolveSibling(file.getFileName() + ".next");
+            try {
+                try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long written = 0;
+                    for (Encoder record : records) {
+                        written += write(out, record.encode());
+                    }
+                    out.force(true); // The checkpoint must be complete before it replaces the journal
+                    size = written;
+                }
+                channel.close();
+                Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    @Override
+    public void newDocument(int width, int height) {
+        append(() -> newDocumentRecord(width, height));
+    }
+
+    @Override
+    public void openProject(Path project) {
+        String name = project.toString();
+        append(() -> openProjectRecord(name));
+    }
+
+    @Override
+    public void clearLayer(int layer) {
+        append(() -> ByteBuffer.allocate(5).put(CLEAR_LAYER).putInt(layer));
+    }
+
+    @Override
+    public void region(int layer, int x, int y, int width, int height, int[] pixels) {
+        append(() -> regionRecord(layer, x, y, width, height, pixels));
+    }
+
+    @Override
+    public void shapeAdded(ShapeRecord record) {
+        append(() -> shapeRecord(record));
+    }
+
+    @Override
+    public void clearShapes() {
+        append(() -> ByteBuffer.allocate(1).put(CLEAR_SHAPES));
+    }
+
+    @Override
+    public void shapeUndone() {
+        append(() -> ByteBuffer.allocate(1).put(SHAPE_UNDO));
+    }
+
+    @Override
+    public void shapeRedone() {
+        append(() -> ByteBuffer.allocate(1).put(SHAPE_REDO));
+    }
+
+    /**
+     * Writes the queued records, closes the journal and deletes it. Used on a clean exit,
+     * when there is nothing to recover.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        }
+        delete(file);
+    }
+
+    /**
+     * Encodes a record on the writer thread and appends it to the journal.
+     */
+    private void append(Encoder encoder) {
+        if (failed) {
+            return;
+        }
+        writer.execute(() -> {
+            if (failed) {
+                return;
+            }
+            try {
+                size += write(channel, encoder.encode());
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Gives up journaling after the file could not be written.
+     */
+    private void fail(IOException e) {
+        System.out.println("Journaling stopped; journal could not be written: " + e.getMessage());
+        failed = true;
+    }
+
+    /**
+     * Writes a record's header, type and payload.
+     *
+     * @return The number of bytes written.
+     */
+    private static long write(FileChannel out, ByteBuffer record) throws IOException {
+        record.flip();
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(record.remaining()).putInt((int) crc.getValue());
+        header.flip();
+        long length = header.remaining() + record.remaining();
+        ByteBuffer[] buffers = {header, record};
+        while (record.hasRemaining()) {
+            out.write(buffers);
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a NEW_DOCUMENT record.
+     */
+    private static ByteBuffer newDocumentRecord(int width, int height) {
+        return ByteBuffer.allocate(9).put(NEW_DOCUMENT).putInt(width).putInt(height);
+    }
+
+    /**
+     * Encodes an OPEN_PROJECT record.
+     */
+    private static ByteBuffer openProjectRecord(String project) {
+        byte[] name = project.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + name.length).put(OPEN_PROJECT).put(name);
+    }
+
+    /**
+     * Encodes a REGION record, compressing the pixels on the writer thread.
+     */
+    private static ByteBuffer regionRecord(int layer, int x, int y, int width, int height, int[] pixels) {
+        byte[] compressed = PixelCodec.deflate(pixels);
+        return ByteBuffer.allocate(21 + compressed.length).put(REGION).putInt(layer).putInt(x).putInt(y).putInt(width).putInt(height)
+                .put(compressed);
+    }
+
+    /**
+     * Encodes a SHAPE_ADD record.
+     */
+    private static ByteBuffer shapeRecord(ShapeRecord record) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + ShapeRecord.BYTES).put(SHAPE_ADD);
+        record.write(buffer);
+        return buffer;
+    }
+
+    /**
+     * Decodes one record and passes it to the target.
+     *
+     * @return false if the record could not be decoded.
+     */
+    private static boolean apply(ByteBuffer record, DocumentOperations target) {
+        try {
+            switch (record.get()) {
+                case NEW_DOCUMENT:
+                    target.newDocument(record.getInt(), record.getInt());
+                    return true;
+                case CLEAR_LAYER:
+                    target.clearLayer(record.getInt());
+                    return true;
+                case REGION: {
+                    int layer = record.getInt(), x = record.getInt(), y = record.getInt();
+                    int width = record.getInt(), height = record.getInt();
+                    target.region(layer, x, y, width, height, PixelCodec.inflate(record, width * height));
+                    return true;
+                }
+                case SHAPE_ADD:
+                    target.shapeAdded(ShapeRecord.read(record));
+                    return true;
+                case SHAPE_UNDO:
+                    target.shapeUndone();
+                    return true;
+                case SHAPE_REDO:
+                    target.shapeRedone();
+                    return true;
+                case OPEN_PROJECT:
+                    target.openProject(Paths.get(StandardCharsets.UTF_8.decode(record).toString()));
+                    return true;
+                case CLEAR_SHAPES:
+                    target.clearShapes();
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException | DataFormatException e) {
+            System.out.println("Journal replay stopped at a bad record: " + e.getMessage());
+            return false;
+        }
+    }
+}
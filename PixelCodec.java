@@ -0,0 +1,76 @@
+package com.example.finalturnin;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PixelCodec compresses blocks of ARGB pixels with Deflate for the undo store, the operation journal
+ * and project files. Pixels are stored big-endian, four bytes each, and compressed at the fastest level:
+ * painted tiles are mostly runs of the same few colors, which the fastest level already shrinks well.
+ */
+final class PixelCodec {
+    private PixelCodec() {
+    }
+
+    /**
+     * Compresses pixels with Deflate at the fastest level.
+     *
+     * @param pixels The ARGB pixels.
+     * @return The compressed bytes.
+     */
+    static byte[] deflate(int[] pixels) {
+        ByteBuffer buffer = ByteBuffer.allocate(pixels.length * 4);
+        buffer.asIntBuffer().put(pixels);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(buffer.array());
+            deflater.finish();
+            byte[] output = new byte[Math.max(64, pixels.length)];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                size += deflater.deflate(output, size, output.length - size);
+            }
+            return Arrays.copyOf(output, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses pixels compressed by {@link #deflate(int[])}.
+     *
+     * @param compressed The compressed bytes, from the buffer's position to its limit.
+     * @param length     The number of pixels.
+     * @return The ARGB pixels.
+     * @throws DataFormatException if the bytes are corrupt or hold fewer pixels than expected.
+     */
+    static int[] inflate(ByteBuffer compressed, int length) throws DataFormatException {
+        byte[] output = new byte[length * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int size = 0;
+            while (size < output.length && !inflater.finished()) {
+                int n = inflater.inflate(output, size, output.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != output.length) {
+                throw new DataFormatException("Pixels are truncated.");
+            }
+        } finally {
+            inflater.end();
+        }
+        int[] pixels = new int[length];
+        ByteBuffer.wrap(output).asIntBuffer().get(pixels);
+        return pixels;
+    }
+}
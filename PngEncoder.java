@@ -0,0 +1,366 @@
+package com.example.finalturnin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PngEncoder writes RGBA PNG files by filtering and compressing bands of rows in parallel.
+ * The image is split into bands of about {@link #BAND_BYTES} bytes. Each band is filtered and deflated
+ * on the common fork/join pool into its own IDAT chunk, primed with the last 32 KB of the previous band
+ * as the dictionary and ended with a sync flush, so the chunks join into one zlib stream and compress
+ * almost as well as a single-threaded encoder. The band checksums are combined at the end.
+ * <p>
+ * Pixels are pulled from a {@link RowSource} one band at a time and chunks go straight to a file channel
+ * in order, so only a few bands per core are ever held in memory, whatever the size of the image.
+ * </p>
+ */
+final class PngEncoder {
+    /**
+     * Supplies rows of ARGB pixels to encode. Rows are requested in order, from the encoding thread.
+     */
+    interface RowSource {
+        /**
+         * Reads a band of rows.
+         *
+         * @param y      The first row to read.
+         * @param rows   The number of rows to read.
+         * @param target The array receiving the pixels, row by row with a stride of the image width.
+         * @param offset The index in the target of the first pixel.
+         */
+        void read(int y, int rows, int[] target, int offset);
+    }
+
+    /**
+     * Receives the progress of an encoding.
+     */
+    interface Progress {
+        /**
+         * Reports that more rows were written.
+         *
+         * @param rows The number of rows written so far.
+         * @return false to abort the encoding.
+         */
+        boolean rowsWritten(int rows);
+    }
+
+    /**
+     * The uncompressed size a band aims for; large enough to keep the sync flushes between bands cheap.
+     */
+    private static final int BAND_BYTES = 1 << 20;
+
+    /**
+     * The size of the Deflate window, which is how much of the previous band primes the next one.
+     */
+    private static final int WINDOW = 32 * 1024;
+
+    /**
+     * The Deflate level, the same one ImageIO's PNG writer uses.
+     */
+    private static final int COMPRESSION_LEVEL = 4;
+
+    /**
+     * The number of bands compressed ahead of the one being written, per core.
+     */
+    private static final int BANDS_PER_CORE = 2;
+
+    /**
+     * The eight bytes every PNG file starts with.
+     */
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /**
+     * The modulus of the Adler-32 checksum.
+     */
+    private static final int ADLER_BASE = 65521;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * Encodes an image to a PNG file, replacing the file if it exists.
+     *
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param source   Supplies the pixels.
+     * @param target   The file to write.
+     * @param progress Receives the progress, and can abort the encoding.
+     * @return false if the encoding was aborted; the file is then incomplete.
+     * @throws IOException if the file cannot be written.
+     */
+    static boolean write(int width, int height, RowSource source, Path target, Progress progress) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive.");
+        }
+        int rowBytes = 1 + width * 4; // Filter type byte, then RGBA
+        int bandRows = Math.max(1, BAND_BYTES / rowBytes);
+        // Rows of the previous band a band re-filters to rebuild the dictionary, plus the row above those
+        int primeRows = Math.min((WINDOW + rowBytes - 1) / rowBytes, bandRows) + 1;
+        int limit = ForkJoinPool.commonPool().getParallelism() * BANDS_PER_CORE;
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(SIGNATURE));
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height)
+                    .put((byte) 8) // Bit depth
+                    .put((byte) 6) // Color type: RGBA
+                    .put((byte) 0).put((byte) 0).put((byte) 0); // Deflate, adaptive filtering, no interlace
+            writeChunk(channel, "IHDR", header.array(), header.capacity());
+            writeChunk(channel, "IDAT", new byte[]{0x78, 0x5e}, 2); // zlib header: Deflate, 32 KB window
+
+            Deque<CompletableFuture<Band>> inFlight = new ArrayDeque<>();
+            int[] previous = null;
+            int previousRows = 0, nextRow = 0, written = 0;
+            long adler = 1;
+            try {
+                while (written < height) {
+                    // Read bands ahead while there is room, so the pool always has work queued
+                    while (nextRow < height && inFlight.size() < limit) {
+                        int rows = Math.min(bandRows, height - nextRow);
+                        int prime = Math.min(primeRows, nextRow);
+                        int[] pixels = new int[(prime + rows) * width];
+                        if (prime > 0) {
+                            System.arraycopy(previous, (previousRows - prime) * width, pixels, 0, prime * width);
+                        }
+                        source.read(nextRow, rows, pixels, prime * width);
+                        boolean last = nextRow + rows == height;
+                        inFlight.add(CompletableFuture.supplyAsync(
+                                () -> compress(pixels, width, prime, rows, last), ForkJoinPool.commonPool()));
+                        previous = pixels;
+                        previousRows = prime + rows;
+                        nextRow += rows;
+                    }
+
+                    Band band = inFlight.remove().join();
+                    writeChunk(channel, "IDAT", band.compressed, band.compressed.length);
+                    adler = combineAdler(adler, band.adler, band.length);
+                    written += band.rows;
+                    if (!progress.rowsWritten(written)) {
+                        return false;
+                    }
+                }
+            } catch (CompletionException e) {
+                throw new IOException("Could not compress image.", e.getCause());
+            } finally {
+                for (CompletableFuture<Band> band : inFlight) {
+                    band.cancel(false);
+                }
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(4).putInt((int) adler);
+            writeChunk(channel, "IDAT", trailer.array(), 4);
+            writeChunk(channel, "IEND", new byte[0], 0);
+        }
+        return true;
+    }
+
+    /**
+     * A compressed band: the raw Deflate data of its rows and the checksum of the filtered bytes.
+     */
+    private static final class Band {
+        private final int rows;
+        private final byte[] compressed;
+        private final long adler;
+        private final long length;
+
+        private Band(int rows, byte[] compressed, long adler, long length) {
+            this.rows = rows;
+            this.compressed = compressed;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Filters and deflates a band on a pool thread.
+     *
+     * @param pixels The band's pixels, preceded by the last rows of the previous band.
+     * @param width  The width of the image.
+     * @param prime  The number of rows of the previous band at the start of the pixels.
+     * @param rows   The number of rows in the band.
+     * @param last   Whether this is the last band, which ends the Deflate stream.
+     */
+    private static Band compress(int[] pixels, int width, int prime, int rows, boolean last) {
+        int rowBytes = 1 + width * 4;
+        int total = prime + rows;
+        // Every row but the first primed one is filtered; the primed rows become the dictionary
+        int first = prime > 0 ? 1 : 0;
+        byte[] filtered = new byte[(total - first) * rowBytes];
+        byte[] above = new byte[width * 4];
+        byte[] current = new byte[width * 4];
+        byte[][] candidates = new byte[5][width * 4];
+        if (prime > 0) {
+            toRgba(pixels, 0, width, above);
+        }
+        for (int row = first; row < total; row++) {
+            toRgba(pixels, row * width, width, current);
+            filterRow(current, above, candidates, filtered, (row - first) * rowBytes);
+            byte[] swap = above;
+            above = current;
+            current = swap;
+        }
+
+        int dictionaryBytes = (prime - first) * rowBytes;
+        int dataBytes = filtered.length - dictionaryBytes;
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+        try {
+            if (dictionaryBytes > 0) {
+                int size = Math.min(WINDOW, dictionaryBytes);
+                deflater.setDictionary(filtered, dictionaryBytes - size, size);
+            }
+            deflater.setInput(filtered, dictionaryBytes, dataBytes);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] output = new byte[Math.max(64, dataBytes / 2)];
+            int size = 0;
+            int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+            while (true) {
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                size += deflater.deflate(output, size, output.length - size, flush);
+                // A flush is complete once it leaves room in the output; the last band runs until finished
+                if (last ? deflater.finished() : size < output.length) {
+                    break;
+                }
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(filtered, dictionaryBytes, dataBytes);
+            return new Band(rows, Arrays.copyOf(output, size), adler.getValue(), dataBytes);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Converts a row of ARGB pixels to RGBA bytes.
+     */
+    private static void toRgba(int[] pixels, int from, int width, byte[] target) {
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+            int argb = pixels[from + x];
+            target[i] = (byte) (argb >> 16);
+            target[i + 1] = (byte) (argb >> 8);
+            target[i + 2] = (byte) argb;
+            target[i + 3] = (byte) (argb >>> 24);
+        }
+    }
+
+    /**
+     * Applies all five PNG filters to a row and keeps the one with the smallest sum of absolute values,
+     * the heuristic libpng uses.
+     *
+     * @param row        The RGBA bytes of the row.
+     * @param above      The RGBA bytes of the row above, all zero for the first row.
+     * @param candidates Scratch space for the five filtered rows.
+     * @param target     Receives the filter type byte followed by the filtered row.
+     * @param offset     The index in the target to write at.
+     */
+    private static void filterRow(byte[] row, byte[] above, byte[][] candidates, byte[] target, int offset) {
+        int length = row.length;
+        long[] sums = new long[5];
+        for (int i = 0; i < length; i++) {
+            int a = i >= 4 ? row[i - 4] & 0xff : 0;
+            int b = above[i] & 0xff;
+            int c = i >= 4 ? above[i - 4] & 0xff : 0;
+            int x = row[i] & 0xff;
+            byte none = (byte) x;
+            byte sub = (byte) (x - a);
+            byte up = (byte) (x - b);
+            byte average = (byte) (x - ((a + b) >> 1));
+            byte paeth = (byte) (x - paethPredictor(a, b, c));
+            candidates[0][i] = none;
+            candidates[1][i] = sub;
+            candidates[2][i] = up;
+            candidates[3][i] = average;
+            candidates[4][i] = paeth;
+            sums[0] += Math.abs(none);
+            sums[1] += Math.abs(sub);
+            sums[2] += Math.abs(up);
+            sums[3] += Math.abs(average);
+            sums[4] += Math.abs(paeth);
+        }
+        int best = 0;
+        for (int filter = 1; filter < 5; filter++) {
+            if (sums[filter] < sums[best]) {
+                best = filter;
+            }
+        }
+        target[offset] = (byte) best;
+        System.arraycopy(candidates[best], 0, target, offset + 1, length);
+    }
+
+    /**
+     * Predicts a byte from its left, upper and upper-left neighbours, as defined by the PNG specification.
+     */
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive byte sequences, as zlib's adler32_combine does.
+     *
+     * @param adler1 The checksum of the first sequence.
+     * @param adler2 The checksum of the second sequence.
+     * @param length2 The length of the second sequence.
+     * @return The checksum of both sequences.
+     */
+    private static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Writes a chunk: its length, type, data and the CRC of the type and data.
+     */
+    private static void writeChunk(FileChannel channel, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(length).put(typeBytes).flip();
+        ByteBuffer body = ByteBuffer.wrap(data, 0, length);
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] buffers = {head, body, tail};
+        while (tail.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+}
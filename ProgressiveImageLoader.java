@@ -0,0 +1,241 @@
+package com.example.finalturnin;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ProgressiveImageLoader decodes images on background threads.
+ * Each image is decoded once, with ImageIO. If decoding takes longer than {@link #PREVIEW_DELAY_MILLIS},
+ * a low-resolution preview of the rows decoded so far is handed to the caller so something can be
+ * shown right away; the full-resolution image follows as the result of the returned task. Formats
+ * ImageIO cannot read, or fails on, are decoded by JavaFX instead, without a preview.
+ * Starting a new load cancels the previous one: the decoder is aborted and the load never reports its results.
+ */
+final class ProgressiveImageLoader {
+    /**
+     * Receives the low-resolution preview of an image on the JavaFX application thread.
+     */
+    interface PreviewListener {
+        /**
+         * Called once the preview is decoded.
+         *
+         * @param preview    The low-resolution preview.
+         * @param fullWidth  The width of the full-resolution image.
+         * @param fullHeight The height of the full-resolution image.
+         */
+        void onPreview(Image preview, double fullWidth, double fullHeight);
+    }
+
+    /**
+     * The longest edge, in pixels, of a preview image.
+     */
+    private static final int PREVIEW_SIZE = 512;
+
+    /**
+     * How long decoding runs before a preview is shown. Images decoded faster than this get no preview.
+     */
+    private static final long PREVIEW_DELAY_MILLIS = 150;
+
+    /**
+     * Number of rows copied per bulk transfer into the JavaFX image.
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * Threads that decode images. A cached pool lets a new load start at once while a stale decode finishes.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "image-load");
+        thread.setDaemon(true); // Do not keep the JVM alive after the stage closes
+        return thread;
+    });
+
+    /**
+     * The load in progress, or null. Only accessed on the JavaFX application thread.
+     */
+    private Task<Image> current;
+
+    /**
+     * Starts loading an image, cancelling any load still in progress.
+     *
+     * @param file     The image file to load.
+     * @param listener Receives the preview on the JavaFX application thread.
+     * @return The task whose value is the full-resolution image.
+     */
+    Task<Image> load(File file, PreviewListener listener) {
+        if (current != null) {
+            current.cancel();
+        }
+
+        Task<Image> task = new Task<>() {
+            @Override
+            protected Image call() throws IOException {
+                Metrics.ImageFileEvent measured = Metrics.startImageFile("load", file.getName());
+                Image image = null;
+                try {
+                    BufferedImage decoded = null;
+                    try {
+                        decoded = decode(file, this, listener);
+                    } catch (IOException | RuntimeException e) {
+                        System.out.println("ImageIO could not decode " + file.getName() + ": " + e.getMessage());
+                    }
+                    if (isCancelled()) {
+                        return null;
+                    }
+
+                    if (decoded != null) {
+                        image = toFxImage(decoded);
+                    } else {
+                        image = new Image(file.toURI().toString()); // Decodes synchronously on this thread
+                        if (image.isError()) {
+                            throw new IOException("Error loading image: " + image.getException().getMessage(), image.getException());
+                        }
+                    }
+                    return image;
+                } finally {
+                    Metrics.finishImageFile(measured, image == null ? 0 : image.getWidth(), image == null ? 0 : image.getHeight());
+                }
+            }
+        };
+        current = task;
+        executor.submit(task);
+        return task;
+    }
+
+    /**
+     * Decodes an image with ImageIO, posting a preview to the listener if decoding is slow.
+     *
+     * @return The decoded image, or null if ImageIO has no reader for the file or the load was cancelled.
+     * @throws IOException if the file cannot be read or decoded.
+     */
+    private static BufferedImage decode(File file, Task<Image> task, PreviewListener listener) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int fullWidth = reader.getWidth(0); // Reads only the header
+                int fullHeight = reader.getHeight(0);
+                long previewAt = System.nanoTime() + PREVIEW_DELAY_MILLIS * 1_000_000;
+                boolean[] previewed = {false};
+
+                reader.addIIOReadUpdateListener(new IIOReadUpdateListener() {
+                    @Override
+                    public void imageUpdate(ImageReader source, BufferedImage decoding, int minX, int minY, int width, int height,
+                                            int periodX, int periodY, int[] bands) {
+                        if (task.isCancelled()) {
+                            source.abort(); // Stops the decoder at its next check
+                            return;
+                        }
+                        if (previewed[0] || System.nanoTime() < previewAt) {
+                            return;
+                        }
+                        previewed[0] = true;
+                        Image preview = previewOf(decoding, minY + (height - 1) * periodY + 1);
+                        Platform.runLater(() -> {
+                            if (!task.isCancelled()) {
+                                listener.onPreview(preview, fullWidth, fullHeight);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void passStarted(ImageReader source, BufferedImage decoding, int pass, int minPass, int maxPass,
+                                            int minX, int minY, int periodX, int periodY, int[] bands) {
+                    }
+
+                    @Override
+                    public void passComplete(ImageReader source, BufferedImage decoding) {
+                    }
+
+                    @Override
+                    public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass, int maxPass,
+                                                     int minX, int minY, int periodX, int periodY, int[] bands) {
+                    }
+
+                    @Override
+                    public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width, int height,
+                                                int periodX, int periodY, int[] bands) {
+                    }
+
+                    @Override
+                    public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+                    }
+                });
+                BufferedImage decoded = reader.read(0);
+                return task.isCancelled() ? null : decoded;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Samples a partly decoded image down to a preview whose longest edge is about {@link #PREVIEW_SIZE}.
+     * Rows that are not decoded yet are left transparent.
+     *
+     * @param decoding    The image being decoded.
+     * @param decodedRows The number of rows decoded so far, from the top.
+     */
+    private static Image previewOf(BufferedImage decoding, int decodedRows) {
+        int width = decoding.getWidth();
+        int height = decoding.getHeight();
+        int step = Math.max(1, (Math.max(width, height) + PREVIEW_SIZE - 1) / PREVIEW_SIZE);
+        int previewWidth = (width + step - 1) / step;
+        int previewHeight = (height + step - 1) / step;
+        int[] pixels = new int[previewWidth * previewHeight];
+        for (int y = 0; y < previewHeight && y * step < decodedRows; y++) {
+            for (int x = 0; x < previewWidth; x++) {
+                pixels[y * previewWidth + x] = decoding.getRGB(x * step, y * step);
+            }
+        }
+        WritableImage preview = new WritableImage(previewWidth, previewHeight);
+        preview.getPixelWriter().setPixels(0, 0, previewWidth, previewHeight, PixelFormat.getIntArgbInstance(), pixels, 0, previewWidth);
+        return preview;
+    }
+
+    /**
+     * Copies a decoded AWT image into a JavaFX image, one band of rows at a time. Each band is drawn
+     * into an ARGB image first, which converts any pixel layout with Java2D's blit loops, and its raster
+     * is then copied in one bulk transfer.
+     */
+    private static Image toFxImage(BufferedImage decoded) {
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        WritableImage image = new WritableImage(width, height);
+        BufferedImage band = new BufferedImage(width, Math.min(BAND_HEIGHT, height), BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        Graphics2D g = band.createGraphics();
+        g.setComposite(AlphaComposite.Src); // Copy alpha instead of blending onto the previous band
+        try {
+            for (int y = 0; y < height; y += BAND_HEIGHT) {
+                int rows = Math.min(BAND_HEIGHT, height - y);
+                g.drawImage(decoded, 0, -y, null);
+                image.getPixelWriter().setPixels(0, y, width, rows, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
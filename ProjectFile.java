@@ -0,0 +1,631 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * ProjectFile is JavaDraw's native document format, which keeps every layer and the shapes editable.
+ * Each allocated tile of each layer is stored as its own Deflate-compressed chunk, and an index records
+ * where every chunk lies, along with the document size, the name, visibility, opacity and blend mode of
+ * each layer, and the shape records.
+ * A fixed header at the start of the file points to the current index.
+ * <p>
+ * Opening a project only reads the header and the index; the file is memory-mapped and a tile is
+ * decoded the first time it is used, typically when it scrolls into view. Saving to the file a document
+ * came from appends only the tiles written since the last save, then a new index, and finally rewrites
+ * the header to point to it, so an interrupted save leaves the previous version intact. Once replaced
+ * chunks and indexes take more room than the live ones, the next save rewrites the file compactly,
+ * copying unchanged chunks without decoding them. A save works on a snapshot of the document, so it
+ * can run on a background thread while editing goes on.
+ * </p>
+ */
+final class ProjectFile implements Closeable {
+    /**
+     * The file name extension of project files.
+     */
+    static final String EXTENSION = "jdraw";
+
+    /**
+     * The first bytes of every project file, "JDPF".
+     */
+    private static final int MAGIC = 0x4A445046;
+
+    /**
+     * The version of the format written.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The first version storing each layer's visibility, opacity and blend mode; older files open with the defaults.
+     */
+    private static final int LAYER_SETTINGS_VERSION = 2;
+
+    /**
+     * The size of the header: magic, version, index offset, index length and index checksum.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The size of an index entry: column, row, offset and length.
+     */
+    private static final int ENTRY_SIZE = 20;
+
+    /**
+     * The location of a compressed tile in the file.
+     */
+    private static final class Chunk {
+        private final long offset;
+        private final int length;
+
+        private Chunk(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The visibility, opacity and blend mode of a layer.
+     */
+    private static final class LayerSettings {
+        private static final LayerSettings DEFAULT = new LayerSettings(true, 1, Layer.BlendMode.NORMAL);
+
+        private final boolean visible;
+        private final double opacity;
+        private final Layer.BlendMode blendMode;
+
+        private LayerSettings(boolean visible, double opacity, Layer.BlendMode blendMode) {
+            this.visible = visible;
+            this.opacity = opacity;
+            this.blendMode = blendMode;
+        }
+
+        private static LayerSettings of(Layer layer) {
+            return new LayerSettings(layer.isVisible(), layer.getOpacity(), layer.getBlendMode());
+        }
+
+        private void applyTo(Layer layer) {
+            layer.setVisible(visible);
+            layer.setOpacity(opacity);
+            layer.setBlendMode(blendMode);
+        }
+    }
+
+    /**
+     * A tile to be saved, with its compressed pixels once they are ready.
+     */
+    private static final class PendingTile {
+        private final int layer, col, row;
+        private final int[] pixels;
+        private byte[] compressed;
+
+        private PendingTile(int layer, int col, int row, int[] pixels) {
+            this.layer = layer;
+            this.col = col;
+            this.row = row;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * The project file.
+     */
+    private final Path path;
+
+    /**
+     * The open file, for reading chunks and appending saves.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The file mapped into memory, as far as it could be mapped at once. Snapshots of the layers read it
+     * from the export thread, and a save replaces it.
+     */
+    private volatile ByteBuffer mapped;
+
+    /**
+     * The document size and the edge length of its tiles, in pixels.
+     */
+    private int width, height, tileSize;
+
+    /**
+     * The names of the layers, bottom first.
+     */
+    private final List<String> layerNames = new ArrayList<>();
+
+    /**
+     * The settings of the layers, bottom first.
+     */
+    private final List<LayerSettings> layerSettings = new ArrayList<>();
+
+    /**
+     * The chunks of each layer, keyed by {@link #key(int, int)} of their column and row.
+     * A save replaces a layer's map instead of changing it, so the tile sources handed out keep theirs.
+     */
+    private final List<Map<Long, Chunk>> chunks = new ArrayList<>();
+
+    /**
+     * The shape records stored in the file.
+     */
+    private List<ShapeRecord> shapes;
+
+    /**
+     * The bytes taken by the chunks in the index.
+     */
+    private long liveBytes;
+
+    /**
+     * The length of the current index, in bytes.
+     */
+    private int indexLength;
+
+    private ProjectFile(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a project, reading its index. Tiles are read later, as the layers use them.
+     *
+     * @param path The project file.
+     * @return The open project.
+     * @throws IOException if the file cannot be read or is not a valid project.
+     */
+    static ProjectFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ProjectFile project = new ProjectFile(path.toAbsolutePath().normalize(), channel);
+        try {
+            project.readIndex();
+            return project;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Project file is corrupt.", e);
+        }
+    }
+
+    /**
+     * Saves a document. If the document is based on a project in the same file, only the tiles written
+     * since it was opened or last saved are compressed and appended. Otherwise a complete file is written,
+     * copying the chunks of unchanged tiles from the project the document is based on, if any. Compression
+     * runs on all cores. The document is passed as a snapshot, so the save may run on a background thread;
+     * once it completes, {@link #adopt} hands the saved file to the document's layers.
+     *
+     * @param previous The project the document was opened from or last saved to, or null if there is none.
+     * @param path     The file to save to.
+     * @param layers   A snapshot of the document's layers; their tiles must all have the same size.
+     * @param records  The shape records in effect in the document, in order.
+     * @return The project the document is now based on: the previous one if the save appended to it.
+     * @throws IOException if the file cannot be written; the previous project is then left intact.
+     */
+    static ProjectFile save(ProjectFile previous, Path path, LayerStack layers, List<ShapeRecord> records) throws IOException {
+        path = path.toAbsolutePath().normalize();
+
+        // A new document stores every tile; a saved one only those written since
+        List<PendingTile> written = new ArrayList<>();
+        List<LayerSettings> settings = new ArrayList<>();
+        for (int i = 0; i < layers.size(); i++) {
+            int layer = i;
+            TiledSurface surface = layers.getLayer(i).getPixels();
+            int size = surface.getTileSize();
+            TiledSurface.TileVisitor visitor = (x, y, pixels) -> written.add(new PendingTile(layer, x / size, y / size, pixels));
+            if (previous == null) {
+                surface.forEachTile(visitor);
+            } else {
+                surface.forEachDirtyTile(visitor);
+            }
+            settings.add(LayerSettings.of(layers.getLayer(i)));
+        }
+        written.parallelStream().filter(tile -> tile.pixels != null).forEach(tile -> tile.compressed = PixelCodec.deflate(tile.pixels));
+
+        if (previous != null && previous.path.equals(path) && previous.garbageBytes() <= previous.liveBytes) {
+            previous.append(written, records, settings);
+            return previous;
+        }
+        return rewrite(previous, path, layers, written, records, settings);
+    }
+
+    /**
+     * Makes this project, just saved, the one the document's layers load their stored tiles from,
+     * and closes the project they were based on if the save moved them to a new file.
+     *
+     * @param previous The project the document was based on before the save, or null if there was none.
+     * @param layers   The layers of the document the saved snapshot was taken from.
+     */
+    void adopt(ProjectFile previous, LayerStack layers) {
+        if (previous == this) {
+            return; // The layers' sources read the appended file already
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            layers.getLayer(i).getPixels().setSource(source(i));
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Lets the layers load their tiles from this project and gives them its layer settings.
+     * The layers must be empty and match the project's.
+     *
+     * @param layers The layers of the document opened from this project.
+     */
+    void attach(LayerStack layers) {
+        for (int i = 0; i < layers.size(); i++) {
+            layerSettings.get(i).applyTo(layers.getLayer(i));
+            TiledSurface surface = layers.getLayer(i).getPixels();
+            surface.setSource(source(i));
+            for (long key : chunks.get(i).keySet()) {
+                surface.addStoredTile((int) key, (int) (key >> 32));
+            }
+        }
+    }
+
+    /**
+     * @return The project file.
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The width of the document.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the document.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The edge length of the document's tiles, in pixels.
+     */
+    int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return The number of layers.
+     */
+    int layerCount() {
+        return layerNames.size();
+    }
+
+    /**
+     * @return The shape records stored in the file, in order.
+     */
+    List<ShapeRecord> getShapes() {
+        return Collections.unmodifiableList(shapes);
+    }
+
+    /**
+     * @param list A shape display list.
+     * @return true if the records in effect in the list are exactly the ones stored in the file.
+     */
+    boolean hasSameShapes(ShapeDisplayList list) {
+        if (list.size() != shapes.size()) {
+            return false;
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            if (list.get(i) != shapes.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the file. Tiles in the mapped part of the file can still be loaded until the project is no
+     * longer referenced, so a snapshot being exported keeps reading a file a save has just replaced.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing project: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the header and the index it points to.
+     */
+    private void readIndex() throws IOException {
+        remap();
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a JavaDraw project.");
+        }
+        int version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported project version.");
+        }
+        long indexOffset = header.getLong();
+        indexLength = header.getInt();
+        int checksum = header.getInt();
+        ByteBuffer index = read(indexOffset, indexLength);
+        CRC32 crc = new CRC32();
+        crc.update(index.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Project index is corrupt.");
+        }
+
+        width = index.getInt();
+        height = index.getInt();
+        tileSize = index.getInt();
+        int layerCount = index.getInt();
+        for (int i = 0; i < layerCount; i++) {
+            byte[] name = new byte[index.getShort()];
+            index.get(name);
+            layerNames.add(new String(name, StandardCharsets.UTF_8));
+            layerSettings.add(version >= LAYER_SETTINGS_VERSION ? readSettings(index) : LayerSettings.DEFAULT);
+            Map<Long, Chunk> layerChunks = new HashMap<>();
+            int tiles = index.getInt();
+            for (int t = 0; t < tiles; t++) {
+                int col = index.getInt(), row = index.getInt();
+                Chunk chunk = new Chunk(index.getLong(), index.getInt());
+                layerChunks.put(key(col, row), chunk);
+                liveBytes += chunk.length;
+            }
+            chunks.add(layerChunks);
+        }
+        int shapeCount = index.getInt();
+        shapes = new ArrayList<>(shapeCount);
+        for (int i = 0; i < shapeCount; i++) {
+            shapes.add(ShapeRecord.read(index));
+        }
+    }
+
+    /**
+     * Reads a layer's settings from the index. An unknown blend mode reads as normal.
+     */
+    private static LayerSettings readSettings(ByteBuffer index) {
+        boolean visible = index.get() != 0;
+        double opacity = index.getDouble();
+        byte[] mode = new byte[index.getShort()];
+        index.get(mode);
+        Layer.BlendMode blendMode = Layer.BlendMode.NORMAL;
+        for (Layer.BlendMode candidate : Layer.BlendMode.values()) {
+            if (candidate.name().equals(new String(mode, StandardCharsets.UTF_8))) {
+                blendMode = candidate;
+            }
+        }
+        return new LayerSettings(visible, opacity, blendMode);
+    }
+
+    /**
+     * Appends the written tiles and a new index to the file, then points the header to the new index.
+     */
+    private void append(List<PendingTile> written, List<ShapeRecord> records, List<LayerSettings> settings) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.set(i, new HashMap<>(chunks.get(i))); // Tile sources handed out keep reading the old maps
+        }
+        long position = channel.size();
+        for (PendingTile tile : written) {
+            Map<Long, Chunk> layerChunks = chunks.get(tile.layer);
+            Chunk replaced = layerChunks.remove(key(tile.col, tile.row));
+            if (replaced != null) {
+                liveBytes -= replaced.length;
+            }
+            if (tile.compressed != null) {
+                writeFully(channel, ByteBuffer.wrap(tile.compressed), position);
+                layerChunks.put(key(tile.col, tile.row), new Chunk(position, tile.compressed.length));
+                liveBytes += tile.compressed.length;
+                position += tile.compressed.length;
+            }
+        }
+        shapes = records;
+        for (int i = 0; i < Math.min(settings.size(), layerSettings.size()); i++) {
+            layerSettings.set(i, settings.get(i));
+        }
+        writeIndex(channel, position);
+        remap();
+    }
+
+    /**
+     * Writes a complete project to a temporary file and moves it over the target.
+     */
+    private static ProjectFile rewrite(ProjectFile previous, Path path, LayerStack layers, List<PendingTile> written,
+                                       List<ShapeRecord> records, List<LayerSettings> settings) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ProjectFile project = new ProjectFile(path, out);
+            project.width = layers.getWidth();
+            project.height = layers.getHeight();
+            project.tileSize = layers.getLayer(0).getPixels().getTileSize();
+            project.shapes = records;
+            for (int i = 0; i < layers.size(); i++) {
+                project.layerNames.add(layers.getLayer(i).getName());
+                project.layerSettings.add(settings.get(i));
+                project.chunks.add(new HashMap<>());
+            }
+
+            // Unchanged tiles keep their compressed bytes; written ones replace them
+            long position = HEADER_SIZE;
+            List<Map<Long, PendingTile>> byLayer = groupByLayer(written, layers.size());
+            if (previous != null) {
+                for (int i = 0; i < Math.min(layers.size(), previous.chunks.size()); i++) {
+                    for (Map.Entry<Long, Chunk> entry : previous.chunks.get(i).entrySet()) {
+                        if (byLayer.get(i).containsKey(entry.getKey())) {
+                            continue;
+                        }
+                        Chunk chunk = entry.getValue();
+                        writeFully(out, previous.read(chunk.offset, chunk.length), position);
+                        project.chunks.get(i).put(entry.getKey(), new Chunk(position, chunk.length));
+                        project.liveBytes += chunk.length;
+                        position += chunk.length;
+                    }
+                }
+            }
+            for (PendingTile tile : written) {
+                if (tile.compressed != null) {
+                    writeFully(out, ByteBuffer.wrap(tile.compressed), position);
+                    project.chunks.get(tile.layer).put(key(tile.col, tile.row), new Chunk(position, tile.compressed.length));
+                    project.liveBytes += tile.compressed.length;
+                    position += tile.compressed.length;
+                }
+            }
+            project.writeIndex(out, position);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        ProjectFile saved = open(path);
+        saved.shapes = records; // Keep the records themselves, so the document's list can be compared to them
+        return saved;
+    }
+
+    /**
+     * Groups the written tiles of each layer by their key.
+     */
+    private static List<Map<Long, PendingTile>> groupByLayer(List<PendingTile> written, int layerCount) {
+        List<Map<Long, PendingTile>> byLayer = new ArrayList<>(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            byLayer.add(new HashMap<>());
+        }
+        for (PendingTile tile : written) {
+            byLayer.get(tile.layer).put(key(tile.col, tile.row), tile);
+        }
+        return byLayer;
+    }
+
+    /**
+     * Writes the index at the given position, then the header pointing to it. Each is forced to disk
+     * before the next step, so the header never points to an incomplete index.
+     */
+    private void writeIndex(FileChannel out, long position) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        List<byte[]> modes = new ArrayList<>();
+        int size = 16 + 4 + shapes.size() * ShapeRecord.BYTES;
+        for (int i = 0; i < layerNames.size(); i++) {
+            byte[] name = layerNames.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] mode = layerSettings.get(i).blendMode.name().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            modes.add(mode);
+            size += 2 + name.length + 1 + 8 + 2 + mode.length + 4 + chunks.get(i).size() * ENTRY_SIZE;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(size);
+        index.putInt(width).putInt(height).putInt(tileSize).putInt(layerNames.size());
+        for (int i = 0; i < layerNames.size(); i++) {
+            LayerSettings settings = layerSettings.get(i);
+            index.putShort((short) names.get(i).length).put(names.get(i));
+            index.put((byte) (settings.visible ? 1 : 0)).putDouble(settings.opacity);
+            index.putShort((short) modes.get(i).length).put(modes.get(i));
+            index.putInt(chunks.get(i).size());
+            for (Map.Entry<Long, Chunk> entry : chunks.get(i).entrySet()) {
+                long key = entry.getKey();
+                index.putInt((int) key).putInt((int) (key >> 32)).putLong(entry.getValue().offset).putInt(entry.getValue().length);
+            }
+        }
+        index.putInt(shapes.size());
+        for (ShapeRecord record : shapes) {
+            record.write(index);
+        }
+        index.flip();
+        CRC32 crc = new CRC32();
+        crc.update(index.duplicate());
+        writeFully(out, index, position);
+        out.force(false);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(position).putInt(size).putInt((int) crc.getValue());
+        header.flip();
+        writeFully(out, header, 0);
+        out.force(false);
+        indexLength = size;
+    }
+
+    /**
+     * @return The bytes in the file taken by replaced chunks and old indexes.
+     */
+    private long garbageBytes() throws IOException {
+        return channel.size() - HEADER_SIZE - indexLength - liveBytes;
+    }
+
+    /**
+     * Makes a source for the tiles of a layer as the index lists them now. The source may be used from
+     * any thread: the map it reads is never changed, and the mapping and the channel allow concurrent reads.
+     * A layer's tiles that are still unloaded were not written since, so later saves do not move them.
+     */
+    private TiledSurface.TileSource source(int layer) {
+        Map<Long, Chunk> layerChunks = chunks.get(layer);
+        return (col, row) -> loadTile(layerChunks.get(key(col, row)));
+    }
+
+    /**
+     * Decodes a stored tile, on first use.
+     */
+    private int[] loadTile(Chunk chunk) {
+        try {
+            return PixelCodec.inflate(read(chunk.offset, chunk.length), tileSize * tileSize);
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            System.out.println("Error reading tile from project: " + e.getMessage());
+            return new int[tileSize * tileSize];
+        }
+    }
+
+    /**
+     * Maps the file into memory again after it grew. Files too large to map at once are mapped as far as possible;
+     * chunks beyond that are read from the channel.
+     */
+    private void remap() throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads a range of the file, from the mapping where possible.
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IOException("Project file is corrupt.");
+        }
+        ByteBuffer mapping = mapped;
+        if (offset + length <= mapping.capacity()) {
+            return mapping.slice((int) offset, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Project file is truncated.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a whole buffer at a position of a file.
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+    /**
+     * Packs a tile column and row into a map key, as {@link TiledSurface} does.
+     */
+    private static long key(int col, int row) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+}
@@ -0,0 +1,687 @@
+package com.example.finalturnin;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * ShapeDisplayList is the retained record of every shape drawn on the vector layer.
+ * Shapes are kept as small immutable records (type, geometry, stroke color, width and dash)
+ * and the layer is redrawn by replaying them, so shapes can be re-rendered at any offset
+ * and undone or redone by moving records instead of restoring pixels.
+ * <p>
+ * The shapes form a layer of their own between the image layer and the raster drawing layer:
+ * they keep their order among each other, but all raster strokes are drawn above all shapes.
+ * </p>
+ * <p>
+ * The bounding boxes of the shapes in effect are kept in a {@link SpatialIndex}, so redrawing
+ * a region, culling to the viewport and hit-testing only visit the shapes near the query.
+ * </p>
+ */
+final class ShapeDisplayList {
+    /**
+     * The kinds of records in the list. CLEAR hides every shape before it;
+     * ERASE hides the single shape whose index is stored in its count.
+     */
+    enum Kind {RECTANGLE, OVAL, TRIANGLE, STAR, POLYGON, CLEAR, ERASE}
+
+    /**
+     * Dash pattern used for dashed outlines.
+     */
+    static final double[] DASHES = {10};
+
+    /**
+     * The dash pattern for dashed outlines, for Java2D strokes.
+     */
+    private static final float[] AWT_DASHES = {10};
+
+    /**
+     * A single drawn shape. Rectangles and ovals use x, y, width and height as their bounds;
+     * triangles, stars and polygons use x and y as their center and width as their radius,
+     * with count holding the number of points or sides.
+     */
+    static final class ShapeRecord {
+        /**
+         * The number of bytes a record takes when written with {@link #write(ByteBuffer)}.
+         */
+        static final int BYTES = 78;
+
+        final Kind kind;
+        final double x, y, width, height;
+        final int count;
+        final Color stroke;
+        final double lineWidth;
+        final boolean dashed;
+
+        ShapeRecord(Kind kind, double x, double y, double width, double height, int count,
+                    Color stroke, double lineWidth, boolean dashed) {
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.count = count;
+            this.stroke = stroke;
+            this.lineWidth = lineWidth;
+            this.dashed = dashed;
+        }
+
+        /**
+         * Creates a copy of this record moved by the given offset.
+         *
+         * @param dx The horizontal offset.
+         * @param dy The vertical offset.
+         * @return The moved record.
+         */
+        ShapeRecord translate(double dx, double dy) {
+            return new ShapeRecord(kind, x + dx, y + dy, width, height, count, stroke, lineWidth, dashed);
+        }
+
+        /**
+         * Writes the record in a fixed binary layout of {@link #BYTES} bytes, as used by journals and project files.
+         *
+         * @param buffer The buffer receiving the record at its position.
+         */
+        void write(ByteBuffer buffer) {
+            buffer.put((byte) kind.ordinal())
+                    .putDouble(x).putDouble(y).putDouble(width).putDouble(height)
+                    .putInt(count)
+                    .putDouble(stroke.getRed()).putDouble(stroke.getGreen()).putDouble(stroke.getBlue()).putDouble(stroke.getOpacity())
+                    .putDouble(lineWidth).put((byte) (dashed ? 1 : 0));
+        }
+
+        /**
+         * Reads a record written by {@link #write(ByteBuffer)}.
+         *
+         * @param buffer The buffer holding the record at its position.
+         * @return The record.
+         * @throws IllegalArgumentException if the bytes do not hold a valid record.
+         */
+        static ShapeRecord read(ByteBuffer buffer) {
+            int ordinal = buffer.get();
+            Kind[] kinds = Kind.values();
+            if (ordinal < 0 || ordinal >= kinds.length) {
+                throw new IllegalArgumentException("Unknown shape kind " + ordinal);
+            }
+            Kind kind = kinds[ordinal];
+            double x = buffer.getDouble(), y = buffer.getDouble();
+            double width = buffer.getDouble(), height = buffer.getDouble();
+            int count = buffer.getInt();
+            Color stroke = new Color(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+            double lineWidth = buffer.getDouble();
+            boolean dashed = buffer.get() != 0;
+            return new ShapeRecord(kind, x, y, width, height, count, stroke, lineWidth, dashed);
+        }
+
+        /**
+         * Creates a record that clears every shape drawn before it.
+         *
+         * @return The clear record.
+         */
+        static ShapeRecord clear() {
+            return new ShapeRecord(Kind.CLEAR, 0, 0, 0, 0, 0, Color.TRANSPARENT, 0, false);
+        }
+
+        /**
+         * @return true if this record draws a shape, rather than hiding others.
+         */
+        boolean isShape() {
+            return kind != Kind.CLEAR && kind != Kind.ERASE;
+        }
+
+        /**
+         * @return The left edge of the area the shape's outline covers.
+         */
+        double minX() {
+            return (isCentered() ? x - width : x) - lineWidth / 2;
+        }
+
+        /**
+         * @return The top edge of the area the shape's outline covers.
+         */
+        double minY() {
+            return (isCentered() ? y - width : y) - lineWidth / 2;
+        }
+
+        /**
+         * @return The right edge of the area the shape's outline covers.
+         */
+        double maxX() {
+            return x + width + lineWidth / 2; // The radius, for centered shapes
+        }
+
+        /**
+         * @return The bottom edge of the area the shape's outline covers.
+         */
+        double maxY() {
+            return (isCentered() ? y + width : y + height) + lineWidth / 2;
+        }
+
+        /**
+         * @return true if x and y are the center and width the radius.
+         */
+        private boolean isCentered() {
+            return kind == Kind.TRIANGLE || kind == Kind.STAR || kind == Kind.POLYGON;
+        }
+    }
+
+    /**
+     * All records, including undone ones that can still be redone.
+     */
+    private final List<ShapeRecord> records = new ArrayList<>();
+
+    /**
+     * The number of records currently in effect; records at or after this index are undone.
+     */
+    private int size;
+
+    /**
+     * The bounding boxes of the visible shapes, keyed by record index.
+     */
+    private SpatialIndex<Integer> index;
+
+    /**
+     * The indexes that were in effect before each CLEAR record in effect, newest first. A CLEAR starts
+     * a new, empty index, so the shapes it hides are not visited by queries until it is undone.
+     */
+    private final Deque<SpatialIndex<Integer>> cleared = new ArrayDeque<>();
+
+    /**
+     * The size of the indexed area.
+     */
+    private double width, height;
+
+    /**
+     * Reusable buffer for the record indices returned by index queries.
+     */
+    private final List<Integer> visible = new ArrayList<>();
+
+    /**
+     * Reusable vertex buffers for stars, triangles and polygons.
+     */
+    private double[] xPoints = new double[64], yPoints = new double[64];
+
+    /**
+     * Creates an empty list for a document of the given size.
+     *
+     * @param width  The width of the document.
+     * @param height The height of the document.
+     */
+    ShapeDisplayList(double width, double height) {
+        this.width = width;
+        this.height = height;
+        index = new SpatialIndex<>(width, height);
+    }
+
+    /**
+     * Appends a record, discarding any undone records.
+     *
+     * @param record The record to add.
+     */
+    void add(ShapeRecord record) {
+        discardRedo();
+        records.add(record);
+        apply(size++);
+    }
+
+    /**
+     * Hides a shape by appending an ERASE record for it.
+     *
+     * @param target The index of the shape to hide.
+     */
+    void erase(int target) {
+        add(new ShapeRecord(Kind.ERASE, 0, 0, 0, 0, target, Color.TRANSPARENT, 0, false));
+    }
+
+    /**
+     * Removes the most recent record from the drawing; it can be brought back with {@link #redo()}.
+     *
+     * @return true if a record was undone.
+     */
+    boolean undo() {
+        if (size == 0) {
+            return false;
+        }
+        unapply(--size);
+        return true;
+    }
+
+    /**
+     * Brings back the most recently undone record.
+     *
+     * @return true if a record was redone.
+     */
+    boolean redo() {
+        if (size == records.size()) {
+            return false;
+        }
+        apply(size++);
+        return true;
+    }
+
+    /**
+     * Drops all undone records so they can no longer be redone.
+     */
+    void discardRedo() {
+        records.subList(size, records.size()).clear();
+    }
+
+    /**
+     * Removes every record, including the redo history, and resizes the indexed area.
+     *
+     * @param width  The width of the document.
+     * @param height The height of the document.
+     */
+    void reset(double width, double height) {
+        records.clear();
+        size = 0;
+        cleared.clear();
+        this.width = width;
+        this.height = height;
+        index = new SpatialIndex<>(width, height);
+    }
+
+    /**
+     * @return The number of records currently in effect.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i The index of a record.
+     * @return The record.
+     */
+    ShapeRecord get(int i) {
+        return records.get(i);
+    }
+
+    /**
+     * Copies the visible shapes, in drawing order, into a new list with no history.
+     * The records are immutable and shared, so the copy is cheap and can be rendered with Java2D
+     * on another thread while this list keeps changing.
+     *
+     * @return A list holding only the visible shapes.
+     */
+    ShapeDisplayList copyVisible() {
+        ShapeDisplayList copy = new ShapeDisplayList(width, height);
+        collectVisible(0, 0, width, height);
+        for (int i : visible) {
+            copy.add(records.get(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Updates the index for a record coming into effect.
+     */
+    private void apply(int i) {
+        ShapeRecord record = records.get(i);
+        if (record.kind == Kind.CLEAR) {
+            cleared.push(index);
+            index = new SpatialIndex<>(width, height);
+        } else if (record.kind == Kind.ERASE) {
+            index.remove(record.count);
+        } else {
+            index.insert(i, record.minX(), record.minY(), record.maxX(), record.maxY());
+        }
+    }
+
+    /**
+     * Reverts {@link #apply(int)} for a record going out of effect.
+     */
+    private void unapply(int i) {
+        ShapeRecord record = records.get(i);
+        if (record.kind == Kind.CLEAR) {
+            index = cleared.pop();
+        } else if (record.kind == Kind.ERASE) {
+            ShapeRecord target = records.get(record.count);
+            index.insert(record.count, target.minX(), target.minY(), target.maxX(), target.maxY());
+        } else {
+            index.remove(i);
+        }
+    }
+
+    /**
+     * Clears the layer and replays the visible shapes that intersect it.
+     *
+     * @param gc      The graphics context of the vector layer.
+     * @param offsetX The document x-coordinate drawn at the layer's left edge.
+     * @param offsetY The document y-coordinate drawn at the layer's top edge.
+     * @param width   The width of the layer.
+     * @param height  The height of the layer.
+     */
+    void render(GraphicsContext gc, double offsetX, double offsetY, double width, double height) {
+        gc.clearRect(0, 0, width, height);
+        replay(gc, offsetX, offsetY, offsetX, offsetY, offsetX + width, offsetY + height);
+    }
+
+    /**
+     * Redraws one region of the layer, replaying only the shapes that intersect it.
+     *
+     * @param gc      The graphics context of the vector layer.
+     * @param offsetX The document x-coordinate drawn at the layer's left edge.
+     * @param offsetY The document y-coordinate drawn at the layer's top edge.
+     * @param minX    The left edge of the region, in document coordinates.
+     * @param minY    The top edge of the region, in document coordinates.
+     * @param maxX    The right edge of the region, in document coordinates.
+     * @param maxY    The bottom edge of the region, in document coordinates.
+     */
+    void renderRegion(GraphicsContext gc, double offsetX, double offsetY, double minX, double minY, double maxX, double maxY) {
+        // Pixel-align the region so antialiased edges are fully cleared and redrawn
+        minX = Math.floor(minX) - 1;
+        minY = Math.floor(minY) - 1;
+        maxX = Math.ceil(maxX) + 1;
+        maxY = Math.ceil(maxY) + 1;
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(minX - offsetX, minY - offsetY, maxX - minX, maxY - minY);
+        gc.clip();
+        gc.clearRect(minX - offsetX, minY - offsetY, maxX - minX, maxY - minY);
+        replay(gc, offsetX, offsetY, minX, minY, maxX, maxY);
+        gc.restore();
+    }
+
+    /**
+     * Draws the most recent record on top of the layer without redrawing anything else.
+     *
+     * @param gc      The graphics context of the vector layer.
+     * @param offsetX The document x-coordinate drawn at the layer's left edge.
+     * @param offsetY The document y-coordinate drawn at the layer's top edge.
+     */
+    void renderLast(GraphicsContext gc, double offsetX, double offsetY) {
+        if (size == 0 || !records.get(size - 1).isShape()) {
+            return;
+        }
+        ShapeRecord record = records.get(size - 1);
+        gc.save();
+        gc.translate(-offsetX, -offsetY);
+        gc.setStroke(record.stroke);
+        gc.setLineWidth(record.lineWidth);
+        gc.setLineDashes(record.dashed ? DASHES : null);
+        draw(gc, record);
+        gc.restore();
+    }
+
+    /**
+     * Draws the visible shapes that intersect a region with Java2D, so the shapes can be rendered
+     * into a BufferedImage without a JavaFX stage or the FX thread. Strokes match the canvas
+     * defaults: square caps, mitered joins and the same dash pattern.
+     *
+     * @param g       The graphics to draw with; its transform and stroke are restored afterwards.
+     * @param offsetX The document x-coordinate drawn at the left edge.
+     * @param offsetY The document y-coordinate drawn at the top edge.
+     * @param width   The width of the region.
+     * @param height  The height of the region.
+     */
+    void render(Graphics2D g, double offsetX, double offsetY, double width, double height) {
+        collectVisible(offsetX, offsetY, offsetX + width, offsetY + height);
+
+        AffineTransform transform = g.getTransform();
+        Stroke stroke = g.getStroke();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.translate(-offsetX, -offsetY);
+        for (int i : visible) {
+            ShapeRecord record = records.get(i);
+            Color color = record.stroke;
+            g.setColor(new java.awt.Color((float) color.getRed(), (float) color.getGreen(), (float) color.getBlue(), (float) color.getOpacity()));
+            g.setStroke(new BasicStroke((float) record.lineWidth, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10,
+                    record.dashed ? AWT_DASHES : null, 0));
+            g.draw(outline(record));
+        }
+        g.setTransform(transform);
+        g.setStroke(stroke);
+    }
+
+    /**
+     * Checks the shape index for visible shapes whose bounds, stroke included, intersect a region.
+     *
+     * @param minX The left edge of the region in document coordinates.
+     * @param minY The top edge of the region.
+     * @param maxX The right edge of the region.
+     * @param maxY The bottom edge of the region.
+     * @return true if any visible shape may cover part of the region.
+     */
+    boolean hasVisible(double minX, double minY, double maxX, double maxY) {
+        collectVisible(minX, minY, maxX, maxY);
+        return !visible.isEmpty();
+    }
+
+    /**
+     * Builds the Java2D outline of a shape.
+     */
+    private Shape outline(ShapeRecord record) {
+        switch (record.kind) {
+            case RECTANGLE:
+                return new Rectangle2D.Double(record.x, record.y, record.width, record.height);
+            case OVAL:
+                return new Ellipse2D.Double(record.x, record.y, record.width, record.height);
+            default: {
+                int n = vertices(record);
+                Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, n);
+                path.moveTo(xPoints[0], yPoints[0]);
+                for (int i = 1; i < n; i++) {
+                    path.lineTo(xPoints[i], yPoints[i]);
+                }
+                path.closePath();
+                return path;
+            }
+        }
+    }
+
+    /**
+     * Finds the topmost visible shape whose outline passes within a distance of a point.
+     *
+     * @param x         The x-coordinate of the point, in document coordinates.
+     * @param y         The y-coordinate of the point, in document coordinates.
+     * @param tolerance How far from the outline the point may be.
+     * @return The index of the shape, or -1 if no outline is close enough.
+     */
+    int hitTest(double x, double y, double tolerance) {
+        collectVisible(x - tolerance, y - tolerance, x + tolerance, y + tolerance);
+        for (int i = visible.size() - 1; i >= 0; i--) {
+            ShapeRecord record = records.get(visible.get(i));
+            if (distanceToOutline(record, x, y) <= tolerance + record.lineWidth / 2) {
+                return visible.get(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replays, in drawing order, the visible shapes that intersect a region.
+     */
+    private void replay(GraphicsContext gc, double offsetX, double offsetY, double minX, double minY, double maxX, double maxY) {
+        collectVisible(minX, minY, maxX, maxY);
+
+        gc.save();
+        gc.translate(-offsetX, -offsetY);
+        Color currentStroke = null;
+        double currentWidth = -1;
+        Boolean currentDashed = null;
+        for (int i : visible) {
+            ShapeRecord record = records.get(i);
+
+            // Only touch the graphics state when it actually changes between records
+            if (record.stroke != currentStroke) {
+                gc.setStroke(record.stroke);
+                currentStroke = record.stroke;
+            }
+            if (record.lineWidth != currentWidth) {
+                gc.setLineWidth(record.lineWidth);
+                currentWidth = record.lineWidth;
+            }
+            if (currentDashed == null || record.dashed != currentDashed) {
+                gc.setLineDashes(record.dashed ? DASHES : null);
+                currentDashed = record.dashed;
+            }
+            draw(gc, record);
+        }
+        gc.restore();
+    }
+
+    /**
+     * Collects the indices of the visible shapes intersecting a region, in drawing order.
+     */
+    private void collectVisible(double minX, double minY, double maxX, double maxY) {
+        visible.clear();
+        index.query(minX, minY, maxX, maxY, visible::add);
+        visible.sort(null);
+    }
+
+    /**
+     * Strokes a single record with the current graphics state.
+     */
+    private void draw(GraphicsContext gc, ShapeRecord record) {
+        if (record.isCentered()) {
+            ensureCapacity(vertexCount(record));
+        }
+        strokeShape(gc, record, xPoints, yPoints);
+    }
+
+    /**
+     * Strokes a single shape with the current graphics state.
+     *
+     * @param gc      The graphics context to draw on.
+     * @param record  The shape to draw.
+     * @param xPoints Buffer for the x-coordinates of a triangle, star or polygon; must hold {@link #vertexCount(ShapeRecord)} entries.
+     * @param yPoints Buffer for the y-coordinates of a triangle, star or polygon; must hold {@link #vertexCount(ShapeRecord)} entries.
+     */
+    static void strokeShape(GraphicsContext gc, ShapeRecord record, double[] xPoints, double[] yPoints) {
+        switch (record.kind) {
+            case RECTANGLE:
+                gc.strokeRect(record.x, record.y, record.width, record.height);
+                break;
+            case OVAL:
+                gc.strokeOval(record.x, record.y, record.width, record.height);
+                break;
+            case TRIANGLE:
+            case STAR:
+            case POLYGON:
+                gc.strokePolygon(xPoints, yPoints, vertices(record, xPoints, yPoints));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Computes the distance from a point to the outline of a shape.
+     * Ovals use a radial approximation, which is exact for circles.
+     */
+    private double distanceToOutline(ShapeRecord record, double px, double py) {
+        switch (record.kind) {
+            case RECTANGLE: {
+                double x0 = record.x, y0 = record.y, x1 = record.x + record.width, y1 = record.y + record.height;
+                double dx = Math.max(Math.max(x0 - px, px - x1), 0);
+                double dy = Math.max(Math.max(y0 - py, py - y1), 0);
+                if (dx > 0 || dy > 0) {
+                    return Math.hypot(dx, dy); // Outside: distance to the nearest edge or corner
+                }
+                return Math.min(Math.min(px - x0, x1 - px), Math.min(py - y0, y1 - py));
+            }
+            case OVAL: {
+                double a = record.width / 2, b = record.height / 2;
+                if (a <= 0 || b <= 0) {
+                    return Math.hypot(px - (record.x + a), py - (record.y + b));
+                }
+                double r = Math.hypot((px - record.x - a) / a, (py - record.y - b) / b);
+                return Math.abs(r - 1) * Math.min(a, b);
+            }
+            case TRIANGLE:
+            case STAR:
+            case POLYGON: {
+                int n = vertices(record);
+                double best = Double.MAX_VALUE;
+                for (int i = 0; i < n; i++) {
+                    int j = (i + 1) % n;
+                    best = Math.min(best, distanceToSegment(px, py, xPoints[i], yPoints[i], xPoints[j], yPoints[j]));
+                }
+                return best;
+            }
+            default:
+                return Double.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Computes the distance from a point to a line segment.
+     */
+    private static double distanceToSegment(double px, double py, double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x0) * dx + (py - y0) * dy) / lengthSquared));
+        return Math.hypot(px - (x0 + t * dx), py - (y0 + t * dy));
+    }
+
+    /**
+     * Fills the vertex buffers with the outline of a triangle, star or polygon.
+     *
+     * @return The number of vertices.
+     */
+    private int vertices(ShapeRecord record) {
+        int n = vertexCount(record);
+        ensureCapacity(n);
+        return vertices(record, xPoints, yPoints);
+    }
+
+    /**
+     * @param record A triangle, star or polygon.
+     * @return The number of vertices of its outline.
+     */
+    static int vertexCount(ShapeRecord record) {
+        switch (record.kind) {
+            case TRIANGLE:
+                return 3;
+            case STAR:
+                return record.count * 2;
+            default:
+                return record.count;
+        }
+    }
+
+    /**
+     * Computes the outline of a triangle, star or polygon from the cached unit tables of {@link ShapeGeometry}.
+     *
+     * @param record  A triangle, star or polygon.
+     * @param xPoints Receives the x-coordinates; must hold at least {@link #vertexCount(ShapeRecord)} entries.
+     * @param yPoints Receives the y-coordinates; must hold at least {@link #vertexCount(ShapeRecord)} entries.
+     * @return The number of vertices.
+     */
+    static int vertices(ShapeRecord record, double[] xPoints, double[] yPoints) {
+        switch (record.kind) {
+            case TRIANGLE:
+                return ShapeGeometry.triangle(record.x, record.y, record.width, xPoints, yPoints);
+            case STAR:
+                return ShapeGeometry.star(record.x, record.y, record.width, record.count, xPoints, yPoints);
+            default:
+                return ShapeGeometry.polygon(record.x, record.y, record.width, record.count, xPoints, yPoints);
+        }
+    }
+
+    /**
+     * Grows the vertex buffers so they hold at least the given number of points.
+     */
+    private void ensureCapacity(int points) {
+        if (xPoints.length < points) {
+            xPoints = new double[points];
+            yPoints = new double[points];
+        }
+    }
+}
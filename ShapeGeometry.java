@@ -0,0 +1,169 @@
+package com.example.finalturnin;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ShapeGeometry caches the outlines of triangles, stars and regular polygons as unit vertex tables:
+ * the vertices of the shape with radius 1 around the origin, computed once per point or side count.
+ * Placing a shape only scales and translates its table into the caller's buffers, so drawing,
+ * previewing or hit-testing a shape makes no trigonometric calls and allocates nothing.
+ * The tables are immutable and safe to share between threads.
+ */
+final class ShapeGeometry {
+    /**
+     * Counts up to this value are looked up in an array rather than a map.
+     */
+    private static final int DIRECT_LIMIT = 256;
+
+    /**
+     * The vertices of a shape with radius 1 around the origin.
+     */
+    private static final class UnitTable {
+        private final double[] x, y;
+
+        private UnitTable(double[] x, double[] y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * The triangle, pointing up.
+     */
+    private static final UnitTable TRIANGLE = triangleTable();
+
+    /**
+     * Star tables indexed by number of points, filled on first use.
+     * Races only compute the same table twice: a table's fields are final, so it is safely published.
+     */
+    private static final UnitTable[] stars = new UnitTable[DIRECT_LIMIT];
+
+    /**
+     * Polygon tables indexed by number of sides, filled on first use.
+     */
+    private static final UnitTable[] polygons = new UnitTable[DIRECT_LIMIT];
+
+    /**
+     * Star and polygon tables for larger counts; stars are keyed by the negated number of points.
+     */
+    private static final ConcurrentHashMap<Integer, UnitTable> large = new ConcurrentHashMap<>();
+
+    private ShapeGeometry() {
+    }
+
+    /**
+     * Computes the vertices of an equilateral triangle pointing up.
+     *
+     * @param centerX The x-coordinate of the center.
+     * @param centerY The y-coordinate of the center.
+     * @param radius  The distance from the center to each vertex.
+     * @param xPoints Receives the x-coordinates; must hold at least 3 entries.
+     * @param yPoints Receives the y-coordinates; must hold at least 3 entries.
+     * @return The number of vertices, 3.
+     */
+    static int triangle(double centerX, double centerY, double radius, double[] xPoints, double[] yPoints) {
+        return place(TRIANGLE, centerX, centerY, radius, xPoints, yPoints);
+    }
+
+    /**
+     * Computes the vertices of a star whose inner radius is half its outer radius.
+     *
+     * @param centerX   The x-coordinate of the center.
+     * @param centerY   The y-coordinate of the center.
+     * @param radius    The outer radius.
+     * @param numPoints The number of points.
+     * @param xPoints   Receives the x-coordinates; must hold at least {@code numPoints * 2} entries.
+     * @param yPoints   Receives the y-coordinates; must hold at least {@code numPoints * 2} entries.
+     * @return The number of vertices, {@code numPoints * 2}.
+     */
+    static int star(double centerX, double centerY, double radius, int numPoints, double[] xPoints, double[] yPoints) {
+        UnitTable table;
+        if (numPoints < DIRECT_LIMIT) {
+            table = stars[numPoints];
+            if (table == null) {
+                table = stars[numPoints] = starTable(numPoints);
+            }
+        } else {
+            table = large.computeIfAbsent(-numPoints, key -> starTable(numPoints));
+        }
+        return place(table, centerX, centerY, radius, xPoints, yPoints);
+    }
+
+    /**
+     * Computes the vertices of a regular polygon with its first vertex to the right of the center.
+     *
+     * @param centerX The x-coordinate of the center.
+     * @param centerY The y-coordinate of the center.
+     * @param radius  The distance from the center to each vertex.
+     * @param sides   The number of sides.
+     * @param xPoints Receives the x-coordinates; must hold at least {@code sides} entries.
+     * @param yPoints Receives the y-coordinates; must hold at least {@code sides} entries.
+     * @return The number of vertices, {@code sides}.
+     */
+    static int polygon(double centerX, double centerY, double radius, int sides, double[] xPoints, double[] yPoints) {
+        UnitTable table;
+        if (sides < DIRECT_LIMIT) {
+            table = polygons[sides];
+            if (table == null) {
+                table = polygons[sides] = polygonTable(sides);
+            }
+        } else {
+            table = large.computeIfAbsent(sides, key -> polygonTable(sides));
+        }
+        return place(table, centerX, centerY, radius, xPoints, yPoints);
+    }
+
+    /**
+     * Scales a unit table by the radius and moves it to the center.
+     */
+    private static int place(UnitTable table, double centerX, double centerY, double radius, double[] xPoints, double[] yPoints) {
+        double[] x = table.x, y = table.y;
+        int n = x.length;
+        for (int i = 0; i < n; i++) {
+            xPoints[i] = centerX + radius * x[i];
+            yPoints[i] = centerY + radius * y[i];
+        }
+        return n;
+    }
+
+    /**
+     * Builds the triangle table.
+     */
+    private static UnitTable triangleTable() {
+        double[] x = new double[3], y = new double[3];
+        for (int i = 0; i < 3; i++) {
+            double angle = Math.toRadians(120 * i - 90); // -90 to start the first point at the top
+            x[i] = Math.cos(angle);
+            y[i] = Math.sin(angle);
+        }
+        return new UnitTable(x, y);
+    }
+
+    /**
+     * Builds the table of a star, alternating between outer and inner vertices.
+     */
+    private static UnitTable starTable(int numPoints) {
+        double[] x = new double[numPoints * 2], y = new double[numPoints * 2];
+        for (int i = 0; i < numPoints * 2; i++) {
+            double angle = Math.toRadians(i * 180.0 / numPoints); // Angle step depends on number of points
+            double r = (i % 2 == 0) ? 1 : 0.5; // Alternate between outer and inner radius
+            x[i] = r * Math.cos(angle);
+            y[i] = -r * Math.sin(angle);
+        }
+        return new UnitTable(x, y);
+    }
+
+    /**
+     * Builds the table of a regular polygon.
+     */
+    private static UnitTable polygonTable(int sides) {
+        double[] x = new double[sides], y = new double[sides];
+        double angleStep = 2 * Math.PI / sides;
+        for (int i = 0; i < sides; i++) {
+            double angle = i * angleStep;
+            x[i] = Math.cos(angle);
+            y[i] = Math.sin(angle);
+        }
+        return new UnitTable(x, y);
+    }
+}
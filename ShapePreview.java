@@ -0,0 +1,120 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * ShapePreview shows the shape being dragged out on a transient overlay canvas above the drawing.
+ * Drag events only store the latest shape; once per pulse the overlay erases the previous preview's
+ * bounds and strokes the new one, so however fast events arrive the cost per frame is one small
+ * clear and one stroke. Nothing is drawn on the document, and the undo history never sees the preview.
+ */
+final class ShapePreview {
+    /**
+     * Extra margin cleared around a preview, in line widths, to cover mitered corners.
+     */
+    private static final double MITER_MARGIN = 5;
+
+    /**
+     * The overlay canvas the preview is drawn on.
+     */
+    private final GraphicsContext gc;
+
+    /**
+     * The shape to show on the next pulse, in canvas coordinates, or null to show nothing.
+     */
+    private ShapeRecord pending;
+
+    /**
+     * Whether the pending shape differs from what the overlay shows.
+     */
+    private boolean changed;
+
+    /**
+     * The bounds of what the overlay shows, or an empty area if it is clear.
+     */
+    private double shownMinX, shownMinY, shownMaxX, shownMaxY;
+
+    /**
+     * Reusable vertex buffers for stars, triangles and polygons.
+     */
+    private double[] xPoints = new double[64], yPoints = new double[64];
+
+    /**
+     * Redraws the overlay once per pulse while a preview is shown.
+     */
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (changed) {
+                redraw();
+            }
+            if (pending == null) {
+                stop(); // Cleared; nothing to do until the next drag
+            }
+        }
+    };
+
+    /**
+     * Creates a preview drawn on the given overlay canvas.
+     *
+     * @param overlay The canvas above the drawing; it should be mouse transparent.
+     */
+    ShapePreview(Canvas overlay) {
+        gc = overlay.getGraphicsContext2D();
+    }
+
+    /**
+     * Shows a shape on the next pulse, replacing any shape shown before.
+     *
+     * @param record The shape, in canvas coordinates.
+     */
+    void show(ShapeRecord record) {
+        pending = record;
+        changed = true;
+        timer.start();
+    }
+
+    /**
+     * Removes the preview on the next pulse.
+     */
+    void hide() {
+        if (pending != null) {
+            pending = null;
+            changed = true;
+        }
+    }
+
+    /**
+     * Erases the previous preview and strokes the pending one.
+     */
+    private void redraw() {
+        changed = false;
+        if (shownMaxX > shownMinX) {
+            gc.clearRect(shownMinX, shownMinY, shownMaxX - shownMinX, shownMaxY - shownMinY);
+            shownMinX = shownMinY = shownMaxX = shownMaxY = 0;
+        }
+        ShapeRecord record = pending;
+        if (record == null) {
+            return;
+        }
+
+        int points = ShapeDisplayList.vertexCount(record);
+        if (xPoints.length < points) {
+            xPoints = new double[points];
+            yPoints = new double[points];
+        }
+        gc.setStroke(record.stroke);
+        gc.setLineWidth(record.lineWidth);
+        gc.setLineDashes(record.dashed ? ShapeDisplayList.DASHES : null);
+        ShapeDisplayList.strokeShape(gc, record, xPoints, yPoints);
+
+        double margin = record.lineWidth * MITER_MARGIN + 1;
+        shownMinX = Math.floor(record.minX() - margin);
+        shownMinY = Math.floor(record.minY() - margin);
+        shownMaxX = Math.ceil(record.maxX() + margin);
+        shownMaxY = Math.ceil(record.maxY() + margin);
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.finalturnin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * SpatialIndex is a quadtree over the bounding boxes of drawn objects.
+ * Each item is stored in the smallest node whose quadrant fully contains its box, so point and
+ * rectangle queries only visit the branches that overlap the query, and items can be inserted
+ * and removed one at a time. Items that reach outside the indexed area are kept at the root.
+ *
+ * @param <T> The type of the indexed items. Items are identified by equals and hashCode.
+ */
+final class SpatialIndex<T> {
+    /**
+     * The number of items a node holds before it is split into quadrants.
+     */
+    private static final int MAX_ITEMS = 8;
+
+    /**
+     * The deepest level a node can be split to.
+     */
+    private static final int MAX_DEPTH = 12;
+
+    /**
+     * An indexed item with its bounding box.
+     */
+    private static final class Entry<T> {
+        private final T item;
+        private final double minX, minY, maxX, maxY;
+
+        private Entry(T item, double minX, double minY, double maxX, double maxY) {
+            this.item = item;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+    }
+
+    /**
+     * A quadrant of the indexed area.
+     */
+    private static final class Node<T> {
+        private final double minX, minY, maxX, maxY;
+        private final int depth;
+        private final List<Entry<T>> entries = new ArrayList<>();
+        private Node<T>[] children;
+
+        private Node(double minX, double minY, double maxX, double maxY, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.depth = depth;
+        }
+
+        private boolean contains(Entry<T> entry) {
+            return entry.minX >= minX && entry.maxX <= maxX && entry.minY >= minY && entry.maxY <= maxY;
+        }
+
+        private boolean intersects(double qMinX, double qMinY, double qMaxX, double qMaxY) {
+            return qMinX <= maxX && qMaxX >= minX && qMinY <= maxY && qMaxY >= minY;
+        }
+    }
+
+    /**
+     * The node covering the whole indexed area.
+     */
+    private final Node<T> root;
+
+    /**
+     * The node each item is stored in, for removal without a search.
+     */
+    private final Map<T, Node<T>> locations = new HashMap<>();
+
+    /**
+     * Creates an empty index covering the given area.
+     *
+     * @param width  The width of the indexed area, starting at x = 0.
+     * @param height The height of the indexed area, starting at y = 0.
+     */
+    SpatialIndex(double width, double height) {
+        root = new Node<>(0, 0, width, height, 0);
+    }
+
+    /**
+     * @return The number of indexed items.
+     */
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * Adds an item with the given bounding box. An item that is already indexed is moved to the new box.
+     *
+     * @param item The item to add.
+     * @param minX The left edge of its box.
+     * @param minY The top edge of its box.
+     * @param maxX The right edge of its box.
+     * @param maxY The bottom edge of its box.
+     */
+    void insert(T item, double minX, double minY, double maxX, double maxY) {
+        remove(item);
+        Entry<T> entry = new Entry<>(item, minX, minY, maxX, maxY);
+
+        Node<T> node = root;
+        while (true) {
+            if (node.children == null) {
+                node.entries.add(entry);
+                locations.put(item, node);
+                if (node.entries.size() > MAX_ITEMS && node.depth < MAX_DEPTH) {
+                    split(node);
+                }
+                return;
+            }
+            Node<T> child = childContaining(node, entry);
+            if (child == null) {
+                node.entries.add(entry); // Straddles the quadrants of this node
+                locations.put(item, node);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     *
+     * @param item The item to remove.
+     * @return true if the item was indexed.
+     */
+    boolean remove(T item) {
+        Node<T> node = locations.remove(item);
+        if (node == null) {
+            return false;
+        }
+        node.entries.removeIf(entry -> entry.item.equals(item));
+        return true;
+    }
+
+    /**
+     * Removes every item.
+     */
+    void clear() {
+        locations.clear();
+        root.entries.clear();
+        root.children = null;
+    }
+
+    /**
+     * Reports every item whose box intersects the given rectangle.
+     *
+     * @param minX   The left edge of the rectangle.
+     * @param minY   The top edge of the rectangle.
+     * @param maxX   The right edge of the rectangle.
+     * @param maxY   The bottom edge of the rectangle.
+     * @param action Receives each matching item, in no particular order.
+     */
+    void query(double minX, double minY, double maxX, double maxY, Consumer<T> action) {
+        query(root, minX, minY, maxX, maxY, action);
+    }
+
+    /**
+     * Reports every item whose box contains the given point.
+     *
+     * @param x      The x-coordinate of the point.
+     * @param y      The y-coordinate of the point.
+     * @param action Receives each matching item, in no particular order.
+     */
+    void queryPoint(double x, double y, Consumer<T> action) {
+        query(root, x, y, x, y, action);
+    }
+
+    /**
+     * Visits a node and the children that overlap the query. The root is always visited,
+     * as it also holds the items that reach outside the indexed area.
+     */
+    private void query(Node<T> node, double minX, double minY, double maxX, double maxY, Consumer<T> action) {
+        for (Entry<T> entry : node.entries) {
+            if (entry.minX <= maxX && entry.maxX >= minX && entry.minY <= maxY && entry.maxY >= minY) {
+                action.accept(entry.item);
+            }
+        }
+        if (node.children != null) {
+            for (Node<T> child : node.children) {
+                if (child.intersects(minX, minY, maxX, maxY)) {
+                    query(child, minX, minY, maxX, maxY, action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a leaf into four quadrants and moves down the entries that fit in one of them.
+     */
+    @SuppressWarnings("unchecked")
+    private void split(Node<T> node) {
+        double midX = (node.minX + node.maxX) / 2;
+        double midY = (node.minY + node.maxY) / 2;
+        int depth = node.depth + 1;
+        node.children = (Node<T>[]) new Node<?>[]{
+                new Node<>(node.minX, node.minY, midX, midY, depth),
+                new Node<>(midX, node.minY, node.maxX, midY, depth),
+                new Node<>(node.minX, midY, midX, node.maxY, depth),
+                new Node<>(midX, midY, node.maxX, node.maxY, depth)
+        };
+
+        List<Entry<T>> entries = new ArrayList<>(node.entries);
+        node.entries.clear();
+        for (Entry<T> entry : entries) {
+            Node<T> child = childContaining(node, entry);
+            Node<T> target = child != null ? child : node;
+            target.entries.add(entry);
+            locations.put(entry.item, target);
+        }
+    }
+
+    /**
+     * Finds the quadrant of a node that fully contains an entry.
+     *
+     * @return The quadrant, or null if the entry straddles several of them.
+     */
+    private Node<T> childContaining(Node<T> node, Entry<T> entry) {
+        for (Node<T> child : node.children) {
+            if (child.contains(entry)) {
+                return child;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.finalturnin;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+
+/**
+ * StrokeRenderer draws freehand strokes incrementally.
+ * Each mouse event strokes only the newest piece of the path, so the cost of an event stays the same
+ * no matter how long the stroke already is. Pieces are quadratic curves between the midpoints of
+ * consecutive segments with round caps, so they join smoothly without gaps or spikes.
+ * <p>
+ * The time spent on each mouse event is recorded by the tool handler events of {@link Metrics},
+ * together with the number of pieces the stroke had by then, so the latency can be plotted against
+ * the length of the stroke; the metrics overlay shows the frame time.
+ * </p>
+ */
+final class StrokeRenderer {
+    /**
+     * The graphics context of the stroke in progress, or null when no stroke is in progress.
+     */
+    private GraphicsContext gc;
+
+    /**
+     * Receives the area covered by each piece of the stroke in progress.
+     */
+    private DamageRegion damage;
+
+    /**
+     * The last point received.
+     */
+    private double lastX, lastY;
+
+    /**
+     * The midpoint where the previously drawn piece ended.
+     */
+    private double midX, midY;
+
+    /**
+     * The number of pieces drawn in the current or last stroke.
+     */
+    private int segments;
+
+    /**
+     * The line cap to restore once the stroke ends.
+     */
+    private StrokeLineCap savedCap;
+
+    /**
+     * The line join to restore once the stroke ends.
+     */
+    private StrokeLineJoin savedJoin;
+
+    /**
+     * Starts a new stroke at the given point.
+     *
+     * @param gc     The graphics context to draw on.
+     * @param damage Receives the area covered by each piece as it is drawn.
+     * @param x      The x-coordinate of the first point.
+     * @param y      The y-coordinate of the first point.
+     */
+    void beginStroke(GraphicsContext gc, DamageRegion damage, double x, double y) {
+        this.gc = gc;
+        this.damage = damage;
+        savedCap = gc.getLineCap();
+        savedJoin = gc.getLineJoin();
+        gc.setLineCap(StrokeLineCap.ROUND); // Round caps make the pieces overlap seamlessly
+        gc.setLineJoin(StrokeLineJoin.ROUND);
+
+        lastX = midX = x;
+        lastY = midY = y;
+        segments = 0;
+    }
+
+    /**
+     * Extends the stroke to the given point, drawing only the newest piece.
+     *
+     * @param x The x-coordinate of the new point.
+     * @param y The y-coordinate of the new point.
+     */
+    void continueStroke(double x, double y) {
+        if (gc == null) {
+            return;
+        }
+        double newMidX = (lastX + x) / 2;
+        double newMidY = (lastY + y) / 2;
+
+        // Curve from the previous midpoint to the new one, bending through the last point
+        gc.beginPath();
+        gc.moveTo(midX, midY);
+        gc.quadraticCurveTo(lastX, lastY, newMidX, newMidY);
+        gc.stroke();
+        damage.addStroke(gc.getLineWidth(), midX, midY, lastX, lastY, newMidX, newMidY);
+        segments++;
+
+        midX = newMidX;
+        midY = newMidY;
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * @return The number of pieces drawn so far in the stroke in progress, or in the last stroke once it ended.
+     */
+    int segmentCount() {
+        return segments;
+    }
+
+    /**
+     * Finishes the stroke by drawing the remaining half segment up to the last point.
+     */
+    void endStroke() {
+        if (gc == null) {
+            return;
+        }
+        gc.beginPath();
+        gc.moveTo(midX, midY);
+        gc.lineTo(lastX, lastY);
+        gc.stroke();
+        damage.addStroke(gc.getLineWidth(), midX, midY, lastX, lastY);
+        segments++;
+
+        gc.setLineCap(savedCap);
+        gc.setLineJoin(savedJoin);
+        gc = null;
+        damage = null;
+    }
+}
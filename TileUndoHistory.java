@@ -0,0 +1,533 @@
+package com.example.finalturnin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * TileUndoHistory keeps the undo and redo history of a canvas as tile deltas.
+ * Instead of storing a copy of the whole canvas for every checkpoint, the canvas is split into
+ * fixed-size tiles and only the tiles that changed since the previous checkpoint are stored.
+ * The tiles are kept in an {@link UndoStore}, which compresses them in the background and spills the
+ * oldest to a scratch file once they exceed the heap budget, so deep history costs disk space rather
+ * than heap. The history is bounded by a disk budget, or by the heap budget if nothing can be spilled;
+ * the oldest entries are evicted first.
+ * <p>
+ * The canvas may be a viewport onto a larger document. Tiles are recorded in document coordinates,
+ * so entries stay valid when the viewport moves; restoring a tile that lies partly or wholly
+ * outside the viewport only updates the parts that are visible.
+ * </p>
+ * <p>
+ * Changes made straight to a layer of the document, such as filters, are recorded in the same history
+ * as tile deltas of that layer, so they share the budgets and are evicted in the same order.
+ * </p>
+ */
+final class TileUndoHistory {
+    /**
+     * Receives the pixels of a tile that has to be written back to the canvas.
+     */
+    interface TileWriter {
+        /**
+         * Writes a block of ARGB pixels to the canvas.
+         *
+         * @param x      The x-coordinate of the block.
+         * @param y      The y-coordinate of the block.
+         * @param width  The width of the block.
+         * @param height The height of the block.
+         * @param pixels The ARGB pixels of the block, row by row.
+         */
+        void write(int x, int y, int width, int height, int[] pixels);
+    }
+
+    /**
+     * Receives the pixels of a layer tile that has to be written back to the document.
+     */
+    interface LayerWriter {
+        /**
+         * Writes a block of ARGB pixels to a layer.
+         *
+         * @param layer  The layer the block belongs to.
+         * @param x      The document x-coordinate of the block.
+         * @param y      The document y-coordinate of the block.
+         * @param width  The width of the block.
+         * @param height The height of the block.
+         * @param pixels The ARGB pixels of the block, row by row.
+         */
+        void write(int layer, int x, int y, int width, int height, int[] pixels);
+    }
+
+    /**
+     * The default number of bytes spilled history may take on disk.
+     */
+    static final long DEFAULT_DISK_BUDGET = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * The layer of entries recorded from the canvas.
+     */
+    private static final int CANVAS = -1;
+
+    /**
+     * A single changed tile in document coordinates, holding the pixels before and after the change.
+     */
+    private static final class TileDelta {
+        private final int x, y, width, height;
+        private final UndoStore.Block before;
+        private final UndoStore.Block after;
+
+        private TileDelta(int x, int y, int width, int height, UndoStore.Block before, UndoStore.Block after) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /**
+     * One history entry: all tiles that changed between two checkpoints, or in one layer edit.
+     */
+    private static final class Entry {
+        private final int layer;
+        private final List<TileDelta> tiles;
+
+        private Entry(int layer, List<TileDelta> tiles) {
+            this.layer = layer;
+            this.tiles = tiles;
+        }
+
+        /**
+         * Releases the stored pixels of every tile.
+         */
+        private void release() {
+            for (TileDelta tile : tiles) {
+                tile.before.release();
+                tile.after.release();
+            }
+        }
+    }
+
+    /**
+     * The width and height of the canvas, in pixels.
+     */
+    private final int width, height;
+
+    /**
+     * The document coordinates of the canvas's top-left corner.
+     */
+    private int originX, originY;
+
+    /**
+     * The edge length of a tile, in pixels.
+     */
+    private final int tileSize;
+
+    /**
+     * The maximum number of heap bytes the history may hold; older tiles spill to disk beyond it.
+     */
+    private final long memoryBudget;
+
+    /**
+     * The maximum number of bytes spilled tiles may take on disk before old entries are evicted.
+     */
+    private final long diskBudget;
+
+    /**
+     * The compressed, spilling store of the tiles' pixels.
+     */
+    private final UndoStore store;
+
+    /**
+     * The canvas pixels as of the last checkpoint.
+     */
+    private final int[] baseline;
+
+    /**
+     * Entries that can be undone, newest first.
+     */
+    private final Deque<Entry> undoEntries = new ArrayDeque<>();
+
+    /**
+     * Entries that can be redone, newest first.
+     */
+    private final Deque<Entry> redoEntries = new ArrayDeque<>();
+
+    /**
+     * The number of entries evicted so far.
+     */
+    private long evicted;
+
+    /**
+     * Creates a history for a canvas of the given size that may spill up to {@link #DEFAULT_DISK_BUDGET} to disk.
+     *
+     * @param width         The width of the canvas.
+     * @param height        The height of the canvas.
+     * @param tileSize      The edge length of a tile, in pixels.
+     * @param memoryBudget  The maximum number of heap bytes held by the history.
+     * @param initialPixels The ARGB pixels of the canvas at the start of the history.
+     * @throws IllegalArgumentException if the sizes are not positive or the pixels do not match the canvas size.
+     */
+    TileUndoHistory(int width, int height, int tileSize, long memoryBudget, int[] initialPixels) {
+        this(width, height, tileSize, memoryBudget, DEFAULT_DISK_BUDGET, initialPixels);
+    }
+
+    /**
+     * Creates a history for a canvas of the given size.
+     *
+     * @param width         The width of the canvas.
+     * @param height        The height of the canvas.
+     * @param tileSize      The edge length of a tile, in pixels.
+     * @param memoryBudget  The maximum number of heap bytes held by the history.
+     * @param diskBudget    The maximum number of bytes the history may spill to disk.
+     * @param initialPixels The ARGB pixels of the canvas at the start of the history.
+     * @throws IllegalArgumentException if the sizes are not positive or the pixels do not match the canvas size.
+     */
+    TileUndoHistory(int width, int height, int tileSize, long memoryBudget, long diskBudget, int[] initialPixels) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Canvas and tile sizes must be positive.");
+        }
+        if (initialPixels.length != width * height) {
+            throw new IllegalArgumentException("Pixel buffer does not match the canvas size.");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+        this.store = new UndoStore(memoryBudget);
+        this.baseline = initialPixels.clone();
+    }
+
+    /**
+     * Records the tiles that changed since the last checkpoint as a new undo entry.
+     * Any redo entries are discarded. Nothing is recorded if no pixel changed.
+     *
+     * @param pixels  The current ARGB pixels of the canvas.
+     * @param changes Receives the new pixels of every changed tile, in document coordinates.
+     * @return true if a new entry was recorded.
+     */
+    boolean checkpoint(int[] pixels, TileWriter changes) {
+        return checkpoint(pixels, 0, 0, width, height, changes);
+    }
+
+    /**
+     * Records the tiles that changed since the last checkpoint as a new undo entry, comparing only the
+     * tiles that intersect a damaged region of the canvas. Pixels outside the region must not have changed.
+     * Any redo entries are discarded. Nothing is recorded if no pixel changed.
+     *
+     * @param pixels  The current ARGB pixels of the canvas; tiles touching the region are read in full.
+     * @param x       The canvas x-coordinate of the damaged region.
+     * @param y       The canvas y-coordinate of the damaged region.
+     * @param w       The width of the damaged region.
+     * @param h       The height of the damaged region.
+     * @param changes Receives the new pixels of every changed tile, in document coordinates.
+     * @return true if a new entry was recorded.
+     */
+    boolean checkpoint(int[] pixels, int x, int y, int w, int h, TileWriter changes) {
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return false;
+        }
+
+        List<TileDelta> changed = new ArrayList<>();
+        for (int ty = y0 / tileSize * tileSize; ty < y1; ty += tileSize) {
+            for (int tx = x0 / tileSize * tileSize; tx < x1; tx += tileSize) {
+                int tw = Math.min(tileSize, width - tx);
+                int th = Math.min(tileSize, height - ty);
+                if (!regionEquals(pixels, tx, ty, tw, th)) {
+                    int[] before = copyRegion(baseline, tx, ty, tw, th);
+                    int[] after = copyRegion(pixels, tx, ty, tw, th);
+                    pasteRegion(baseline, after, tx, ty, tw, th);
+                    changes.write(originX + tx, originY + ty, tw, th, after);
+                    changed.add(new TileDelta(originX + tx, originY + ty, tw, th, store.store(before), store.store(after)));
+                }
+            }
+        }
+
+        return push(new Entry(CANVAS, changed));
+    }
+
+    /**
+     * Starts a layer edit that is recorded region by region, so an operation that works tile by tile
+     * never needs the whole region in memory at once. Nothing is recorded until the edit is committed.
+     * Regions may be added on a background thread, one thread at a time; the edit is committed or
+     * discarded on the thread that uses the history.
+     *
+     * @param layer The layer that changes.
+     * @return The edit to add the changed regions to.
+     */
+    LayerEdit beginLayerEdit(int layer) {
+        return new LayerEdit(layer);
+    }
+
+    /**
+     * Collects the changed tiles of one layer edit, which becomes a single undo entry once committed.
+     */
+    final class LayerEdit {
+        private final int layer;
+        private final List<TileDelta> changed = new ArrayList<>();
+
+        private LayerEdit(int layer) {
+            this.layer = layer;
+        }
+
+        /**
+         * Adds a changed region. It is split along a grid of tiles in document coordinates and only
+         * the tiles that changed are stored.
+         *
+         * @param x      The document x-coordinate of the region.
+         * @param y      The document y-coordinate of the region.
+         * @param w      The width of the region.
+         * @param h      The height of the region.
+         * @param before The ARGB pixels of the region before the change, row by row with a stride of w.
+         * @param after  The ARGB pixels of the region after the change, in the same layout.
+         */
+        void addRegion(int x, int y, int w, int h, int[] before, int[] after) {
+            for (int ty = Math.floorDiv(y, tileSize) * tileSize; ty < y + h; ty += tileSize) {
+                for (int tx = Math.floorDiv(x, tileSize) * tileSize; tx < x + w; tx += tileSize) {
+                    int x0 = Math.max(tx, x), y0 = Math.max(ty, y);
+                    int tw = Math.min(tx + tileSize, x + w) - x0, th = Math.min(ty + tileSize, y + h) - y0;
+                    int offset = (y0 - y) * w + (x0 - x);
+                    if (!blockEquals(before, after, offset, w, tw, th)) {
+                        changed.add(new TileDelta(x0, y0, tw, th, store.store(copyBlock(before, offset, w, tw, th)),
+                                store.store(copyBlock(after, offset, w, tw, th))));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Records the edit as a new undo entry and discards any redo entries. Nothing is recorded if no pixel changed.
+         *
+         * @return true if a new entry was recorded.
+         */
+        boolean commit() {
+            return push(new Entry(layer, changed));
+        }
+
+        /**
+         * Drops the edit without recording it, releasing the tiles added so far.
+         */
+        void discard() {
+            new Entry(layer, changed).release();
+            changed.clear();
+        }
+    }
+
+    /**
+     * Makes an entry the newest undo entry, discarding the redo entries and evicting old entries as needed.
+     *
+     * @return false if the entry is empty and was not recorded.
+     */
+    private boolean push(Entry entry) {
+        if (entry.tiles.isEmpty()) {
+            return false;
+        }
+
+        // A new change invalidates everything that could have been redone
+        discardRedo();
+
+        undoEntries.push(entry);
+        evict();
+        return true;
+    }
+
+    /**
+     * Reverts the most recent entry by writing back the tiles as they were before it.
+     *
+     * @param writer      Receives the canvas tiles to write back, in document coordinates.
+     * @param layerWriter Receives the layer tiles to write back, if the entry is a layer edit.
+     * @return true if an entry was undone.
+     */
+    boolean undo(TileWriter writer, LayerWriter layerWriter) {
+        Entry entry = undoEntries.poll();
+        if (entry == null) {
+            return false;
+        }
+        for (TileDelta tile : entry.tiles) {
+            restore(entry, tile, tile.before.read(), writer, layerWriter);
+        }
+        redoEntries.push(entry);
+        return true;
+    }
+
+    /**
+     * Reapplies the most recently undone entry by writing back the tiles as they were after it.
+     *
+     * @param writer      Receives the canvas tiles to write back, in document coordinates.
+     * @param layerWriter Receives the layer tiles to write back, if the entry is a layer edit.
+     * @return true if an entry was redone.
+     */
+    boolean redo(TileWriter writer, LayerWriter layerWriter) {
+        Entry entry = redoEntries.poll();
+        if (entry == null) {
+            return false;
+        }
+        for (TileDelta tile : entry.tiles) {
+            restore(entry, tile, tile.after.read(), writer, layerWriter);
+        }
+        undoEntries.push(entry);
+        return true;
+    }
+
+    /**
+     * Writes back one tile of an entry: canvas tiles also update the baseline, layer tiles go to their layer.
+     */
+    private void restore(Entry entry, TileDelta tile, int[] pixels, TileWriter writer, LayerWriter layerWriter) {
+        if (entry.layer == CANVAS) {
+            pasteRegion(baseline, pixels, tile.x - originX, tile.y - originY, tile.width, tile.height);
+            writer.write(tile.x, tile.y, tile.width, tile.height, pixels);
+        } else {
+            layerWriter.write(entry.layer, tile.x, tile.y, tile.width, tile.height, pixels);
+        }
+    }
+
+    /**
+     * Drops all entries that could be redone, releasing their memory.
+     */
+    void discardRedo() {
+        for (Entry entry : redoEntries) {
+            entry.release();
+        }
+        redoEntries.clear();
+    }
+
+    /**
+     * Moves the canvas to another part of the document, keeping the recorded entries.
+     * Any change not yet recorded must be checkpointed before the move.
+     *
+     * @param originX The document x-coordinate of the canvas's new top-left corner.
+     * @param originY The document y-coordinate of the canvas's new top-left corner.
+     * @param pixels  The ARGB pixels of the canvas at its new position.
+     */
+    void moveViewport(int originX, int originY, int[] pixels) {
+        this.originX = originX;
+        this.originY = originY;
+        System.arraycopy(pixels, 0, baseline, 0, baseline.length);
+    }
+
+    /**
+     * @return true if there is an entry that can be undone.
+     */
+    boolean canUndo() {
+        return !undoEntries.isEmpty();
+    }
+
+    /**
+     * @return true if there is an entry that can be redone.
+     */
+    boolean canRedo() {
+        return !redoEntries.isEmpty();
+    }
+
+    /**
+     * @return The number of entries that can be undone.
+     */
+    int undoSize() {
+        return undoEntries.size();
+    }
+
+    /**
+     * @return The number of undo entries evicted so far, oldest first, to keep the history within its budget.
+     */
+    long evictedEntries() {
+        return evicted;
+    }
+
+    /**
+     * @return The number of heap bytes held by the undo and redo entries.
+     */
+    long memoryUsed() {
+        return store.heapBytes();
+    }
+
+    /**
+     * @return The number of bytes the undo and redo entries have spilled to disk.
+     */
+    long diskUsed() {
+        return store.diskBytes();
+    }
+
+    /**
+     * Releases the history's scratch file. The history cannot be used afterwards.
+     */
+    void close() {
+        store.close();
+    }
+
+    /**
+     * Drops the oldest undo entries until the history fits its disk budget, or its memory budget
+     * if nothing can be spilled. The most recent entry is always kept so the last change can be undone.
+     * Tiles are compressed and spilled in the background, so the budgets are checked as of the last
+     * completed spill.
+     */
+    private void evict() {
+        while (undoEntries.size() > 1
+                && (store.canSpill() ? store.diskBytes() > diskBudget : store.heapBytes() > memoryBudget)) {
+            undoEntries.removeLast().release();
+            evicted++;
+        }
+    }
+
+    /**
+     * Compares a region of the given pixels against the baseline, row by row.
+     */
+    private boolean regionEquals(int[] pixels, int x, int y, int w, int h) {
+        for (int row = y; row < y + h; row++) {
+            int from = row * width + x;
+            if (!Arrays.equals(baseline, from, from + w, pixels, from, from + w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares a block of two buffers that share a stride, row by row.
+     */
+    private static boolean blockEquals(int[] a, int[] b, int offset, int stride, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            int from = offset + row * stride;
+            if (!Arrays.equals(a, from, from + w, b, from, from + w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a block out of a buffer with the given stride.
+     */
+    private static int[] copyBlock(int[] source, int offset, int stride, int w, int h) {
+        int[] block = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(source, offset + row * stride, block, row * w, w);
+        }
+        return block;
+    }
+
+    /**
+     * Copies a region out of a full-canvas pixel buffer.
+     */
+    private int[] copyRegion(int[] source, int x, int y, int w, int h) {
+        int[] region = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(source, (y + row) * width + x, region, row * w, w);
+        }
+        return region;
+    }
+
+    /**
+     * Copies a region back into a full-canvas pixel buffer, skipping any part that lies outside the canvas.
+     */
+    private void pasteRegion(int[] target, int[] region, int x, int y, int w, int h) {
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        for (int row = y0; row < y1; row++) {
+            System.arraycopy(region, (row - y) * w + (x0 - x), target, row * width + x0, x1 - x0);
+        }
+    }
+}
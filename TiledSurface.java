@@ -0,0 +1,447 @@
+package com.example.finalturnin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TiledSurface is the pixel store of a document that can be much larger than the canvas on screen.
+ * The document is split into fixed-size square tiles of ARGB pixels. A tile is only allocated when
+ * something non-transparent is first written into it and is released again once it becomes fully
+ * transparent, so memory grows with the painted area rather than with the document size.
+ * Reads only visit the tiles that intersect the requested region.
+ * <p>
+ * Tiles can also be held by a {@link TileSource}, such as an open project file, and are then only
+ * decoded the first time they are read or written. The surface keeps track of the tiles written
+ * since it was last marked clean, so a save only has to store those.
+ * </p>
+ * <p>
+ * A {@link #snapshot()} shares the tiles with the surface it was taken from and copies a tile only when
+ * either of them writes it, so the document can be read on another thread while editing goes on.
+ * </p>
+ */
+final class TiledSurface {
+    /**
+     * Receives the allocated tiles of a surface.
+     */
+    interface TileVisitor {
+        /**
+         * Visits one allocated tile. The array is the live tile and must not be kept or changed.
+         *
+         * @param x      The document x-coordinate of the tile.
+         * @param y      The document y-coordinate of the tile.
+         * @param pixels The tileSize * tileSize ARGB pixels of the tile, row by row;
+         *               pixels beyond the document's edges are transparent.
+         */
+        void visit(int x, int y, int[] pixels);
+    }
+
+    /**
+     * Supplies tiles that are stored outside the surface and loaded on first use.
+     */
+    interface TileSource {
+        /**
+         * Loads a stored tile. Snapshots of the surface load their tiles from the same source,
+         * possibly on another thread.
+         *
+         * @param col The column of the tile.
+         * @param row The row of the tile.
+         * @return The tileSize * tileSize ARGB pixels of the tile, row by row; the surface takes ownership.
+         */
+        int[] load(int col, int row);
+    }
+
+    /**
+     * The width and height of the document, in pixels.
+     */
+    private final int width, height;
+
+    /**
+     * The edge length of a tile, in pixels.
+     */
+    private final int tileSize;
+
+    /**
+     * The allocated tiles, keyed by {@link #key(int, int)} of their column and row.
+     */
+    private final Map<Long, int[]> tiles = new HashMap<>();
+
+    /**
+     * Where stored tiles are loaded from, or null if there are none.
+     */
+    private TileSource source;
+
+    /**
+     * The keys of tiles held by the source that have not been loaded yet.
+     */
+    private final Set<Long> unloaded = new HashSet<>();
+
+    /**
+     * The keys of tiles written since the surface was last marked clean, including released ones.
+     */
+    private final Set<Long> dirty = new HashSet<>();
+
+    /**
+     * The keys of tiles that may also be held by a snapshot, and have to be copied before they are written.
+     */
+    private final Set<Long> shared = new HashSet<>();
+
+    /**
+     * Whether tiles loaded from the source for reading are kept. A snapshot is read once from top to bottom,
+     * so it decodes stored tiles each time they are read rather than holding all of them.
+     */
+    private final boolean keepLoaded;
+
+    /**
+     * The number of writes and clears so far, so views derived from the pixels can tell they are stale.
+     */
+    private long version;
+
+    /**
+     * Creates an empty, fully transparent document.
+     *
+     * @param width    The width of the document.
+     * @param height   The height of the document.
+     * @param tileSize The edge length of a tile, in pixels.
+     * @throws IllegalArgumentException if any size is not positive.
+     */
+    TiledSurface(int width, int height, int tileSize) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Document and tile sizes must be positive.");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.keepLoaded = true;
+    }
+
+    /**
+     * Creates a snapshot of a surface, sharing its tiles and its source.
+     *
+     * @param original The surface to copy.
+     */
+    private TiledSurface(TiledSurface original) {
+        this.width = original.width;
+        this.height = original.height;
+        this.tileSize = original.tileSize;
+        this.keepLoaded = false;
+        tiles.putAll(original.tiles);
+        shared.addAll(original.tiles.keySet());
+        unloaded.addAll(original.unloaded);
+        dirty.addAll(original.dirty);
+        source = original.source;
+        version = original.version;
+    }
+
+    /**
+     * Takes a snapshot of the pixels as they are now. The tiles are shared until either surface writes them,
+     * so a snapshot costs a few bytes per tile. The snapshot has the same tiles marked as written, so it
+     * can be saved in the background, and stored tiles it reads are not kept, so reading all of it holds
+     * no more than the tiles being read.
+     *
+     * @return An independent copy of the surface that may be used on another thread.
+     */
+    TiledSurface snapshot() {
+        shared.addAll(tiles.keySet());
+        return new TiledSurface(this);
+    }
+
+    /**
+     * @return The width of the document.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the document.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The edge length of a tile, in pixels.
+     */
+    int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return The number of tiles currently allocated, loaded or not.
+     */
+    int allocatedTiles() {
+        return tiles.size() + unloaded.size();
+    }
+
+    /**
+     * @return The number of bytes held by the loaded tiles.
+     */
+    long memoryUsed() {
+        return 4L * tileSize * tileSize * tiles.size();
+    }
+
+    /**
+     * Writes a block of pixels into the document. Parts outside the document are ignored.
+     * Tiles are allocated only for non-transparent pixels and released when they become empty.
+     *
+     * @param x      The x-coordinate of the block in the document.
+     * @param y      The y-coordinate of the block in the document.
+     * @param w      The width of the block.
+     * @param h      The height of the block.
+     * @param pixels The ARGB pixels of the block.
+     * @param offset The index of the block's top-left pixel in the array.
+     * @param stride The distance between rows in the array.
+     */
+    void writeRegion(int x, int y, int w, int h, int[] pixels, int offset, int stride) {
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        version++;
+
+        for (int row = y0 / tileSize; row <= (y1 - 1) / tileSize; row++) {
+            for (int col = x0 / tileSize; col <= (x1 - 1) / tileSize; col++) {
+                // The part of the block that falls inside this tile
+                int tileX = col * tileSize, tileY = row * tileSize;
+                int cx0 = Math.max(x0, tileX), cy0 = Math.max(y0, tileY);
+                int cx1 = Math.min(x1, tileX + tileSize), cy1 = Math.min(y1, tileY + tileSize);
+                int first = offset + (cy0 - y) * stride + (cx0 - x);
+                boolean transparent = isTransparent(pixels, first, stride, cx1 - cx0, cy1 - cy0);
+
+                long key = key(col, row);
+                int[] tile = tile(key, true);
+                if (tile == null) {
+                    if (transparent) {
+                        continue; // Writing nothing onto nothing: stay unallocated
+                    }
+                    tile = new int[tileSize * tileSize];
+                    tiles.put(key, tile);
+                } else if (shared.remove(key)) {
+                    tile = tile.clone(); // A snapshot still reads the old pixels
+                    tiles.put(key, tile);
+                }
+                dirty.add(key);
+
+                for (int py = cy0; py < cy1; py++) {
+                    System.arraycopy(pixels, first + (py - cy0) * stride, tile, (py - tileY) * tileSize + (cx0 - tileX), cx1 - cx0);
+                }
+
+                if (transparent && isTransparent(tile, 0, tileSize, tileSize, tileSize)) {
+                    tiles.remove(key); // Fully erased: release it
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a block of pixels from the document. Unallocated tiles and areas outside the document
+     * read as transparent.
+     *
+     * @param x      The x-coordinate of the block in the document.
+     * @param y      The y-coordinate of the block in the document.
+     * @param w      The width of the block.
+     * @param h      The height of the block.
+     * @param target The array receiving the ARGB pixels, row by row with a stride of w.
+     */
+    void readRegion(int x, int y, int w, int h, int[] target) {
+        for (int row = 0; row < h; row++) {
+            Arrays.fill(target, row * w, row * w + w, 0);
+        }
+
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        for (int row = y0 / tileSize; row <= (y1 - 1) / tileSize; row++) {
+            for (int col = x0 / tileSize; col <= (x1 - 1) / tileSize; col++) {
+                int[] tile = tile(key(col, row), keepLoaded);
+                if (tile == null) {
+                    continue;
+                }
+                int tileX = col * tileSize, tileY = row * tileSize;
+                int cx0 = Math.max(x0, tileX), cy0 = Math.max(y0, tileY);
+                int cx1 = Math.min(x1, tileX + tileSize), cy1 = Math.min(y1, tileY + tileSize);
+                for (int py = cy0; py < cy1; py++) {
+                    System.arraycopy(tile, (py - tileY) * tileSize + (cx0 - tileX), target, (py - y) * w + (cx0 - x), cx1 - cx0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads pixels picked from the document by nearest-neighbour sampling, for showing it scaled.
+     * Unallocated tiles and coordinates outside the document read as transparent.
+     *
+     * @param xs     The document x-coordinate of each target column.
+     * @param ys     The document y-coordinate of each target row.
+     * @param w      The number of target columns.
+     * @param h      The number of target rows.
+     * @param target The array receiving the ARGB pixels, row by row with a stride of w.
+     */
+    void readSampled(int[] xs, int[] ys, int w, int h, int[] target) {
+        for (int j = 0; j < h; j++) {
+            int y = ys[j];
+            int start = j * w;
+            if (y < 0 || y >= height) {
+                Arrays.fill(target, start, start + w, 0);
+                continue;
+            }
+            int row = y / tileSize;
+            int rowOffset = (y - row * tileSize) * tileSize;
+            int loadedCol = -1;
+            int[] tile = null;
+            for (int i = 0; i < w; i++) {
+                int x = xs[i];
+                if (x < 0 || x >= width) {
+                    target[start + i] = 0;
+                    continue;
+                }
+                int col = x / tileSize;
+                if (col != loadedCol) { // Neighbouring columns mostly share a tile
+                    tile = tile(key(col, row), keepLoaded);
+                    loadedCol = col;
+                }
+                target[start + i] = tile == null ? 0 : tile[rowOffset + x - col * tileSize];
+            }
+        }
+    }
+
+    /**
+     * @return A count that changes whenever pixels are written or the surface is cleared.
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Visits every allocated tile, in no particular order, loading any stored tiles first.
+     * Unallocated tiles are fully transparent.
+     *
+     * @param visitor Receives the tiles.
+     */
+    void forEachTile(TileVisitor visitor) {
+        for (Long key : unloaded.toArray(new Long[0])) {
+            tile(key, true);
+        }
+        for (Map.Entry<Long, int[]> entry : tiles.entrySet()) {
+            long key = entry.getKey();
+            visitor.visit((int) key * tileSize, (int) (key >> 32) * tileSize, entry.getValue());
+        }
+    }
+
+    /**
+     * Visits every tile written since the surface was last marked clean, in no particular order.
+     *
+     * @param visitor Receives the tiles; the pixels are null for a tile that was released.
+     */
+    void forEachDirtyTile(TileVisitor visitor) {
+        for (long key : dirty) {
+            visitor.visit((int) key * tileSize, (int) (key >> 32) * tileSize, tiles.get(key));
+        }
+    }
+
+    /**
+     * @return true if a tile was written since the surface was last marked clean.
+     */
+    boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * Forgets which tiles were written, typically once they have been saved.
+     */
+    void markClean() {
+        dirty.clear();
+    }
+
+    /**
+     * Marks the tiles written in a snapshot of this surface as written here again, as when saving the snapshot failed.
+     *
+     * @param snapshot A snapshot taken from this surface.
+     */
+    void restoreDirty(TiledSurface snapshot) {
+        dirty.addAll(snapshot.dirty);
+    }
+
+    /**
+     * Sets where stored tiles are loaded from. Tiles already loaded are kept.
+     *
+     * @param source The source of the stored tiles.
+     */
+    void setSource(TileSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Adds a tile held by the source, to be loaded when it is first read or written.
+     * The tile replaces any tile at its position and does not count as written.
+     *
+     * @param col The column of the tile.
+     * @param row The row of the tile.
+     */
+    void addStoredTile(int col, int row) {
+        long key = key(col, row);
+        tiles.remove(key);
+        shared.remove(key);
+        unloaded.add(key);
+        version++;
+    }
+
+    /**
+     * Releases every tile, leaving the document fully transparent.
+     */
+    void clear() {
+        version++;
+        dirty.addAll(tiles.keySet());
+        dirty.addAll(unloaded);
+        tiles.clear();
+        shared.clear();
+        unloaded.clear();
+    }
+
+    /**
+     * Looks up a tile, loading it from the source if it is stored there.
+     *
+     * @param keep Whether a tile loaded from the source is kept, so it is not loaded again.
+     * @return The tile, or null if it is not allocated.
+     */
+    private int[] tile(long key, boolean keep) {
+        int[] tile = tiles.get(key);
+        if (tile == null && unloaded.contains(key)) {
+            tile = source.load((int) key, (int) (key >> 32));
+            if (keep) {
+                unloaded.remove(key);
+                tiles.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Checks whether every pixel of a block has zero alpha.
+     */
+    private static boolean isTransparent(int[] pixels, int offset, int stride, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            int start = offset + row * stride;
+            for (int i = start; i < start + w; i++) {
+                if ((pixels[i] >>> 24) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs a tile column and row into a map key.
+     */
+    private static long key(int col, int row) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+}
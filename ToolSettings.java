@@ -0,0 +1,110 @@
+package com.example.finalturnin;
+
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ColorPicker;
+import javafx.scene.control.Slider;
+import javafx.scene.paint.Color;
+
+/**
+ * ToolSettings holds the stroke color, line width and dashed outline the drawing tools use.
+ * It is bound to the controls once, and pushes a value to the graphics context it drives only
+ * when that value actually changes, so tool handlers read the settings instead of re-applying
+ * them on every mouse event, and switching tools never adds listeners.
+ */
+final class ToolSettings {
+    /**
+     * The stroke color.
+     */
+    private final ObjectProperty<Color> color = new SimpleObjectProperty<>(this, "color", Color.BLACK);
+
+    /**
+     * The line width, in pixels.
+     */
+    private final DoubleProperty lineWidth = new SimpleDoubleProperty(this, "lineWidth", 2);
+
+    /**
+     * Whether shape outlines are dashed.
+     */
+    private final BooleanProperty dashed = new SimpleBooleanProperty(this, "dashed", false);
+
+    /**
+     * The graphics context kept in step with the settings, or null if none.
+     */
+    private GraphicsContext target;
+
+    /**
+     * Creates the settings with a black, 2 pixel wide, solid stroke.
+     */
+    ToolSettings() {
+        color.addListener((observable, oldValue, newValue) -> {
+            if (target != null) {
+                target.setStroke(newValue);
+            }
+        });
+        lineWidth.addListener((observable, oldValue, newValue) -> {
+            if (target != null) {
+                target.setLineWidth(newValue.doubleValue());
+            }
+        });
+    }
+
+    /**
+     * Binds the settings to the controls that edit them. Call once.
+     *
+     * @param colorPicker     The control choosing the stroke color.
+     * @param lineWidthSlider The control choosing the line width.
+     * @param dashedCheckBox  The control choosing dashed outlines.
+     */
+    void bind(ColorPicker colorPicker, Slider lineWidthSlider, CheckBox dashedCheckBox) {
+        color.bind(colorPicker.valueProperty());
+        lineWidth.bind(lineWidthSlider.valueProperty());
+        dashed.bind(dashedCheckBox.selectedProperty());
+    }
+
+    /**
+     * Applies the settings to a graphics context and keeps it in step with later changes.
+     * Only one graphics context is driven at a time.
+     *
+     * @param gc The graphics context to drive.
+     */
+    void applyTo(GraphicsContext gc) {
+        target = gc;
+        gc.setStroke(getColor());
+        gc.setLineWidth(getLineWidth());
+    }
+
+    /**
+     * @return The stroke color.
+     */
+    Color getColor() {
+        return color.get();
+    }
+
+    /**
+     * @return The line width, in pixels.
+     */
+    double getLineWidth() {
+        return lineWidth.get();
+    }
+
+    /**
+     * @return Whether shape outlines are dashed.
+     */
+    boolean isDashed() {
+        return dashed.get();
+    }
+
+    /**
+     * @return The line width property.
+     */
+    DoubleProperty lineWidthProperty() {
+        return lineWidth;
+    }
+}
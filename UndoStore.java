@@ -0,0 +1,338 @@
+package com.example.finalturnin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+
+/**
+ * UndoStore holds the pixel blocks of an undo history, keeping deep history on disk rather than on the heap.
+ * A stored block starts out as the raw array. A background thread then compresses it with Deflate at the
+ * fastest level, and once the compressed blocks on the heap exceed the heap budget, the oldest are moved
+ * to a memory-mapped scratch file. Reading a block decompresses it from wherever it currently is.
+ * <p>
+ * The scratch file is split into fixed-size segments. A segment whose blocks have all been released is
+ * reused, so the file only grows with the amount of history kept, not with how long the session runs.
+ * If the scratch file cannot be created, blocks simply stay compressed on the heap.
+ * </p>
+ */
+final class UndoStore implements Closeable {
+    /**
+     * The size of a scratch file segment, in bytes.
+     */
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * The thread that compresses and spills blocks, shared by all stores.
+     */
+    private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "undo-compress");
+        thread.setDaemon(true); // Do not keep the JVM alive after the stage closes
+        return thread;
+    });
+
+    /**
+     * A block of ARGB pixels held by the store. Its state is guarded by the store.
+     */
+    final class Block {
+        /**
+         * The number of pixels in the block.
+         */
+        private final int length;
+
+        /**
+         * The pixels, until the block is compressed.
+         */
+        private int[] raw;
+
+        /**
+         * The compressed pixels while the block is on the heap.
+         */
+        private byte[] compressed;
+
+        /**
+         * The segment and offset of the compressed pixels once spilled, and their size in bytes.
+         */
+        private int segment = -1, offset, spilledLength;
+
+        /**
+         * Whether the block was released.
+         */
+        private boolean released;
+
+        private Block(int[] pixels) {
+            this.length = pixels.length;
+            this.raw = pixels;
+        }
+
+        /**
+         * Reads the pixels of the block, decompressing them if needed. The returned array must not be changed.
+         *
+         * @return The ARGB pixels.
+         */
+        int[] read() {
+            byte[] bytes;
+            synchronized (UndoStore.this) {
+                if (raw != null) {
+                    return raw;
+                }
+                if (compressed != null) {
+                    bytes = compressed;
+                } else if (segment >= 0) {
+                    bytes = new byte[spilledLength];
+                    segments.get(segment).get(offset, bytes);
+                } else {
+                    throw new IllegalStateException("Undo block was released.");
+                }
+            }
+            try {
+                return PixelCodec.inflate(ByteBuffer.wrap(bytes), length);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Undo block is corrupt.", e);
+            }
+        }
+
+        /**
+         * Releases the block's memory and disk space. The block cannot be read afterwards.
+         */
+        void release() {
+            synchronized (UndoStore.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (raw != null) {
+                    heapBytes -= 4L * raw.length;
+                    raw = null;
+                } else if (compressed != null) {
+                    heapBytes -= compressed.length;
+                    compressed = null;
+                    onHeap.remove(this);
+                } else if (segment >= 0) {
+                    diskBytes -= spilledLength;
+                    segmentLive[segment] -= spilledLength;
+                    if (segmentLive[segment] == 0 && segment != writeSegment) {
+                        freeSegments.push(segment);
+                    }
+                    segment = -1; // The segment may be reused and overwritten
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of heap bytes above which compressed blocks are spilled.
+     */
+    private final long heapBudget;
+
+    /**
+     * The bytes held on the heap by raw and compressed blocks. Both counts are kept up to date as blocks are
+     * stored, compressed, spilled and released, and only change under the store's lock; they are read
+     * without it, so measuring the history never waits for the compressor.
+     */
+    private volatile long heapBytes;
+
+    /**
+     * The bytes held in the scratch file by spilled blocks.
+     */
+    private volatile long diskBytes;
+
+    /**
+     * Compressed blocks on the heap, oldest first.
+     */
+    private final LinkedHashSet<Block> onHeap = new LinkedHashSet<>();
+
+    /**
+     * The scratch file, opened on first spill; null before that or if it could not be opened.
+     */
+    private FileChannel scratch;
+
+    /**
+     * Whether spilling was given up because the scratch file could not be used.
+     */
+    private boolean spillFailed;
+
+    /**
+     * The mapped segments of the scratch file.
+     */
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /**
+     * The bytes of live blocks in each segment.
+     */
+    private long[] segmentLive = new long[4];
+
+    /**
+     * Segments with no live blocks, ready to be reused.
+     */
+    private final Deque<Integer> freeSegments = new ArrayDeque<>();
+
+    /**
+     * The segment blocks are appended to, or -1 if none yet, and the offset of its free space.
+     */
+    private int writeSegment = -1, writeOffset;
+
+    /**
+     * Whether the store was closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param heapBudget The number of bytes of compressed blocks kept on the heap before the oldest are spilled.
+     */
+    UndoStore(long heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Stores a block of pixels. The array is kept until the block is compressed and must not be changed.
+     *
+     * @param pixels The ARGB pixels.
+     * @return The block, to read back or release later.
+     */
+    Block store(int[] pixels) {
+        Block block = new Block(pixels);
+        synchronized (this) {
+            heapBytes += 4L * pixels.length;
+        }
+        COMPRESSOR.execute(() -> compress(block));
+        return block;
+    }
+
+    /**
+     * @return The bytes held on the heap by raw and compressed blocks, read in constant time without locking.
+     */
+    long heapBytes() {
+        return heapBytes;
+    }
+
+    /**
+     * @return The bytes held in the scratch file by spilled blocks, read in constant time without locking.
+     */
+    long diskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * @return true if blocks can be spilled to disk.
+     */
+    synchronized boolean canSpill() {
+        return !spillFailed && !closed;
+    }
+
+    /**
+     * Releases the scratch file. Blocks cannot be read afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        onHeap.clear();
+        segments.clear();
+        if (scratch != null) {
+            try {
+                scratch.close(); // Deletes the file; the mappings are dropped once unreachable
+            } catch (IOException e) {
+                System.out.println("Error closing undo scratch file: " + e.getMessage());
+            }
+            scratch = null;
+        }
+    }
+
+    /**
+     * Compresses a block on the background thread, then spills old blocks if the heap budget is exceeded.
+     */
+    private void compress(Block block) {
+        int[] pixels;
+        synchronized (this) {
+            pixels = block.raw;
+            if (pixels == null || closed) {
+                return;
+            }
+        }
+        byte[] bytes = PixelCodec.deflate(pixels);
+        synchronized (this) {
+            if (block.released || closed) {
+                return;
+            }
+            block.raw = null;
+            block.compressed = bytes;
+            heapBytes += bytes.length - 4L * pixels.length;
+            onHeap.add(block);
+            spill();
+        }
+    }
+
+    /**
+     * Moves the oldest compressed blocks to the scratch file until the heap budget is met.
+     */
+    private void spill() {
+        Iterator<Block> oldest = onHeap.iterator();
+        while (heapBytes > heapBudget && oldest.hasNext() && !spillFailed) {
+            Block block = oldest.next();
+            int length = block.compressed.length;
+            if (length > SEGMENT_SIZE || !reserve(length)) {
+                continue; // Too large for a segment; it stays on the heap
+            }
+            segments.get(writeSegment).put(writeOffset, block.compressed);
+            block.segment = writeSegment;
+            block.offset = writeOffset;
+            block.spilledLength = length;
+            block.compressed = null;
+            writeOffset += length;
+            segmentLive[writeSegment] += length;
+            heapBytes -= length;
+            diskBytes += length;
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Makes room for a block in the current segment, moving to a free or new segment if needed.
+     *
+     * @return false if the scratch file could not be used.
+     */
+    private boolean reserve(int length) {
+        if (writeSegment >= 0 && writeOffset + length <= SEGMENT_SIZE) {
+            return true;
+        }
+        try {
+            if (scratch == null) {
+                scratch = FileChannel.open(Files.createTempFile("javadraw-undo", ".tmp"), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            if (writeSegment >= 0 && segmentLive[writeSegment] == 0) {
+                freeSegments.push(writeSegment); // Everything in it was released while it was being filled
+            }
+            if (!freeSegments.isEmpty()) {
+                writeSegment = freeSegments.pop();
+            } else {
+                writeSegment = segments.size();
+                segments.add(scratch.map(FileChannel.MapMode.READ_WRITE, (long) writeSegment * SEGMENT_SIZE, SEGMENT_SIZE));
+                if (writeSegment == segmentLive.length) {
+                    segmentLive = Arrays.copyOf(segmentLive, writeSegment * 2);
+                }
+            }
+            writeOffset = 0;
+            return true;
+        } catch (IOException e) {
+            System.out.println("Undo history stays in memory; scratch file failed: " + e.getMessage());
+            spillFailed = true;
+            return false;
+        }
+    }
+}
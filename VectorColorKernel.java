@@ -0,0 +1,90 @@
+package com.example.finalturnin;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorColorKernel holds the {@link ColorAdjustment} loops written with the Vector API, processing as many
+ * pixels per instruction as the CPU's widest int vector holds. Channels are unpacked and the hue matrix is
+ * applied lane-wise; the lookup table is read with a gather. The pixels left over after the last full vector
+ * go through the scalar loops, which give the same results.
+ * <p>
+ * The class is only loaded if the {@code jdk.incubator.vector} module was added to the JVM, which
+ * {@link ColorAdjustment} checks before calling it.
+ * </p>
+ */
+final class VectorColorKernel {
+    /**
+     * The widest int vector the CPU supports.
+     */
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private VectorColorKernel() {
+    }
+
+    /**
+     * @return true if the CPU processes at least four ints per vector instruction, so the kernels pay off.
+     */
+    static boolean isSupported() {
+        return SPECIES.length() >= 4;
+    }
+
+    /**
+     * Maps each channel of a range of pixels through the lookup table, like {@link ColorAdjustment#applyTable}.
+     */
+    static void applyTable(int[] source, int[] target, int from, int to, int[] table) {
+        int lanes = SPECIES.length();
+        int[] red = new int[lanes], green = new int[lanes], blue = new int[lanes];
+        int i = from;
+        for (; i <= to - lanes; i += lanes) {
+            IntVector argb = IntVector.fromArray(SPECIES, source, i);
+            argb.lanewise(VectorOperators.LSHR, 16).and(0xff).intoArray(red, 0);
+            argb.lanewise(VectorOperators.LSHR, 8).and(0xff).intoArray(green, 0);
+            argb.and(0xff).intoArray(blue, 0);
+            pack(argb, table, red, green, blue).intoArray(target, i);
+        }
+        ColorAdjustment.applyTable(source, target, i, to, table);
+    }
+
+    /**
+     * Rotates the hue of a range of pixels and maps each channel of the result through the lookup table,
+     * like {@link ColorAdjustment#applyHueAndTable}.
+     */
+    static void applyHueAndTable(int[] source, int[] target, int from, int to, int[] matrix, int[] table) {
+        int lanes = SPECIES.length();
+        int[] red = new int[lanes], green = new int[lanes], blue = new int[lanes];
+        int i = from;
+        for (; i <= to - lanes; i += lanes) {
+            IntVector argb = IntVector.fromArray(SPECIES, source, i);
+            IntVector r = argb.lanewise(VectorOperators.LSHR, 16).and(0xff);
+            IntVector g = argb.lanewise(VectorOperators.LSHR, 8).and(0xff);
+            IntVector b = argb.and(0xff);
+            rotate(r, g, b, matrix[0], matrix[1], matrix[2]).intoArray(red, 0);
+            rotate(r, g, b, matrix[3], matrix[4], matrix[5]).intoArray(green, 0);
+            rotate(r, g, b, matrix[6], matrix[7], matrix[8]).intoArray(blue, 0);
+            pack(argb, table, red, green, blue).intoArray(target, i);
+        }
+        ColorAdjustment.applyHueAndTable(source, target, i, to, matrix, table);
+    }
+
+    /**
+     * Computes one row of the hue matrix in 20.12 fixed point, clamped to a channel value.
+     */
+    private static IntVector rotate(IntVector r, IntVector g, IntVector b, int mr, int mg, int mb) {
+        return r.mul(mr).add(g.mul(mg)).add(b.mul(mb)).lanewise(VectorOperators.ASHR, 12).max(0).min(255);
+    }
+
+    /**
+     * Looks up the channels in the table and packs them with the original alpha.
+     */
+    private static IntVector pack(IntVector argb, int[] table, int[] red, int[] green, int[] blue) {
+        IntVector r = IntVector.fromArray(SPECIES, table, 0, red, 0);
+        IntVector g = IntVector.fromArray(SPECIES, table, 0, green, 0);
+        IntVector b = IntVector.fromArray(SPECIES, table, 0, blue, 0);
+        return argb.and(0xff000000)
+                .or(r.lanewise(VectorOperators.LSHL, 16))
+                .or(g.lanewise(VectorOperators.LSHL, 8))
+                .or(b);
+    }
+}
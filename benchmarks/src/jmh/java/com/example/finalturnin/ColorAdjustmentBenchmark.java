@@ -0,0 +1,111 @@
+package com.example.finalturnin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjust Colors: brightness, contrast and levels composed into one lookup table, against the same
+ * three adjustments applied as three table passes. Both sides use tables, so the difference is the
+ * fusion of the passes alone.
+ * <p>
+ * The scalar and vector methods run the fused pass, with and without a hue rotation, on one core through
+ * the scalar loops and the Vector API kernels, reported as passes per second.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ColorAdjustmentBenchmark {
+    /**
+     * The image size, as width x height.
+     */
+    @Param({"1000x900", "3840x2160"})
+    public String size;
+
+    private int[] pixels, target;
+    private ColorAdjustment adjustment;
+    private int[] fused, brightness, contrast, levels, hueMatrix;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("x");
+        pixels = new int[Integer.parseInt(parts[0]) * Integer.parseInt(parts[1])];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() | 0xff000000;
+        }
+        target = new int[pixels.length];
+        adjustment = new ColorAdjustment().brightness(0.1).contrast(0.3).levels(16, 235, 1.2);
+        fused = adjustment.lookupTable();
+        brightness = new ColorAdjustment().brightness(0.1).lookupTable();
+        contrast = new ColorAdjustment().contrast(0.3).lookupTable();
+        levels = new ColorAdjustment().levels(16, 235, 1.2).lookupTable();
+        hueMatrix = ColorAdjustment.hueMatrix(30);
+    }
+
+    @Benchmark
+    public int[] threeTablePasses() {
+        ColorAdjustment.applyTable(pixels, target, 0, pixels.length, brightness);
+        ColorAdjustment.applyTable(target, target, 0, target.length, contrast);
+        ColorAdjustment.applyTable(target, target, 0, target.length, levels);
+        return target;
+    }
+
+    @Benchmark
+    public int[] fusedTable() {
+        ColorAdjustment.applyTable(pixels, target, 0, pixels.length, fused);
+        return target;
+    }
+
+    @Benchmark
+    public int[] fusedTableAllCores() {
+        return adjustment.apply(pixels);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int[] scalarTable() {
+        ColorAdjustment.applyTable(pixels, target, 0, pixels.length, fused);
+        return target;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int[] vectorTable() {
+        VectorColorKernel.applyTable(pixels, target, 0, pixels.length, fused);
+        return target;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int[] scalarHueAndTable() {
+        ColorAdjustment.applyHueAndTable(pixels, target, 0, pixels.length, hueMatrix, fused);
+        return target;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int[] vectorHueAndTable() {
+        VectorColorKernel.applyHueAndTable(pixels, target, 0, pixels.length, hueMatrix, fused);
+        return target;
+    }
+}
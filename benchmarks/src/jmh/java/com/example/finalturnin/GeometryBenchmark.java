@@ -0,0 +1,62 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vertex generation for the shapes created by drawStar and drawPolygon.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+    /**
+     * The number of star points or polygon sides.
+     */
+    @Param({"5", "20"})
+    public int points;
+
+    private ShapeRecord star;
+    private ShapeRecord polygon;
+    private double[] xPoints;
+    private double[] yPoints;
+
+    @Setup
+    public void setUp() {
+        star = new ShapeRecord(ShapeDisplayList.Kind.STAR, 500, 450, 25, 0, points, Color.BLACK, 2, false);
+        polygon = new ShapeRecord(ShapeDisplayList.Kind.POLYGON, 500, 450, 100, 0, points, Color.BLACK, 2, false);
+        xPoints = new double[points * 2];
+        yPoints = new double[points * 2];
+    }
+
+    @Benchmark
+    public void starVertices(Blackhole blackhole) {
+        blackhole.consume(ShapeDisplayList.vertices(star, xPoints, yPoints));
+        blackhole.consume(xPoints);
+        blackhole.consume(yPoints);
+    }
+
+    @Benchmark
+    public void polygonVertices(Blackhole blackhole) {
+        blackhole.consume(ShapeDisplayList.vertices(polygon, xPoints, yPoints));
+        blackhole.consume(xPoints);
+        blackhole.consume(yPoints);
+    }
+}
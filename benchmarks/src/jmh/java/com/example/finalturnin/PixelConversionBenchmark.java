@@ -0,0 +1,106 @@
+package com.example.finalturnin;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image export in saveImage: flattening the document strip by strip and encoding it with the banded PNG encoder,
+ * against the original path, which converted a snapshot of the canvas pixel by pixel and wrote it with ImageIO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class PixelConversionBenchmark {
+    /**
+     * The tile size of the document's layers, as in the app.
+     */
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * The image size, as width x height.
+     */
+    @Param({"1000x900", "3840x2160"})
+    public String size;
+
+    private int width, height;
+    private LayerStack layers;
+    private ShapeDisplayList shapes;
+    private PixelReader reader;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        int[] pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() | 0xff000000; // Opaque, so both paths produce identical output
+        }
+
+        layers = new LayerStack(width, height);
+        layers.addLayer("Image", TILE_SIZE);
+        layers.addLayer("Drawing", TILE_SIZE).getPixels()
+                .writeRegion(0, 0, width, height, pixels, 0, width);
+        shapes = new ShapeDisplayList(width, height); // No shapes, as the per-pixel path only sees the canvas pixels
+
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        reader = image.getPixelReader();
+        target = Files.createTempFile("export-benchmark", ".png");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public boolean flattenAndEncode() throws IOException {
+        DocumentFlattener document = new DocumentFlattener(layers.snapshot(), shapes, 1);
+        return PngEncoder.write(width, height, document, target, rows -> true);
+    }
+
+    @Benchmark
+    public boolean perPixel() throws IOException {
+        // The loop saveImage used before: column order, one Color and one setRGB per pixel, then ImageIO
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                Color color = reader.getColor(x, y);
+                int alpha = (int) (color.getOpacity() * 255);
+                int red = (int) (color.getRed() * 255);
+                int green = (int) (color.getGreen() * 255);
+                int blue = (int) (color.getBlue() * 255);
+                bufferedImage.setRGB(x, y, (alpha << 24) | (red << 16) | (green << 8) | blue);
+            }
+        }
+        return ImageIO.write(bufferedImage, "png", target.toFile());
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.finalturnin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG export: the banded parallel encoder against a BufferedImage written by ImageIO.
+ * Scaling with cores can be measured by forking with
+ * {@code -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=N}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class PngEncoderBenchmark {
+    /**
+     * The image size, as width x height.
+     */
+    @Param({"1000x900", "4096x4096"})
+    public String size;
+
+    private int width, height;
+    private int[] pixels;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Flat areas with noisy patches, closer to a drawing than pure noise
+                pixels[y * width + x] = (x / 64 + y / 64) % 4 == 0 ? random.nextInt() | 0xff000000 : 0xff000000 | x * y;
+            }
+        }
+        target = Files.createTempFile("png-benchmark", ".png");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public boolean parallelBands() throws IOException {
+        return PngEncoder.write(width, height,
+                (y, rows, band, offset) -> System.arraycopy(pixels, y * width, band, offset, rows * width),
+                target, rows -> true);
+    }
+
+    @Benchmark
+    public boolean imageIo() throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return ImageIO.write(image, "png", target.toFile());
+    }
+}
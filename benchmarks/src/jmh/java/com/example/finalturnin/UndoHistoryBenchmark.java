@@ -0,0 +1,72 @@
+package com.example.finalturnin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo and redo round trips through the tile history at several canvas sizes.
+ * Each round trip records a stroke-sized change, undoes it and redoes it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoHistoryBenchmark {
+    /**
+     * The canvas size, as width x height.
+     */
+    @Param({"500x450", "1000x900", "3840x2160"})
+    public String size;
+
+    private TileUndoHistory history;
+    private int[][] states;
+    private int next;
+    private long written;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+
+        // Two canvases that differ by a diagonal stroke, recorded alternately so every checkpoint has a change
+        states = new int[2][width * height];
+        for (int i = 0; i < Math.min(width, height); i++) {
+            for (int d = 0; d < 4 && i + d < width; d++) {
+                states[1][i * width + i + d] = 0xff000000;
+            }
+        }
+        history = new TileUndoHistory(width, height, 64, 64L * 1024 * 1024, states[0]);
+    }
+
+    @Benchmark
+    public long checkpointUndoRedo() {
+        next ^= 1;
+        history.checkpoint(states[next], this::write);
+        history.undo(this::write, (layer, x, y, w, h, pixels) -> { });
+        history.redo(this::write, (layer, x, y, w, h, pixels) -> { });
+        return written;
+    }
+
+    @Benchmark
+    public boolean checkpointUnchanged() {
+        return history.checkpoint(states[next], this::write);
+    }
+
+    private void write(int x, int y, int width, int height, int[] pixels) {
+        written += pixels.length;
+    }
+}
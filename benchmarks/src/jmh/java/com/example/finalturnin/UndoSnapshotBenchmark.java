@@ -0,0 +1,131 @@
+package com.example.finalturnin;
+
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of saveStateForUndo: a transparent snapshot of the drawing canvas, the bulk pixel read,
+ * and the tile checkpoint, for the whole canvas and for only the damaged region of a stroke. Runs on the JavaFX thread with the headless Monocle platform.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class UndoSnapshotBenchmark {
+    /**
+     * The canvas size, as width x height.
+     */
+    @Param({"500x450", "1000x900", "2000x1800"})
+    public String size;
+
+    private Canvas canvas;
+    private WritableImage snapshot;
+    private int[] pixels;
+    private TileUndoHistory history;
+    private SnapshotParameters parameters;
+    private int strokes;
+
+    @Setup
+    public void setUp() throws Exception {
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        try {
+            Platform.startup(() -> started.complete(null));
+        } catch (IllegalStateException alreadyStarted) {
+            started.complete(null);
+        }
+        started.get();
+
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        onFxThread(() -> {
+            canvas = new Canvas(width, height);
+            snapshot = new WritableImage(width, height);
+            pixels = new int[width * height];
+            parameters = new SnapshotParameters();
+            parameters.setFill(Color.TRANSPARENT);
+            history = new TileUndoHistory(width, height, 64, 64L * 1024 * 1024, snapshotPixels());
+            return null;
+        });
+    }
+
+    @Benchmark
+    public int[] snapshot() throws Exception {
+        return onFxThread(this::snapshotPixels);
+    }
+
+    @Benchmark
+    public boolean saveStateForUndo() throws Exception {
+        return onFxThread(() -> {
+            // Draw a short stroke so each checkpoint records a change, as after a real gesture
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            double y = 20 + (strokes++ % 40) * 10;
+            gc.strokeLine(20, y, 200, y);
+            return history.checkpoint(snapshotPixels(), (x, ty, w, h, tile) -> { });
+        });
+    }
+
+    @Benchmark
+    public boolean saveDamagedRegion() throws Exception {
+        return onFxThread(() -> {
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            double y = 20 + (strokes++ % 40) * 10;
+            gc.strokeLine(20, y, 200, y);
+            DamageRegion damage = new DamageRegion();
+            damage.addStroke(gc.getLineWidth(), 20, y, 200, y);
+            int x0 = damage.minX(), y0 = damage.minY(), w = damage.maxX() - x0, h = damage.maxY() - y0;
+
+            SnapshotParameters region = new SnapshotParameters();
+            region.setFill(Color.TRANSPARENT);
+            region.setViewport(new Rectangle2D(x0, y0, w, h));
+            WritableImage image = new WritableImage(w, h);
+            canvas.snapshot(region, image);
+            image.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(),
+                    pixels, y0 * (int) snapshot.getWidth() + x0, (int) snapshot.getWidth());
+            return history.checkpoint(pixels, x0, y0, w, h, (x, ty, tw, th, tile) -> { });
+        });
+    }
+
+    private int[] snapshotPixels() {
+        canvas.snapshot(parameters, snapshot);
+        int width = (int) snapshot.getWidth();
+        int height = (int) snapshot.getHeight();
+        snapshot.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return pixels;
+    }
+
+    private static <T> T onFxThread(Callable<T> task) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get();
+    }
+}
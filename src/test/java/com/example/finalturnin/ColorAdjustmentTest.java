@@ -0,0 +1,72 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks the fused {@link ColorAdjustment} pass against the adjustments applied one after another,
+ * and the Vector API kernels against the scalar loops.
+ */
+class ColorAdjustmentTest {
+    @Test
+    void fusedPassMatchesSequentialAdjustments() {
+        int[] pixels = pixels(100_003, 1); // Not a multiple of any vector length or band
+        Random random = new Random(2);
+        for (int trial = 0; trial < 20; trial++) {
+            double brightness = random.nextDouble() * 2 - 1, contrast = random.nextDouble() * 2 - 1;
+            double hue = trial % 2 == 0 ? 0 : random.nextDouble() * 360 - 180;
+            int black = random.nextInt(200), white = black + 1 + random.nextInt(255 - black);
+            double gamma = 0.1 + random.nextDouble() * 4.9;
+
+            int[] sequential = new ColorAdjustment().hue(hue).apply(pixels);
+            sequential = new ColorAdjustment().brightness(brightness).apply(sequential);
+            sequential = new ColorAdjustment().contrast(contrast).apply(sequential);
+            sequential = new ColorAdjustment().levels(black, white, gamma).apply(sequential);
+            int[] fused = new ColorAdjustment().brightness(brightness).contrast(contrast).hue(hue)
+                    .levels(black, white, gamma).apply(pixels);
+            assertArrayEquals(sequential, fused, "trial " + trial);
+        }
+    }
+
+    @Test
+    void leavesAlphaAndNeutralSettingsUnchanged() {
+        int[] pixels = pixels(4099, 3);
+        assertArrayEquals(pixels, new ColorAdjustment().apply(pixels));
+        int[] adjusted = new ColorAdjustment().brightness(0.5).hue(90).apply(pixels);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i] >>> 24, adjusted[i] >>> 24);
+        }
+    }
+
+    @Test
+    void vectorKernelsMatchScalarLoops() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorColorKernel.isSupported(),
+                "no usable Vector API");
+        int[] pixels = pixels(10_007, 4);
+        int[] table = new ColorAdjustment().brightness(0.2).contrast(0.4).levels(10, 240, 0.8).lookupTable();
+        int[] matrix = ColorAdjustment.hueMatrix(123);
+        int[] scalar = new int[pixels.length], vector = new int[pixels.length];
+
+        ColorAdjustment.applyTable(pixels, scalar, 3, pixels.length - 2, table);
+        VectorColorKernel.applyTable(pixels, vector, 3, pixels.length - 2, table);
+        assertArrayEquals(scalar, vector);
+
+        ColorAdjustment.applyHueAndTable(pixels, scalar, 0, pixels.length, matrix, table);
+        VectorColorKernel.applyHueAndTable(pixels, vector, 0, pixels.length, matrix, table);
+        assertArrayEquals(scalar, vector);
+    }
+
+    private static int[] pixels(int count, int seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
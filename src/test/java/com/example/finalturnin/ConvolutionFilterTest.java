@@ -0,0 +1,126 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link ConvolutionFilter} against a direct 2-D convolution, and filtering by tile against filtering at once.
+ */
+class ConvolutionFilterTest {
+    private static final int WIDTH = 300, HEIGHT = 170;
+
+    @Test
+    void separableBlurMatchesTwoDimensionalReference() {
+        int[] pixels = image(1);
+        for (double radius : new double[]{1, 2.5, 6}) {
+            int[] filtered = ConvolutionFilter.apply(pixels, WIDTH, HEIGHT, ConvolutionFilter.Kernel.gaussianBlur(radius));
+            int[] reference = blurReference(pixels, radius);
+            for (int i = 0; i < pixels.length; i++) {
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int a = (filtered[i] >>> shift) & 0xff, b = (reference[i] >>> shift) & 0xff;
+                    assertTrue(Math.abs(a - b) <= 1, "radius " + radius + ", pixel " + i + ": "
+                            + Integer.toHexString(filtered[i]) + " != " + Integer.toHexString(reference[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    void tilesWithAMarginMatchTheWholeImage() {
+        int[] pixels = image(2);
+        ConvolutionFilter.Kernel[] kernels = {ConvolutionFilter.Kernel.gaussianBlur(4),
+                ConvolutionFilter.Kernel.sharpen(1), ConvolutionFilter.Kernel.edgeDetect(1)};
+        int tile = 64;
+        for (ConvolutionFilter.Kernel kernel : kernels) {
+            int[] whole = ConvolutionFilter.apply(pixels, WIDTH, HEIGHT, kernel);
+            int[] tiled = new int[pixels.length];
+            int r = kernel.radius();
+            for (int ty = 0; ty < HEIGHT; ty += tile) {
+                for (int tx = 0; tx < WIDTH; tx += tile) {
+                    // Filter the tile with a margin of the kernel's radius, clipped to the image, as filters on layers do
+                    int tw = Math.min(tile, WIDTH - tx), th = Math.min(tile, HEIGHT - ty);
+                    int x0 = Math.max(tx - r, 0), y0 = Math.max(ty - r, 0);
+                    int rw = Math.min(tx + tw + r, WIDTH) - x0, rh = Math.min(ty + th + r, HEIGHT) - y0;
+                    int[] region = new int[rw * rh];
+                    for (int row = 0; row < rh; row++) {
+                        System.arraycopy(pixels, (y0 + row) * WIDTH + x0, region, row * rw, rw);
+                    }
+                    int[] processed = ConvolutionFilter.apply(region, rw, rh, kernel);
+                    for (int row = 0; row < th; row++) {
+                        System.arraycopy(processed, (ty - y0 + row) * rw + tx - x0, tiled, (ty + row) * WIDTH + tx, tw);
+                    }
+                }
+            }
+            assertArrayEquals(whole, tiled);
+        }
+    }
+
+    /**
+     * Blurs with the 2-D Gaussian, the outer product of the weights, premultiplied and with edge pixels repeated.
+     */
+    private static int[] blurReference(int[] pixels, double radius) {
+        int r = Math.max(0, (int) Math.ceil(radius));
+        double sigma = Math.max(radius, 1) / 3;
+        double[] weights = new double[2 * r + 1];
+        double total = 0;
+        for (int i = -r; i <= r; i++) {
+            weights[i + r] = Math.exp(-(i * i) / (2 * sigma * sigma));
+            total += weights[i + r];
+        }
+
+        int[] result = new int[pixels.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double[] sum = new double[4];
+                for (int ky = -r; ky <= r; ky++) {
+                    for (int kx = -r; kx <= r; kx++) {
+                        int sx = Math.max(0, Math.min(WIDTH - 1, x + kx)), sy = Math.max(0, Math.min(HEIGHT - 1, y + ky));
+                        int argb = pixels[sy * WIDTH + sx];
+                        double w = weights[ky + r] * weights[kx + r] / (total * total);
+                        double alpha = (argb >>> 24) / 255.0;
+                        sum[0] += (argb >>> 24) * w;
+                        sum[1] += ((argb >> 16) & 0xff) * alpha * w;
+                        sum[2] += ((argb >> 8) & 0xff) * alpha * w;
+                        sum[3] += (argb & 0xff) * alpha * w;
+                    }
+                }
+                int a = (int) Math.round(sum[0]);
+                if (a > 0) {
+                    double scale = 255.0 / a;
+                    result[y * WIDTH + x] = a << 24 | channel(sum[1] * scale) << 16 | channel(sum[2] * scale) << 8
+                            | channel(sum[3] * scale);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int channel(double value) {
+        return (int) Math.round(Math.max(0, Math.min(255, value)));
+    }
+
+    /**
+     * Creates an image of flat areas, noise and transparent patches.
+     */
+    private static int[] image(int seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                if ((x / 40 + y / 40) % 3 == 0) {
+                    pixels[i] = 0; // Transparent
+                } else if ((x / 40 + y / 40) % 3 == 1) {
+                    pixels[i] = random.nextInt();
+                } else {
+                    pixels[i] = 0xff336699;
+                }
+            }
+        }
+        return pixels;
+    }
+}
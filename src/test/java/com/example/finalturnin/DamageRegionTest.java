@@ -0,0 +1,64 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Accumulates, pads and clips rectangles in a {@link DamageRegion}.
+ */
+class DamageRegionTest {
+    @Test
+    void mergesRectanglesIntoTheirUnion() {
+        DamageRegion region = new DamageRegion();
+        assertTrue(region.isEmpty());
+        region.add(10, 20, 5, 5);
+        region.add(0, 0, 0, 100); // Empty; ignored
+        region.add(30, 2, 10, 4);
+        assertArrayEquals(new int[]{10, 2, 40, 25}, bounds(region));
+
+        region.clear();
+        assertTrue(region.isEmpty());
+        region.add(7, 8, 1, 1);
+        assertArrayEquals(new int[]{7, 8, 8, 9}, bounds(region));
+    }
+
+    @Test
+    void roundsFractionalBoundsOutward() {
+        DamageRegion region = new DamageRegion();
+        region.add(1.5, 2.25, 3.0, 0.5);
+        assertArrayEquals(new int[]{1, 2, 5, 3}, bounds(region));
+    }
+
+    @Test
+    void padsStrokesByTheLineWidth() {
+        DamageRegion region = new DamageRegion();
+        region.addStroke(4, 10, 50, 30, 20, 20, 40);
+        assertArrayEquals(new int[]{5, 15, 35, 55}, bounds(region));
+    }
+
+    @Test
+    void clipsToTheSurface() {
+        DamageRegion region = new DamageRegion();
+        region.add(-10, -10, 30, 30);
+        region.clip(15, 100);
+        assertArrayEquals(new int[]{0, 0, 15, 20}, bounds(region));
+
+        region.clear();
+        region.add(200, 10, 5, 5);
+        region.clip(100, 100);
+        assertTrue(region.isEmpty());
+
+        region.add(10, 200, 5, 5);
+        region.clip(100, 100);
+        assertTrue(region.isEmpty());
+        region.add(1, 1, 1, 1);
+        assertFalse(region.isEmpty());
+    }
+
+    private static int[] bounds(DamageRegion region) {
+        return new int[]{region.minX(), region.minY(), region.maxX(), region.maxY()};
+    }
+}
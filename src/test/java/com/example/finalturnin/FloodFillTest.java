@@ -0,0 +1,143 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link FloodFill} against a plain pixel-by-pixel fill on images split into tiles of various sizes.
+ */
+class FloodFillTest {
+    private static final int RED = 0xffff0000, BLACK = 0xff000000;
+
+    @Test
+    void matchesPixelByPixelFill() {
+        Random random = new Random(7);
+        for (int run = 0; run < 200; run++) {
+            int width = 1 + random.nextInt(120), height = 1 + random.nextInt(120), tileSize = 1 + random.nextInt(40);
+            int[] pixels = new int[width * height];
+            int walls = random.nextInt(8);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = random.nextInt(8) < walls ? BLACK : random.nextBoolean() ? 0 : 0x02000000;
+            }
+            int seedX = random.nextInt(width), seedY = random.nextInt(height), tolerance = random.nextInt(3);
+
+            boolean[] filled = fill(pixels, width, height, tileSize, seedX, seedY, tolerance);
+            assertArrayEquals(reference(pixels, width, height, seedX, seedY, tolerance), filled,
+                    width + "x" + height + " in tiles of " + tileSize);
+        }
+    }
+
+    @Test
+    void stopsAtWallsAcrossTileEdges() {
+        int width = 40, height = 40;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            pixels[y * width + 25] = BLACK; // A wall inside the second column of tiles
+        }
+        boolean[] filled = fill(pixels, width, height, 16, 3, 3, 0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(x < 25, filled[y * width + x], "pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void skipsTransparentTilesUntilReached() {
+        int[] reads = {0};
+        boolean changed = FloodFill.fill(1000, 1000, 100, (x, y) -> {
+            reads[0]++;
+            return null;
+        }, 0, 0, RED, 0, (x, y, mask) -> { });
+        assertTrue(changed);
+        assertEquals(100, reads[0]); // Every tile once
+    }
+
+    @Test
+    void leavesFilledRegionAlone() {
+        int[] pixels = new int[16];
+        Arrays.fill(pixels, RED);
+        assertFalse(FloodFill.fill(4, 4, 4, (x, y) -> pixels, 1, 1, RED, 0, (x, y, mask) -> { }));
+        assertFalse(FloodFill.fill(4, 4, 4, (x, y) -> pixels, 4, 0, 0, 0, (x, y, mask) -> { }));
+    }
+
+    @Test
+    void fillsWithinTolerance() {
+        int[] pixels = {0xff101010, 0xff141414, 0xff202020, 0xff101010};
+        assertArrayEquals(new boolean[]{true, true, false, false}, fill(pixels, 4, 1, 4, 0, 0, 4));
+        assertArrayEquals(new boolean[]{true, true, true, true}, fill(pixels, 4, 1, 4, 0, 0, 16));
+    }
+
+    /**
+     * Fills an image with {@link FloodFill}, serving it in tiles.
+     *
+     * @return Which pixels were filled.
+     */
+    private static boolean[] fill(int[] pixels, int width, int height, int tileSize, int seedX, int seedY, int tolerance) {
+        boolean[] filled = new boolean[width * height];
+        FloodFill.fill(width, height, tileSize, (tileX, tileY) -> {
+            int[] tile = new int[tileSize * tileSize];
+            boolean transparent = true;
+            for (int y = 0; y < tileSize && tileY + y < height; y++) {
+                for (int x = 0; x < tileSize && tileX + x < width; x++) {
+                    tile[y * tileSize + x] = pixels[(tileY + y) * width + tileX + x];
+                    transparent &= tile[y * tileSize + x] == 0;
+                }
+            }
+            return transparent ? null : tile;
+        }, seedX, seedY, RED, tolerance, (tileX, tileY, mask) -> {
+            for (int bit = 0; bit < tileSize * tileSize; bit++) {
+                if ((mask[bit >>> 6] & (1L << bit)) != 0) {
+                    int x = tileX + bit % tileSize, y = tileY + bit / tileSize;
+                    assertTrue(x < width && y < height, "bit outside the image");
+                    assertFalse(filled[y * width + x], "pixel reported twice");
+                    filled[y * width + x] = true;
+                }
+            }
+        });
+        return filled;
+    }
+
+    /**
+     * Fills an image one pixel at a time, breadth first.
+     *
+     * @return Which pixels were filled.
+     */
+    private static boolean[] reference(int[] pixels, int width, int height, int seedX, int seedY, int tolerance) {
+        boolean[] filled = new boolean[width * height];
+        int seed = pixels[seedY * width + seedX];
+        Deque<Integer> queue = new ArrayDeque<>();
+        filled[seedY * width + seedX] = true;
+        queue.add(seedY * width + seedX);
+        while (!queue.isEmpty()) {
+            int index = queue.poll();
+            int x = index % width, y = index / width;
+            int[][] neighbours = {{x - 1, y}, {x + 1, y}, {x, y - 1}, {x, y + 1}};
+            for (int[] neighbour : neighbours) {
+                int nx = neighbour[0], ny = neighbour[1];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height || filled[ny * width + nx]) {
+                    continue;
+                }
+                int pixel = pixels[ny * width + nx];
+                boolean matches = true;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    matches &= Math.abs(((pixel >>> shift) & 0xff) - ((seed >>> shift) & 0xff)) <= tolerance;
+                }
+                if (matches) {
+                    filled[ny * width + nx] = true;
+                    queue.add(ny * width + nx);
+                }
+            }
+        }
+        return filled;
+    }
+}
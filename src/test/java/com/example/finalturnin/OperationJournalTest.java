@@ -0,0 +1,192 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes journals, replays them, and replays journals cut off or damaged the way a crash leaves them.
+ */
+class OperationJournalTest {
+    @TempDir
+    Path dir;
+
+    private OperationJournal journal;
+
+    @AfterEach
+    void closeJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void replaysRecordsInOrder() throws IOException, InterruptedException {
+        Path file = dir.resolve("journal.bin");
+        journal = new OperationJournal(file);
+        int[] pixels = new int[32 * 16];
+        Arrays.fill(pixels, 0xff00ff00);
+        ShapeRecord shape = new ShapeRecord(ShapeDisplayList.Kind.RECTANGLE, 1, 2, 30, 40, 0, Color.BLUE, 3, true);
+        journal.newDocument(800, 600);
+        journal.region(1, 10, 20, 32, 16, pixels);
+        journal.shapeAdded(shape);
+        journal.shapeUndone();
+        journal.shapeRedone();
+        journal.clearShapes();
+        journal.clearLayer(0);
+        journal.openProject(dir.resolve("project.jdraw"));
+
+        Recorder replayed = awaitReplay(file, 8);
+        assertEquals(List.of("new 800x600", "region 1 10,20 32x16", "shape RECTANGLE", "undo", "redo", "clear shapes",
+                "clear 0", "open " + dir.resolve("project.jdraw")), replayed.operations);
+        assertArrayEquals(pixels, replayed.pixels.get(0));
+        ShapeRecord read = replayed.shapes.get(0);
+        assertEquals(shape.x, read.x);
+        assertEquals(shape.height, read.height);
+        assertEquals(shape.stroke, read.stroke);
+        assertTrue(read.dashed);
+        assertTrue(OperationJournal.hasChanges(file));
+    }
+
+    @Test
+    void stopsAtTruncatedRecord() throws IOException, InterruptedException {
+        Path file = dir.resolve("journal.bin");
+        journal = new OperationJournal(file);
+        journal.newDocument(100, 100);
+        journal.region(1, 0, 0, 8, 8, new int[64]);
+        journal.region(1, 8, 0, 8, 8, new int[64]);
+        awaitReplay(file, 3);
+
+        Path cut = dir.resolve("cut.bin");
+        Files.copy(file, cut);
+        try (FileChannel channel = FileChannel.open(cut, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // A crash in the middle of the last record
+        }
+        assertEquals(2, OperationJournal.replay(cut, new Recorder()));
+    }
+
+    @Test
+    void stopsAtCorruptRecord() throws IOException, InterruptedException {
+        Path file = dir.resolve("journal.bin");
+        journal = new OperationJournal(file);
+        journal.newDocument(100, 100);
+        journal.clearLayer(0);
+        journal.clearLayer(1);
+        awaitReplay(file, 3);
+
+        // Records are 8 header bytes plus a payload: 9 bytes for a new document, 5 for a layer clear
+        Path damaged = dir.resolve("damaged.bin");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[8 + 9 + 8 + 4] ^= 1; // The layer number of the first clear
+        Files.write(damaged, bytes);
+        Recorder replayed = new Recorder();
+        assertEquals(1, OperationJournal.replay(damaged, replayed));
+        assertEquals(List.of("new 100x100"), replayed.operations);
+    }
+
+    @Test
+    void checkpointReplacesHistoryWithDocument() throws IOException, InterruptedException {
+        Path file = dir.resolve("journal.bin");
+        journal = new OperationJournal(file);
+        LayerStack layers = new LayerStack(300, 200);
+        layers.addLayer("Image", 256);
+        layers.addLayer("Drawing", 256);
+        int[] pixels = new int[10 * 10];
+        Arrays.fill(pixels, 0xffabcdef);
+        layers.getLayer(1).getPixels().writeRegion(260, 5, 10, 10, pixels, 0, 10);
+        ShapeDisplayList shapes = new ShapeDisplayList(300, 200);
+        shapes.add(new ShapeRecord(ShapeDisplayList.Kind.OVAL, 5, 5, 20, 20, 0, Color.RED, 2, false));
+        for (int i = 0; i < 5; i++) {
+            journal.clearLayer(0);
+        }
+        awaitReplay(file, 5);
+
+        journal.checkpoint(layers, shapes, null);
+        Recorder replayed = awaitReplay(file, 3);
+        assertEquals(List.of("new 300x200", "region 1 256,0 256x256", "shape OVAL"), replayed.operations);
+        assertEquals(0xffabcdef, replayed.pixels.get(0)[5 * 256 + 4]);
+        assertFalse(OperationJournal.hasChanges(dir.resolve("missing.bin")));
+    }
+
+    /**
+     * Replays a journal until the writer thread has written the expected number of records.
+     */
+    private static Recorder awaitReplay(Path file, int records) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (true) {
+            Recorder recorder = new Recorder();
+            if (Files.exists(file) && OperationJournal.replay(file, recorder) == records) {
+                return recorder;
+            }
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Describes each replayed operation in a line.
+     */
+    private static final class Recorder implements DocumentOperations {
+        private final List<String> operations = new ArrayList<>();
+        private final List<int[]> pixels = new ArrayList<>();
+        private final List<ShapeRecord> shapes = new ArrayList<>();
+
+        @Override
+        public void newDocument(int width, int height) {
+            operations.add("new " + width + "x" + height);
+        }
+
+        @Override
+        public void openProject(Path project) {
+            operations.add("open " + project);
+        }
+
+        @Override
+        public void clearLayer(int layer) {
+            operations.add("clear " + layer);
+        }
+
+        @Override
+        public void region(int layer, int x, int y, int width, int height, int[] pixels) {
+            operations.add("region " + layer + " " + x + "," + y + " " + width + "x" + height);
+            this.pixels.add(pixels);
+        }
+
+        @Override
+        public void shapeAdded(ShapeRecord record) {
+            operations.add("shape " + record.kind);
+            shapes.add(record);
+        }
+
+        @Override
+        public void clearShapes() {
+            operations.add("clear shapes");
+        }
+
+        @Override
+        public void shapeUndone() {
+            operations.add("undo");
+        }
+
+        @Override
+        public void shapeRedone() {
+            operations.add("redo");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trips images through {@link PngEncoder} and ImageIO's PNG reader.
+ */
+class PngEncoderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsPixelsAcrossBands() throws IOException {
+        // 300 pixels per row puts about 870 rows in a band, so the image spans three bands
+        int width = 300, height = 2000;
+        int[] pixels = new int[width * height];
+        Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            // Runs of repeated pixels exercise the filters; random ones defeat them
+            pixels[i] = i % 7 == 0 ? random.nextInt() : 0x80336699;
+        }
+
+        Path file = dir.resolve("bands.png");
+        assertTrue(PngEncoder.write(width, height, rowsOf(pixels, width), file, rows -> true));
+
+        BufferedImage image = ImageIO.read(file.toFile());
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(pixels[y * width + x], image.getRGB(x, y), "pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void roundTripsSinglePixel() throws IOException {
+        Path file = dir.resolve("pixel.png");
+        assertTrue(PngEncoder.write(1, 1, rowsOf(new int[]{0x12345678}, 1), file, rows -> true));
+        assertEquals(0x12345678, ImageIO.read(file.toFile()).getRGB(0, 0));
+    }
+
+    @Test
+    void reportsProgressAndStopsWhenAborted() throws IOException {
+        int width = 300, height = 2000;
+        int[] reported = {0};
+        boolean finished = PngEncoder.write(width, height, rowsOf(new int[width * height], width), dir.resolve("aborted.png"), rows -> {
+            reported[0] = rows;
+            return false;
+        });
+        assertFalse(finished);
+        assertTrue(reported[0] > 0 && reported[0] < height);
+    }
+
+    /**
+     * Serves rows out of an array holding the whole image.
+     */
+    private static PngEncoder.RowSource rowsOf(int[] pixels, int width) {
+        return (y, rows, target, offset) -> System.arraycopy(pixels, y * width, target, offset, rows * width);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.finalturnin;
+
+import com.example.finalturnin.ShapeDisplayList.ShapeRecord;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saves documents as {@link ProjectFile}s, appends to and rewrites them, and opens them again.
+ */
+class ProjectFileTest {
+    private static final int WIDTH = 700, HEIGHT = 500, TILE_SIZE = 256;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopensSavedDocument() throws IOException {
+        LayerStack layers = createLayers();
+        paint(layers, 0, 0, 0, 0xff102030);
+        paint(layers, 1, 600, 400, 0x80405060);
+        layers.getLayer(0).setVisible(false);
+        layers.getLayer(1).setOpacity(0.5);
+        layers.getLayer(1).setBlendMode(Layer.BlendMode.values()[Layer.BlendMode.values().length - 1]);
+        ShapeRecord shape = new ShapeRecord(ShapeDisplayList.Kind.STAR, 10, 20, 30, 40, 5, Color.GREEN, 2, false);
+
+        Path file = dir.resolve("document.jdraw");
+        ProjectFile saved = save(null, file, layers, List.of(shape));
+        saved.close();
+
+        try (ProjectFile project = ProjectFile.open(file)) {
+            assertEquals(WIDTH, project.getWidth());
+            assertEquals(HEIGHT, project.getHeight());
+            assertEquals(TILE_SIZE, project.getTileSize());
+            assertEquals(2, project.layerCount());
+            assertEquals(1, project.getShapes().size());
+            assertEquals(ShapeDisplayList.Kind.STAR, project.getShapes().get(0).kind);
+
+            LayerStack opened = createLayers();
+            project.attach(opened);
+            assertEquals(0xff102030, pixel(opened, 0, 0, 0));
+            assertEquals(0x80405060, pixel(opened, 1, 605, 405));
+            assertEquals(0, pixel(opened, 1, 5, 5));
+            assertFalse(opened.getLayer(0).isVisible());
+            assertEquals(0.5, opened.getLayer(1).getOpacity());
+            assertEquals(layers.getLayer(1).getBlendMode(), opened.getLayer(1).getBlendMode());
+        }
+    }
+
+    @Test
+    void appendsOnlyChangedTiles() throws IOException {
+        LayerStack layers = createLayers();
+        paint(layers, 0, 0, 0, 0xff000001);
+        paint(layers, 0, 300, 300, 0xff000002);
+        Path file = dir.resolve("append.jdraw");
+        ProjectFile first = save(null, file, layers, List.of());
+        long size = Files.size(file);
+
+        paint(layers, 0, 300, 300, 0xff000003);
+        ProjectFile second = save(first, file, layers, List.of());
+        assertSame(first, second);
+        long appended = Files.size(file) - size;
+        assertTrue(appended > 0 && appended < size, "only one tile and an index were appended");
+
+        // Tiles loaded from the file before the append still read their own chunks
+        assertEquals(0xff000001, pixel(layers, 0, 5, 5));
+        second.close();
+        try (ProjectFile project = ProjectFile.open(file)) {
+            LayerStack opened = createLayers();
+            project.attach(opened);
+            assertEquals(0xff000001, pixel(opened, 0, 5, 5));
+            assertEquals(0xff000003, pixel(opened, 0, 305, 305));
+        }
+    }
+
+    @Test
+    void rewritesFileOnceMostlyStale() throws IOException {
+        LayerStack layers = createLayers();
+        paint(layers, 1, 0, 0, 0xff0000ff);
+        Path file = dir.resolve("rewrite.jdraw");
+        ProjectFile project = save(null, file, layers, List.of());
+
+        // Each save replaces the same tile, until the replaced chunks outweigh the live ones
+        ProjectFile previous;
+        int saves = 0;
+        do {
+            previous = project;
+            paint(layers, 1, 0, 0, 0xff000000 | ++saves);
+            project = save(previous, file, layers, List.of());
+        } while (project == previous && saves < 10);
+        assertNotSame(previous, project, "the file was rewritten");
+        long rewritten = Files.size(file);
+
+        paint(layers, 1, 0, 0, 0xff00ff00);
+        project = save(project, file, layers, List.of());
+        assertTrue(Files.size(file) > rewritten, "the rewritten file is appended to again");
+        project.close();
+
+        try (ProjectFile reopened = ProjectFile.open(file)) {
+            LayerStack opened = createLayers();
+            reopened.attach(opened);
+            assertEquals(0xff00ff00, pixel(opened, 1, 1, 1));
+        }
+    }
+
+    @Test
+    void copiesUnchangedTilesToNewFile() throws IOException {
+        LayerStack layers = createLayers();
+        paint(layers, 0, 0, 0, 0xff111111);
+        Path original = dir.resolve("original.jdraw");
+        save(null, original, layers, List.of()).close();
+
+        // A document opened from the project still has its tiles unloaded when saved elsewhere
+        ProjectFile opened = ProjectFile.open(original);
+        LayerStack document = createLayers();
+        opened.attach(document);
+        paint(document, 1, 300, 0, 0xff222222);
+        Path copy = dir.resolve("copy.jdraw");
+        ProjectFile saved = save(opened, copy, document, List.of());
+        assertNotSame(opened, saved);
+        saved.close();
+
+        try (ProjectFile project = ProjectFile.open(copy)) {
+            LayerStack reopened = createLayers();
+            project.attach(reopened);
+            assertEquals(0xff111111, pixel(reopened, 0, 0, 0));
+            assertEquals(0xff222222, pixel(reopened, 1, 300, 0));
+        }
+    }
+
+    @Test
+    void rejectsFilesThatAreNotProjects() throws IOException {
+        Path file = dir.resolve("not.jdraw");
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> ProjectFile.open(file));
+    }
+
+    /**
+     * Saves a snapshot of the layers, as the application does, and hands the saved file to the layers.
+     */
+    private static ProjectFile save(ProjectFile previous, Path file, LayerStack layers, List<ShapeRecord> shapes) throws IOException {
+        LayerStack snapshot = layers.snapshot();
+        for (int i = 0; i < layers.size(); i++) {
+            layers.getLayer(i).getPixels().markClean();
+        }
+        ProjectFile saved = ProjectFile.save(previous, file, snapshot, new ArrayList<>(shapes));
+        saved.adopt(previous, layers);
+        return saved;
+    }
+
+    private static LayerStack createLayers() {
+        LayerStack layers = new LayerStack(WIDTH, HEIGHT);
+        layers.addLayer("Image", TILE_SIZE);
+        layers.addLayer("Drawing", TILE_SIZE);
+        return layers;
+    }
+
+    /**
+     * Fills a 50 pixel square of a layer.
+     */
+    private static void paint(LayerStack layers, int layer, int x, int y, int argb) {
+        int[] pixels = new int[50 * 50];
+        Arrays.fill(pixels, argb);
+        layers.getLayer(layer).getPixels().writeRegion(x, y, 50, 50, pixels, 0, 50);
+    }
+
+    private static int pixel(LayerStack layers, int layer, int x, int y) {
+        int[] pixel = new int[1];
+        layers.getLayer(layer).getPixels().readRegion(x, y, 1, 1, pixel);
+        return pixel[0];
+    }
+}
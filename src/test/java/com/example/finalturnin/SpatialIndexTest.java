@@ -0,0 +1,82 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares {@link SpatialIndex} queries against a scan of every box.
+ */
+class SpatialIndexTest {
+    private static final int COUNT = 2000, SIZE = 1000;
+
+    @Test
+    void queriesMatchAScanOfEveryBox() {
+        Random random = new Random(9);
+        double[][] boxes = new double[COUNT][];
+        SpatialIndex<Integer> index = new SpatialIndex<>(SIZE, SIZE);
+        for (int i = 0; i < COUNT; i++) {
+            boxes[i] = box(random);
+            index.insert(i, boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3]);
+        }
+        for (int i = 0; i < COUNT; i += 3) { // Remove some and move others, including outside the area
+            if (i % 2 == 0) {
+                assertTrue(index.remove(i));
+                boxes[i] = null;
+            } else {
+                boxes[i] = new double[]{-50 + i % 7, 900, 1100, 1200};
+                index.insert(i, boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3]);
+            }
+        }
+        assertEquals(COUNT - (COUNT + 5) / 6, index.size());
+
+        for (int q = 0; q < 200; q++) {
+            double[] query = box(random);
+            Set<Integer> found = new HashSet<>();
+            index.query(query[0], query[1], query[2], query[3], item -> assertTrue(found.add(item), "reported twice"));
+            assertEquals(scan(boxes, query[0], query[1], query[2], query[3]), found);
+
+            double x = random.nextDouble() * SIZE, y = random.nextDouble() * SIZE;
+            Set<Integer> hit = new HashSet<>();
+            index.queryPoint(x, y, hit::add);
+            assertEquals(scan(boxes, x, y, x, y), hit);
+        }
+    }
+
+    @Test
+    void clearEmptiesTheIndex() {
+        SpatialIndex<String> index = new SpatialIndex<>(100, 100);
+        index.insert("a", 10, 10, 20, 20);
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.remove("a"));
+        index.queryPoint(15, 15, item -> { throw new AssertionError(item); });
+    }
+
+    /**
+     * Creates a box of random size inside the area, mostly small like a drawn shape.
+     */
+    private static double[] box(Random random) {
+        double w = random.nextInt(10) == 0 ? random.nextDouble() * 400 : random.nextDouble() * 40;
+        double h = random.nextInt(10) == 0 ? random.nextDouble() * 400 : random.nextDouble() * 40;
+        double x = random.nextDouble() * (SIZE - w), y = random.nextDouble() * (SIZE - h);
+        return new double[]{x, y, x + w, y + h};
+    }
+
+    private static Set<Integer> scan(double[][] boxes, double minX, double minY, double maxX, double maxY) {
+        Set<Integer> result = new HashSet<>();
+        for (int i = 0; i < boxes.length; i++) {
+            double[] b = boxes[i];
+            if (b != null && b[0] <= maxX && b[2] >= minX && b[1] <= maxY && b[3] >= minY) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Records canvas and layer changes in a {@link TileUndoHistory}, undoes and redoes them, and evicts old entries.
+ */
+class TileUndoHistoryTest {
+    private static final int WIDTH = 150, HEIGHT = 100, TILE = 64;
+
+    private TileUndoHistory history;
+
+    @AfterEach
+    void closeHistory() {
+        if (history != null) {
+            history.close();
+        }
+    }
+
+    @Test
+    void undoAndRedoRestoreTheCanvas() {
+        int[] original = canvas(1);
+        history = new TileUndoHistory(WIDTH, HEIGHT, TILE, Long.MAX_VALUE, original);
+        int[] pixels = original.clone();
+        paint(pixels, 70, 10, 20, 20, 0xffff0000);
+        List<int[]> changed = new ArrayList<>();
+        assertTrue(history.checkpoint(pixels, (x, y, w, h, tile) -> changed.add(new int[]{x, y, w, h})));
+        assertEquals(1, changed.size());
+        assertArrayEquals(new int[]{64, 0, 64, 64}, changed.get(0));
+        int[] edited = pixels.clone();
+
+        assertTrue(history.undo((x, y, w, h, tile) -> paste(pixels, x, y, w, h, tile), this::noLayer));
+        assertArrayEquals(original, pixels);
+        assertTrue(history.redo((x, y, w, h, tile) -> paste(pixels, x, y, w, h, tile), this::noLayer));
+        assertArrayEquals(edited, pixels);
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    void recordsNothingWhenNothingChanged() {
+        int[] pixels = canvas(2);
+        history = new TileUndoHistory(WIDTH, HEIGHT, TILE, Long.MAX_VALUE, pixels);
+        assertFalse(history.checkpoint(pixels.clone(), (x, y, w, h, tile) -> { }));
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void newChangeDiscardsRedo() {
+        int[] pixels = canvas(3);
+        history = new TileUndoHistory(WIDTH, HEIGHT, TILE, Long.MAX_VALUE, pixels);
+        paint(pixels, 0, 0, 10, 10, 0xff00ff00);
+        history.checkpoint(pixels, (x, y, w, h, tile) -> { });
+        history.undo((x, y, w, h, tile) -> paste(pixels, x, y, w, h, tile), this::noLayer);
+        assertTrue(history.canRedo());
+
+        paint(pixels, 140, 90, 10, 10, 0xff0000ff); // The partial tile in the corner
+        assertTrue(history.checkpoint(pixels, (x, y, w, h, tile) -> { }));
+        assertFalse(history.canRedo());
+        assertEquals(1, history.undoSize());
+    }
+
+    @Test
+    void layerEditsGoToTheLayerWriter() {
+        history = new TileUndoHistory(WIDTH, HEIGHT, TILE, Long.MAX_VALUE, canvas(4));
+        int w = 100, h = 40;
+        int[] before = new int[w * h];
+        int[] after = new int[w * h];
+        paint(after, w, 30, 5, 40, 20, 0xff123456); // Crosses the tile boundary at x = 64
+        TileUndoHistory.LayerEdit edit = history.beginLayerEdit(2);
+        edit.addRegion(20, 30, w, h, before, after);
+        assertTrue(edit.commit());
+
+        int[] layer = after.clone();
+        TileUndoHistory.LayerWriter writer = (index, x, y, tw, th, tile) -> {
+            assertEquals(2, index);
+            paste(layer, w, x - 20, y - 30, tw, th, tile);
+        };
+        assertTrue(history.undo((x, y, tw, th, tile) -> { throw new AssertionError("canvas written"); }, writer));
+        assertArrayEquals(before, layer);
+        assertTrue(history.redo((x, y, tw, th, tile) -> { throw new AssertionError("canvas written"); }, writer));
+        assertArrayEquals(after, layer);
+    }
+
+    @Test
+    void discardedLayerEditsReleaseTheirTiles() {
+        history = new TileUndoHistory(WIDTH, HEIGHT, TILE, Long.MAX_VALUE, canvas(6));
+        int[] after = new int[TILE * TILE];
+        Arrays.fill(after, 0xff000000);
+        TileUndoHistory.LayerEdit edit = history.beginLayerEdit(1);
+        edit.addRegion(0, 0, TILE, TILE, new int[TILE * TILE], after);
+        assertTrue(history.memoryUsed() > 0);
+
+        edit.discard();
+        assertEquals(0, history.memoryUsed());
+        assertFalse(edit.commit());
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void evictsOldestEntriesBeyondTheDiskBudget() throws InterruptedException {
+        int[] pixels = canvas(5);
+        history = new TileUndoHistory(WIDTH, HEIGHT, TILE, 0, 1, pixels);
+        Random random = new Random(5);
+        for (int i = 0; i < 4; i++) {
+            for (int p = 0; p < pixels.length; p += 7) {
+                pixels[p] = random.nextInt();
+            }
+            assertTrue(history.checkpoint(pixels, (x, y, w, h, tile) -> { }));
+            await(() -> history.diskUsed() > 1); // Let the entry spill so the next push sees it
+        }
+
+        assertEquals(1, history.undoSize()); // The newest entry is always kept
+        assertEquals(3, history.evictedEntries());
+        assertTrue(history.undo((x, y, w, h, tile) -> paste(pixels, x, y, w, h, tile), this::noLayer));
+        assertFalse(history.canUndo());
+    }
+
+    private void noLayer(int layer, int x, int y, int w, int h, int[] pixels) {
+        throw new AssertionError("layer " + layer + " written");
+    }
+
+    /**
+     * Creates a canvas with a pattern that differs per seed.
+     */
+    private static int[] canvas(int seed) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i * seed) & 0xffffff;
+        }
+        return pixels;
+    }
+
+    private static void paint(int[] pixels, int x, int y, int w, int h, int color) {
+        paint(pixels, WIDTH, x, y, w, h, color);
+    }
+
+    private static void paint(int[] pixels, int stride, int x, int y, int w, int h, int color) {
+        for (int row = y; row < y + h; row++) {
+            Arrays.fill(pixels, row * stride + x, row * stride + x + w, color);
+        }
+    }
+
+    private static void paste(int[] pixels, int x, int y, int w, int h, int[] tile) {
+        paste(pixels, WIDTH, x, y, w, h, tile);
+    }
+
+    private static void paste(int[] pixels, int stride, int x, int y, int w, int h, int[] tile) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(tile, row * w, pixels, (y + row) * stride + x, w);
+        }
+    }
+
+    /**
+     * Waits for the history's background compression to reach a state.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.finalturnin;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores blocks in an {@link UndoStore} and reads them back from the heap and from the scratch file.
+ */
+class UndoStoreTest {
+    private UndoStore store;
+
+    @AfterEach
+    void closeStore() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void readsBlocksBackAfterSpilling() throws InterruptedException {
+        store = new UndoStore(0); // Nothing may stay on the heap once compressed
+        List<int[]> originals = blocks(50);
+        List<UndoStore.Block> stored = new ArrayList<>();
+        for (int[] pixels : originals) {
+            stored.add(store.store(pixels.clone()));
+        }
+
+        await(() -> store.heapBytes() == 0);
+        assertTrue(store.diskBytes() > 0);
+        for (int i = 0; i < originals.size(); i++) {
+            assertArrayEquals(originals.get(i), stored.get(i).read(), "block " + i);
+        }
+
+        for (UndoStore.Block block : stored) {
+            block.release();
+        }
+        assertEquals(0, store.diskBytes());
+        assertThrows(IllegalStateException.class, () -> stored.get(0).read());
+    }
+
+    @Test
+    void keepsCompressedBlocksOnHeapWithinBudget() throws InterruptedException {
+        store = new UndoStore(Long.MAX_VALUE);
+        List<int[]> originals = blocks(20);
+        List<UndoStore.Block> stored = new ArrayList<>();
+        for (int[] pixels : originals) {
+            stored.add(store.store(pixels.clone()));
+        }
+        long raw = 4L * originals.size() * originals.get(0).length;
+
+        await(() -> store.heapBytes() < raw / 2); // The blocks compress well
+        assertEquals(0, store.diskBytes());
+        for (int i = 0; i < originals.size(); i++) {
+            assertArrayEquals(originals.get(i), stored.get(i).read(), "block " + i);
+        }
+    }
+
+    @Test
+    void releasesSpaceOfBlocksReleasedBeforeCompression() {
+        store = new UndoStore(0);
+        UndoStore.Block block = store.store(new int[64 * 64]);
+        block.release();
+        assertEquals(0, store.heapBytes());
+    }
+
+    /**
+     * Creates tile-sized blocks that compress, with enough noise that no two are alike.
+     */
+    private static List<int[]> blocks(int count) {
+        Random random = new Random(3);
+        List<int[]> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int[] pixels = new int[64 * 64];
+            for (int p = 0; p < pixels.length; p++) {
+                pixels[p] = p % 16 == 0 ? random.nextInt() : 0xff000000 | i;
+            }
+            blocks.add(pixels);
+        }
+        return blocks;
+    }
+
+    /**
+     * Waits for the store's background thread to reach a state.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}